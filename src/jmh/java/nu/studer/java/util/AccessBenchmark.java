@@ -0,0 +1,83 @@
+package nu.studer.java.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures looking up and updating single properties.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class AccessBenchmark {
+
+    @Benchmark
+    public String orderedPropertiesGetProperty(PropertiesState state, Cursor cursor) {
+        return state.orderedProperties.getProperty(state.keys[cursor.next(state.size)]);
+    }
+
+    @Benchmark
+    public String frozenOrderedPropertiesGetProperty(PropertiesState state, Cursor cursor) {
+        return state.frozenOrderedProperties.getProperty(state.keys[cursor.next(state.size)]);
+    }
+
+    @Benchmark
+    public String compactOrderedPropertiesGetProperty(PropertiesState state, Cursor cursor) {
+        return state.compactOrderedProperties.getProperty(state.keys[cursor.next(state.size)]);
+    }
+
+    @Benchmark
+    public String jdkPropertiesGetProperty(PropertiesState state, Cursor cursor) {
+        return state.jdkProperties.getProperty(state.keys[cursor.next(state.size)]);
+    }
+
+    @Benchmark
+    public String mapGet(PropertiesState state, Cursor cursor) {
+        return state.map.get(state.keys[cursor.next(state.size)]);
+    }
+
+    @Benchmark
+    public String orderedPropertiesSetProperty(PropertiesState state, Cursor cursor) {
+        int index = cursor.next(state.size);
+        return state.orderedProperties.setProperty(state.keys[index], state.values[index]);
+    }
+
+    @Benchmark
+    public Object jdkPropertiesSetProperty(PropertiesState state, Cursor cursor) {
+        int index = cursor.next(state.size);
+        return state.jdkProperties.setProperty(state.keys[index], state.values[index]);
+    }
+
+    @Benchmark
+    public String mapPut(PropertiesState state, Cursor cursor) {
+        int index = cursor.next(state.size);
+        return state.map.put(state.keys[index], state.values[index]);
+    }
+
+    /**
+     * Cycles through the keys such that each invocation accesses a different property.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        private int index;
+
+        int next(int size) {
+            index = (index + 1 == size) ? 0 : index + 1;
+            return index;
+        }
+
+    }
+
+}
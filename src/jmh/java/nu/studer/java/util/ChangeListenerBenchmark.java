@@ -0,0 +1,77 @@
+package nu.studer.java.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures setting single properties and loading properties without any change listener, which must not add any
+ * noticeable cost, compared with a registered change listener that consumes the reported changes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ChangeListenerBenchmark {
+
+    @Param({"1000", "100000"})
+    public int size;
+
+    @Param({"false", "true"})
+    public boolean listener;
+
+    private OrderedProperties orderedProperties;
+    private String[] keys;
+    private String content;
+    private int index;
+
+    @Setup
+    public void setUp(final Blackhole blackhole) {
+        orderedProperties = new OrderedProperties();
+        if (listener) {
+            orderedProperties.addChangeListener(blackhole::consume);
+        }
+
+        keys = new String[size];
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            keys[i] = "some.key." + i;
+            orderedProperties.setProperty(keys[i], "some value " + i);
+            content.append(keys[i]).append("=some other value ").append(i).append('\n');
+        }
+        this.content = content.toString();
+    }
+
+    @Benchmark
+    public String orderedPropertiesSetProperty() {
+        index = (index + 1) % size;
+        return orderedProperties.setProperty(keys[index], (index & 1) == 0 ? "some value" : "some other value");
+    }
+
+    @Benchmark
+    public OrderedProperties orderedPropertiesLoad() throws IOException {
+        OrderedProperties properties = new OrderedProperties();
+        if (listener) {
+            properties.addChangeListener(changes -> {
+            });
+        }
+        properties.load(new StringReader(content));
+        return properties;
+    }
+
+}
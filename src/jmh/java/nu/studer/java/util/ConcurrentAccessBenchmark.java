@@ -0,0 +1,173 @@
+package nu.studer.java.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import static nu.studer.java.util.OrderedProperties.OrderedPropertiesBuilder;
+
+/**
+ * Measures the throughput of looking up properties from multiple threads, comparing concurrent and copy-on-write
+ * instances with instances that are guarded by a lock, and with {@link Properties} instances, which are
+ * synchronized. Run with the <tt>-t</tt> option to vary the number of reading threads, e.g. <tt>-t 1</tt>,
+ * <tt>-t 4</tt>, and <tt>-t 16</tt>, in order to see how the read throughput scales with the number of cores.
+ * <p/>
+ * The benchmarks of the <tt>readWrite</tt> groups run three reading threads and one writing thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ConcurrentAccessBenchmark {
+
+    @Param({"1000", "100000"})
+    public int size;
+
+    @Param({"insertion", "comparator"})
+    public String ordering;
+
+    private String[] keys;
+    private String[] values;
+
+    private OrderedProperties concurrentOrderedProperties;
+    private OrderedProperties copyOnWriteOrderedProperties;
+    private OrderedProperties lockedOrderedProperties;
+    private Properties jdkProperties;
+
+    @Setup
+    public void setUp() {
+        keys = new String[size];
+        values = new String[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = "some.key." + Integer.toHexString(i * 0x9E3779B1);
+            values[i] = "some value " + i;
+        }
+
+        concurrentOrderedProperties = newBuilder().withConcurrency(true).build();
+        copyOnWriteOrderedProperties = newBuilder().withCopyOnWrite(true).build();
+        lockedOrderedProperties = newBuilder().build();
+        jdkProperties = new Properties();
+        for (int i = 0; i < size; i++) {
+            concurrentOrderedProperties.setProperty(keys[i], values[i]);
+            lockedOrderedProperties.setProperty(keys[i], values[i]);
+            jdkProperties.setProperty(keys[i], values[i]);
+        }
+        copyOnWriteOrderedProperties.update(properties -> {
+            for (int i = 0; i < size; i++) {
+                properties.setProperty(keys[i], values[i]);
+            }
+        });
+    }
+
+    private OrderedPropertiesBuilder newBuilder() {
+        OrderedPropertiesBuilder builder = new OrderedPropertiesBuilder();
+        if ("comparator".equals(ordering)) {
+            builder.withOrdering(String.CASE_INSENSITIVE_ORDER);
+        }
+        return builder;
+    }
+
+    @Benchmark
+    public String concurrentOrderedPropertiesGetProperty(Cursor cursor) {
+        return concurrentOrderedProperties.getProperty(keys[cursor.next(size)]);
+    }
+
+    @Benchmark
+    public String copyOnWriteOrderedPropertiesGetProperty(Cursor cursor) {
+        return copyOnWriteOrderedProperties.getProperty(keys[cursor.next(size)]);
+    }
+
+    @Benchmark
+    public String lockedOrderedPropertiesGetProperty(Cursor cursor) {
+        synchronized (lockedOrderedProperties) {
+            return lockedOrderedProperties.getProperty(keys[cursor.next(size)]);
+        }
+    }
+
+    @Benchmark
+    public String jdkPropertiesGetProperty(Cursor cursor) {
+        return jdkProperties.getProperty(keys[cursor.next(size)]);
+    }
+
+    @Benchmark
+    @Group("concurrentReadWrite")
+    @GroupThreads(3)
+    public String concurrentOrderedPropertiesRead(Cursor cursor) {
+        return concurrentOrderedProperties.getProperty(keys[cursor.next(size)]);
+    }
+
+    @Benchmark
+    @Group("concurrentReadWrite")
+    @GroupThreads(1)
+    public String concurrentOrderedPropertiesWrite(Cursor cursor) {
+        int index = cursor.next(size);
+        return concurrentOrderedProperties.setProperty(keys[index], values[index]);
+    }
+
+    @Benchmark
+    @Group("copyOnWriteReadWrite")
+    @GroupThreads(3)
+    public String copyOnWriteOrderedPropertiesRead(Cursor cursor) {
+        return copyOnWriteOrderedProperties.getProperty(keys[cursor.next(size)]);
+    }
+
+    @Benchmark
+    @Group("copyOnWriteReadWrite")
+    @GroupThreads(1)
+    public String copyOnWriteOrderedPropertiesWrite(Cursor cursor) {
+        // each write copies all properties, which is the price paid for non-blocking, consistent reads
+        int index = cursor.next(size);
+        return copyOnWriteOrderedProperties.setProperty(keys[index], values[index]);
+    }
+
+    @Benchmark
+    @Group("lockedReadWrite")
+    @GroupThreads(3)
+    public String lockedOrderedPropertiesRead(Cursor cursor) {
+        synchronized (lockedOrderedProperties) {
+            return lockedOrderedProperties.getProperty(keys[cursor.next(size)]);
+        }
+    }
+
+    @Benchmark
+    @Group("lockedReadWrite")
+    @GroupThreads(1)
+    public String lockedOrderedPropertiesWrite(Cursor cursor) {
+        int index = cursor.next(size);
+        synchronized (lockedOrderedProperties) {
+            return lockedOrderedProperties.setProperty(keys[index], values[index]);
+        }
+    }
+
+    /**
+     * Cycles through the keys such that each invocation accesses a different property. Each thread starts at a
+     * different key.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        private int index = (int) (Thread.currentThread().getId() * 0x9E3779B1) & 0x7FFFFFFF;
+
+        int next(int size) {
+            index = (index + 1 >= size) ? 0 : index + 1;
+            return index;
+        }
+
+    }
+
+}
@@ -0,0 +1,85 @@
+package nu.studer.java.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures copying all properties into a new instance, and converting them to and from {@link Properties}, either
+ * through a copy or through a view that is backed by the instance.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class CopyBenchmark {
+
+    @Benchmark
+    public OrderedProperties orderedPropertiesCopyOf(PropertiesState state) {
+        return OrderedProperties.copyOf(state.orderedProperties);
+    }
+
+    @Benchmark
+    public Properties orderedPropertiesToJdkProperties(PropertiesState state) {
+        return state.orderedProperties.toJdkProperties();
+    }
+
+    @Benchmark
+    public void orderedPropertiesAsJdkPropertiesStore(PropertiesState state) throws IOException {
+        state.orderedProperties.asJdkProperties().store(DiscardingWriter.INSTANCE, null);
+    }
+
+    @Benchmark
+    public void orderedPropertiesToJdkPropertiesStore(PropertiesState state) throws IOException {
+        state.orderedProperties.toJdkProperties().store(DiscardingWriter.INSTANCE, null);
+    }
+
+    @Benchmark
+    public OrderedProperties orderedPropertiesFromJdkProperties(PropertiesState state) {
+        return OrderedProperties.fromJdkProperties(state.jdkProperties);
+    }
+
+    @Benchmark
+    public Properties jdkPropertiesPutAll(PropertiesState state) {
+        Properties copy = new Properties();
+        copy.putAll(state.jdkProperties);
+        return copy;
+    }
+
+    @Benchmark
+    public Map<String, String> mapPutAll(PropertiesState state) {
+        Map<String, String> copy = state.newMap();
+        copy.putAll(state.map);
+        return copy;
+    }
+
+    private static final class DiscardingWriter extends Writer {
+
+        private static final DiscardingWriter INSTANCE = new DiscardingWriter();
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+    }
+
+}
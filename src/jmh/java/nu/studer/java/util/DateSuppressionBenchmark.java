@@ -0,0 +1,95 @@
+package nu.studer.java.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+import static nu.studer.java.util.OrderedProperties.OrderedPropertiesBuilder;
+
+/**
+ * Compares storing properties with and without the comment that contains the current date. Run with the
+ * <tt>-prof gc</tt> option to compare the allocation rates of both modes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class DateSuppressionBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    public int entries;
+
+    @Param({"false", "true"})
+    public boolean suppressDate;
+
+    @Param({"", "some comment that spans\nmultiple lines"})
+    public String comment;
+
+    private OrderedProperties properties;
+
+    @Setup
+    public void setUp() {
+        properties = new OrderedPropertiesBuilder().withSuppressDateInComment(suppressDate).build();
+        for (int i = 0; i < entries; i++) {
+            properties.setProperty("some.key." + i, "some value " + i);
+        }
+    }
+
+    @Benchmark
+    public void storeToStream() throws IOException {
+        properties.store(DiscardingOutputStream.INSTANCE, comment.isEmpty() ? null : comment);
+    }
+
+    @Benchmark
+    public void storeToWriter() throws IOException {
+        properties.store(DiscardingWriter.INSTANCE, comment.isEmpty() ? null : comment);
+    }
+
+    private static final class DiscardingOutputStream extends OutputStream {
+
+        private static final DiscardingOutputStream INSTANCE = new DiscardingOutputStream();
+
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+
+    }
+
+    private static final class DiscardingWriter extends Writer {
+
+        private static final DiscardingWriter INSTANCE = new DiscardingWriter();
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+    }
+
+}
@@ -0,0 +1,97 @@
+package nu.studer.java.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import static nu.studer.java.util.OrderedProperties.OrderedPropertiesBuilder;
+
+/**
+ * Measures looking up properties that are only present in the last layer of a chain of default properties, for
+ * chains of different depths, compared with walking the layers manually and with {@link Properties} instances,
+ * which walk their chain of defaults on each lookup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class DefaultsBenchmark {
+
+    @Param({"1", "4", "16"})
+    public int depth;
+
+    @Param({"1000"})
+    public int size;
+
+    private String[] keys;
+    private OrderedProperties[] layers;
+    private OrderedProperties orderedProperties;
+    private Properties jdkProperties;
+    private int index;
+
+    @Setup
+    public void setUp() {
+        keys = new String[size];
+        OrderedProperties base = new OrderedProperties();
+        Properties jdkBase = new Properties();
+        for (int i = 0; i < size; i++) {
+            keys[i] = "some.key." + i;
+            base.setProperty(keys[i], "some value " + i);
+            jdkBase.setProperty(keys[i], "some value " + i);
+        }
+
+        layers = new OrderedProperties[depth + 1];
+        layers[depth] = base;
+        orderedProperties = base;
+        jdkProperties = jdkBase;
+        for (int layer = depth - 1; layer >= 0; layer--) {
+            orderedProperties = new OrderedPropertiesBuilder().withDefaults(orderedProperties).build();
+            orderedProperties.setProperty("layer." + layer, "some value");
+            layers[layer] = new OrderedProperties();
+            layers[layer].setProperty("layer." + layer, "some value");
+            jdkProperties = new Properties(jdkProperties);
+            jdkProperties.setProperty("layer." + layer, "some value");
+        }
+    }
+
+    private String nextKey() {
+        index = (index + 1 == size) ? 0 : index + 1;
+        return keys[index];
+    }
+
+    @Benchmark
+    public String orderedPropertiesGetProperty() {
+        return orderedProperties.getProperty(nextKey());
+    }
+
+    @Benchmark
+    public String orderedPropertiesManualChain() {
+        String key = nextKey();
+        for (OrderedProperties layer : layers) {
+            String value = layer.getProperty(key);
+            if (value != null) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    @Benchmark
+    public String jdkPropertiesGetProperty() {
+        return jdkProperties.getProperty(nextKey());
+    }
+
+}
@@ -0,0 +1,86 @@
+package nu.studer.java.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures comparing two instances with equal properties and computing the hash code of an instance.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class EqualsHashCodeBenchmark {
+
+    @Benchmark
+    public boolean orderedPropertiesEquals(PropertiesState state, Copies copies) {
+        return state.orderedProperties.equals(copies.orderedProperties);
+    }
+
+    @Benchmark
+    public boolean jdkPropertiesEquals(PropertiesState state, Copies copies) {
+        return state.jdkProperties.equals(copies.jdkProperties);
+    }
+
+    @Benchmark
+    public boolean mapEquals(PropertiesState state, Copies copies) {
+        return state.map.equals(copies.map);
+    }
+
+    @Benchmark
+    public int orderedPropertiesHashCode(PropertiesState state) {
+        return state.orderedProperties.hashCode();
+    }
+
+    @Benchmark
+    public int orderedPropertiesHashCodeAfterModification(PropertiesState state) {
+        // invalidates the cached hash code, such that it is recomputed from all properties
+        state.orderedProperties.setProperty(state.keys[0], state.values[0]);
+        return state.orderedProperties.hashCode();
+    }
+
+    @Benchmark
+    public int jdkPropertiesHashCode(PropertiesState state) {
+        return state.jdkProperties.hashCode();
+    }
+
+    @Benchmark
+    public int mapHashCode(PropertiesState state) {
+        return state.map.hashCode();
+    }
+
+    /**
+     * Distinct instances with the same properties as the ones held by the shared state.
+     */
+    @State(Scope.Benchmark)
+    public static class Copies {
+
+        private OrderedProperties orderedProperties;
+        private Properties jdkProperties;
+        private Map<String, String> map;
+
+        @Setup
+        public void setUp(PropertiesState state) {
+            orderedProperties = OrderedProperties.copyOf(state.orderedProperties);
+            jdkProperties = new Properties();
+            jdkProperties.putAll(state.jdkProperties);
+            map = state.newMap();
+            map.putAll(state.map);
+        }
+
+    }
+
+}
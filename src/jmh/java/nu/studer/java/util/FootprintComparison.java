@@ -0,0 +1,79 @@
+package nu.studer.java.util;
+
+import org.openjdk.jol.info.GraphLayout;
+
+import java.util.Properties;
+
+import static nu.studer.java.util.OrderedProperties.OrderedPropertiesBuilder;
+
+/**
+ * Compares the retained memory of an {@link OrderedProperties} instance backed by a map, of its frozen copy, and of a
+ * {@link Properties} instance holding the same properties, as measured by JOL. The keys and values are shared by all
+ * instances, so their memory is reported separately and not included in the bytes per entry of the instances. An
+ * instance in compact storage, which is only available for insertion ordering, holds its own copy of the keys and
+ * values, so its bytes per entry include them. For an instance in off-heap storage, only the memory retained on the
+ * heap is measured.
+ * <p/>
+ * Run through the <tt>footprint</tt> task.
+ */
+public final class FootprintComparison {
+
+    private static final int[] SIZES = {10, 1000, 100000, 1000000};
+
+    private FootprintComparison() {
+    }
+
+    public static void main(String[] args) {
+        System.out.printf("%-10s %-10s %-26s %14s %18s%n", "ordering", "size", "instance", "total bytes", "bytes per entry");
+        for (String ordering : new String[]{"insertion", "comparator"}) {
+            for (int size : SIZES) {
+                compare(ordering, size);
+            }
+        }
+    }
+
+    private static void compare(String ordering, int size) {
+        String[] keys = new String[size];
+        String[] values = new String[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = "some.key." + Integer.toHexString(i * 0x9E3779B1);
+            values[i] = "some value " + i;
+        }
+
+        OrderedPropertiesBuilder builder = new OrderedPropertiesBuilder();
+        if ("comparator".equals(ordering)) {
+            builder.withOrdering(String.CASE_INSENSITIVE_ORDER);
+        }
+        OrderedProperties orderedProperties = builder.build();
+        Properties jdkProperties = new Properties();
+        for (int i = 0; i < size; i++) {
+            orderedProperties.setProperty(keys[i], values[i]);
+            jdkProperties.setProperty(keys[i], values[i]);
+        }
+        OrderedProperties frozenOrderedProperties = orderedProperties.freeze();
+
+        long strings = GraphLayout.parseInstance((Object[]) keys).totalSize() + GraphLayout.parseInstance((Object[]) values).totalSize();
+        print(ordering, size, "keys and values", strings, 0);
+        print(ordering, size, "OrderedProperties", GraphLayout.parseInstance(orderedProperties).totalSize(), strings);
+        print(ordering, size, "OrderedProperties frozen", GraphLayout.parseInstance(frozenOrderedProperties).totalSize(), strings);
+        if (!"comparator".equals(ordering)) {
+            OrderedProperties compactOrderedProperties = new OrderedPropertiesBuilder().withCompactStorage(true).build();
+            for (int i = 0; i < size; i++) {
+                compactOrderedProperties.setProperty(keys[i], values[i]);
+            }
+            print(ordering, size, "OrderedProperties compact", GraphLayout.parseInstance(compactOrderedProperties).totalSize(), 0);
+
+            OrderedProperties offHeapOrderedProperties = new OrderedPropertiesBuilder().withOffHeapStorage(true).build();
+            for (int i = 0; i < size; i++) {
+                offHeapOrderedProperties.setProperty(keys[i], values[i]);
+            }
+            print(ordering, size, "OrderedProperties off-heap", GraphLayout.parseInstance(offHeapOrderedProperties).totalSize(), 0);
+        }
+        print(ordering, size, "Properties", GraphLayout.parseInstance(jdkProperties).totalSize(), strings);
+    }
+
+    private static void print(String ordering, int size, String instance, long total, long strings) {
+        System.out.printf("%-10s %-10d %-26s %14d %18.1f%n", ordering, size, instance, total, (double) (total - strings) / size);
+    }
+
+}
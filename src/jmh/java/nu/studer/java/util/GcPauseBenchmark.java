@@ -0,0 +1,62 @@
+package nu.studer.java.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import static nu.studer.java.util.OrderedProperties.OrderedPropertiesBuilder;
+
+/**
+ * Measures the pause of a full garbage collection while a large instance is alive, with the properties kept on the
+ * heap, in compact storage, and off-heap. The pause grows with the number of objects the collector has to trace and
+ * move, which is proportional to the number of properties on the heap, and independent of it in the other storages.
+ * Run with <tt>-jvmArgs -XX:MaxDirectMemorySize=...</tt> for large off-heap instances.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgs = {"-Xms4g", "-Xmx4g"})
+public class GcPauseBenchmark {
+
+    @Param({"1000000", "5000000"})
+    public int size;
+
+    @Param({"heap", "compact", "offHeap"})
+    public String storage;
+
+    private OrderedProperties properties;
+
+    @Setup
+    public void setUp() {
+        OrderedPropertiesBuilder builder = new OrderedPropertiesBuilder().withExpectedSize(size);
+        if ("compact".equals(storage)) {
+            builder.withCompactStorage(true);
+        } else if ("offHeap".equals(storage)) {
+            builder.withOffHeapStorage(true);
+        }
+
+        properties = builder.build();
+        for (int i = 0; i < size; i++) {
+            properties.setProperty("catalog.messages.key." + i, "translated message " + i);
+        }
+    }
+
+    @Benchmark
+    public OrderedProperties fullGc() {
+        System.gc();
+        return properties;
+    }
+
+}
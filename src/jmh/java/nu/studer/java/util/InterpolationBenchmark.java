@@ -0,0 +1,91 @@
+package nu.studer.java.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures resolving the placeholders of all properties of a configuration in which each value references a
+ * property defined before it, such that many values depend on the same properties. Resolving all properties should
+ * take time linear in the size of the configuration. Also measures looking up a resolved value that is cached, and one
+ * whose cached value has been discarded because a property it depends on has been modified.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class InterpolationBenchmark {
+
+    @Param({"5000", "50000"})
+    public int size;
+
+    private OrderedProperties source;
+    private String[] keys;
+    private int index;
+
+    @Setup
+    public void setUp() {
+        keys = new String[size];
+        source = new OrderedProperties();
+        for (int i = 0; i < size; i++) {
+            keys[i] = "some.key." + i;
+            String value;
+            if (i == 0) {
+                value = "some value";
+            } else if (i % 2 == 0) {
+                value = "some.prefix.${" + keys[i / 2] + "}";
+            } else {
+                value = "${" + keys[i - 1] + "}";
+            }
+            source.setProperty(keys[i], value);
+        }
+    }
+
+    @Benchmark
+    public OrderedProperties orderedPropertiesInterpolateAll(Copy copy) {
+        return copy.orderedProperties.interpolated();
+    }
+
+    @Benchmark
+    public String orderedPropertiesGetInterpolatedPropertyCached() {
+        index = (index + 1 == size) ? 0 : index + 1;
+        return source.getInterpolatedProperty(keys[index]);
+    }
+
+    @Benchmark
+    public String orderedPropertiesGetInterpolatedPropertyAfterModification() {
+        // only the properties that depend on the modified property need to be resolved again
+        source.setProperty(keys[size - 2], "some value");
+        return source.getInterpolatedProperty(keys[size - 1]);
+    }
+
+    /**
+     * Fresh copy of the configuration for each invocation, such that each invocation starts without any cached
+     * values.
+     */
+    @State(Scope.Thread)
+    public static class Copy {
+
+        private OrderedProperties orderedProperties;
+
+        @Setup(Level.Invocation)
+        public void setUp(InterpolationBenchmark benchmark) {
+            orderedProperties = OrderedProperties.copyOf(benchmark.source);
+        }
+
+    }
+
+}
@@ -0,0 +1,51 @@
+package nu.studer.java.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures iterating over all properties.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class IterationBenchmark {
+
+    @Benchmark
+    public int orderedPropertiesEntrySet(PropertiesState state) {
+        int result = 0;
+        for (Map.Entry<String, String> entry : state.orderedProperties.entrySet()) {
+            result += entry.getKey().length() + entry.getValue().length();
+        }
+        return result;
+    }
+
+    @Benchmark
+    public int jdkPropertiesEntrySet(PropertiesState state) {
+        int result = 0;
+        for (Map.Entry<Object, Object> entry : state.jdkProperties.entrySet()) {
+            result += ((String) entry.getKey()).length() + ((String) entry.getValue()).length();
+        }
+        return result;
+    }
+
+    @Benchmark
+    public int mapEntrySet(PropertiesState state) {
+        int result = 0;
+        for (Map.Entry<String, String> entry : state.map.entrySet()) {
+            result += entry.getKey().length() + entry.getValue().length();
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,118 @@
+package nu.studer.java.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures loading and storing properties in both the line-oriented format and the XML format.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class LoadStoreBenchmark {
+
+    @Benchmark
+    public OrderedProperties orderedPropertiesLoad(PropertiesState state, Content content) throws IOException {
+        OrderedProperties properties = state.newOrderedProperties();
+        properties.load(new ByteArrayInputStream(content.text));
+        return properties;
+    }
+
+    @Benchmark
+    public Properties jdkPropertiesLoad(Content content) throws IOException {
+        Properties properties = new Properties();
+        properties.load(new ByteArrayInputStream(content.text));
+        return properties;
+    }
+
+    @Benchmark
+    public OrderedProperties orderedPropertiesLoadFromXml(PropertiesState state, Content content) throws IOException {
+        OrderedProperties properties = state.newOrderedProperties();
+        properties.loadFromXML(new ByteArrayInputStream(content.xml));
+        return properties;
+    }
+
+    @Benchmark
+    public Properties jdkPropertiesLoadFromXml(Content content) throws IOException {
+        Properties properties = new Properties();
+        properties.loadFromXML(new ByteArrayInputStream(content.xml));
+        return properties;
+    }
+
+    @Benchmark
+    public int orderedPropertiesStore(PropertiesState state, Output output) throws IOException {
+        output.stream.reset();
+        state.orderedProperties.store(output.stream, null);
+        return output.stream.size();
+    }
+
+    @Benchmark
+    public int jdkPropertiesStore(PropertiesState state, Output output) throws IOException {
+        output.stream.reset();
+        state.jdkProperties.store(output.stream, null);
+        return output.stream.size();
+    }
+
+    @Benchmark
+    public int orderedPropertiesStoreToXml(PropertiesState state, Output output) throws IOException {
+        output.stream.reset();
+        state.orderedProperties.storeToXML(output.stream, null);
+        return output.stream.size();
+    }
+
+    @Benchmark
+    public int jdkPropertiesStoreToXml(PropertiesState state, Output output) throws IOException {
+        output.stream.reset();
+        state.jdkProperties.storeToXML(output.stream, null);
+        return output.stream.size();
+    }
+
+    /**
+     * The shared properties in serialized form, both in the line-oriented format and the XML format.
+     */
+    @State(Scope.Benchmark)
+    public static class Content {
+
+        private byte[] text;
+        private byte[] xml;
+
+        @Setup
+        public void setUp(PropertiesState state) throws IOException {
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            state.orderedProperties.store(stream, null);
+            text = stream.toByteArray();
+
+            stream = new ByteArrayOutputStream();
+            state.orderedProperties.storeToXML(stream, null);
+            xml = stream.toByteArray();
+        }
+
+    }
+
+    /**
+     * A reusable target to store the properties to.
+     */
+    @State(Scope.Thread)
+    public static class Output {
+
+        private final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+
+    }
+
+}
@@ -0,0 +1,84 @@
+package nu.studer.java.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import static nu.studer.java.util.OrderedProperties.OrderedPropertiesBuilder;
+
+/**
+ * Measures how loading a large properties file from a path scales with the number of threads used for parsing.
+ * A parallelism of <tt>0</tt> denotes sequential loading without a pool.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ParallelLoadBenchmark {
+
+    @Param({"1000000"})
+    public int entries;
+
+    @Param({"0", "1", "2", "4", "8"})
+    public int parallelism;
+
+    private Path file;
+    private ForkJoinPool pool;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = Files.createTempFile("parallel-load-benchmark", ".properties");
+        BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.ISO_8859_1);
+        try {
+            for (int i = 0; i < entries; i++) {
+                if (i % 100 == 0) {
+                    writer.write("# section " + i);
+                    writer.newLine();
+                }
+                writer.write("some.fairly.long.key.prefix." + i + " = some value with an escaped \\u00e9 and a continued \\");
+                writer.newLine();
+                writer.write("    line " + i);
+                writer.newLine();
+            }
+        } finally {
+            writer.close();
+        }
+        pool = (parallelism > 0) ? new ForkJoinPool(parallelism) : null;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (pool != null) {
+            pool.shutdown();
+        }
+        Files.delete(file);
+    }
+
+    @Benchmark
+    public OrderedProperties load() throws IOException {
+        OrderedProperties properties = new OrderedPropertiesBuilder().withParallelLoad(pool).build();
+        properties.load(file);
+        return properties;
+    }
+
+}
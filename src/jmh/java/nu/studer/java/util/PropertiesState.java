@@ -0,0 +1,85 @@
+package nu.studer.java.util;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import static nu.studer.java.util.OrderedProperties.OrderedPropertiesBuilder;
+
+/**
+ * Shared benchmark state that holds the same properties in an {@link OrderedProperties} instance, in a
+ * {@link Properties} instance, and in a plain map as a baseline. The plain map is a {@link LinkedHashMap} for
+ * insertion ordering and a {@link TreeMap} for comparator ordering, i.e. the same map that backs the
+ * {@link OrderedProperties} instance. A frozen copy of the {@link OrderedProperties} instance is held as well, along
+ * with an instance in compact storage for insertion ordering.
+ */
+@State(Scope.Benchmark)
+public class PropertiesState {
+
+    @Param({"10", "1000", "100000", "1000000"})
+    public int size;
+
+    @Param({"insertion", "comparator"})
+    public String ordering;
+
+    public String[] keys;
+    public String[] values;
+
+    public OrderedProperties orderedProperties;
+    public OrderedProperties frozenOrderedProperties;
+    public OrderedProperties compactOrderedProperties;
+    public Properties jdkProperties;
+    public Map<String, String> map;
+
+    @Setup
+    public void setUp() {
+        keys = new String[size];
+        values = new String[size];
+        for (int i = 0; i < size; i++) {
+            // spread the keys such that insertion order and comparator order differ
+            keys[i] = "some.key." + Integer.toHexString(i * 0x9E3779B1);
+            values[i] = "some value " + i;
+        }
+
+        orderedProperties = newOrderedProperties();
+        compactOrderedProperties = newOrderedProperties(true);
+        jdkProperties = new Properties();
+        map = newMap();
+        for (int i = 0; i < size; i++) {
+            orderedProperties.setProperty(keys[i], values[i]);
+            compactOrderedProperties.setProperty(keys[i], values[i]);
+            jdkProperties.setProperty(keys[i], values[i]);
+            map.put(keys[i], values[i]);
+        }
+        frozenOrderedProperties = orderedProperties.freeze();
+    }
+
+    public boolean isComparatorOrdering() {
+        return "comparator".equals(ordering);
+    }
+
+    public OrderedProperties newOrderedProperties() {
+        return newOrderedProperties(false);
+    }
+
+    public OrderedProperties newOrderedProperties(boolean compact) {
+        OrderedPropertiesBuilder builder = new OrderedPropertiesBuilder().withCompactStorage(compact);
+        if (isComparatorOrdering()) {
+            builder.withOrdering(String.CASE_INSENSITIVE_ORDER);
+        }
+        return builder.build();
+    }
+
+    public Map<String, String> newMap() {
+        return isComparatorOrdering() ?
+                new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER) :
+                new LinkedHashMap<String, String>();
+    }
+
+}
@@ -0,0 +1,92 @@
+package nu.studer.java.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures reloading a properties file whose content has not changed, which is detected through the hash of the
+ * content, and reloading a file of which a single property alternates between two values, compared with loading the
+ * file into a new instance.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ReloadBenchmark {
+
+    @Param({"1000", "100000"})
+    public int size;
+
+    private Path unchangedFile;
+    private Path[] changedFiles;
+    private OrderedProperties unchangedProperties;
+    private OrderedProperties changedProperties;
+    private int index;
+
+    @Setup
+    public void setUp() throws IOException {
+        unchangedFile = writeFile("some value");
+        changedFiles = new Path[]{writeFile("some value"), writeFile("some other value")};
+
+        unchangedProperties = new OrderedProperties();
+        unchangedProperties.reload(unchangedFile);
+        changedProperties = new OrderedProperties();
+        changedProperties.reload(changedFiles[0]);
+    }
+
+    private Path writeFile(String changingValue) throws IOException {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            content.append("some.key.").append(i).append('=').append(i == size / 2 ? changingValue : "some value " + i).append('\n');
+        }
+
+        Path file = Files.createTempFile("reload", ".properties");
+        Files.write(file, content.toString().getBytes(StandardCharsets.ISO_8859_1));
+        return file;
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.delete(unchangedFile);
+        for (Path file : changedFiles) {
+            Files.delete(file);
+        }
+    }
+
+    @Benchmark
+    public PropertiesChangeSet orderedPropertiesReloadUnchanged() throws IOException {
+        return unchangedProperties.reload(unchangedFile);
+    }
+
+    @Benchmark
+    public PropertiesChangeSet orderedPropertiesReloadChanged() throws IOException {
+        index ^= 1;
+        return changedProperties.reload(changedFiles[index]);
+    }
+
+    @Benchmark
+    public OrderedProperties orderedPropertiesLoad() throws IOException {
+        OrderedProperties properties = new OrderedProperties();
+        properties.load(unchangedFile);
+        return properties;
+    }
+
+}
@@ -0,0 +1,114 @@
+package nu.studer.java.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures serializing and deserializing properties through Java serialization, and writing and reading ordered
+ * properties in the binary format.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class SerializationBenchmark {
+
+    @Benchmark
+    public byte[] orderedPropertiesSerialize(PropertiesState state) throws IOException {
+        return serialize(state.orderedProperties);
+    }
+
+    @Benchmark
+    public byte[] jdkPropertiesSerialize(PropertiesState state) throws IOException {
+        return serialize(state.jdkProperties);
+    }
+
+    @Benchmark
+    public byte[] mapSerialize(PropertiesState state) throws IOException {
+        return serialize(state.map);
+    }
+
+    @Benchmark
+    public byte[] orderedPropertiesWriteBinary(PropertiesState state) throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        state.orderedProperties.writeBinary(stream);
+        return stream.toByteArray();
+    }
+
+    @Benchmark
+    public Object orderedPropertiesDeserialize(Serialized serialized) throws IOException, ClassNotFoundException {
+        return deserialize(serialized.orderedProperties);
+    }
+
+    @Benchmark
+    public Object orderedPropertiesReadBinary(Serialized serialized) throws IOException {
+        return OrderedProperties.readBinary(new ByteArrayInputStream(serialized.binaryOrderedProperties));
+    }
+
+    @Benchmark
+    public Object jdkPropertiesDeserialize(Serialized serialized) throws IOException, ClassNotFoundException {
+        return deserialize(serialized.jdkProperties);
+    }
+
+    @Benchmark
+    public Object mapDeserialize(Serialized serialized) throws IOException, ClassNotFoundException {
+        return deserialize(serialized.map);
+    }
+
+    private static byte[] serialize(Object object) throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        ObjectOutputStream objectStream = new ObjectOutputStream(stream);
+        objectStream.writeObject(object);
+        objectStream.close();
+        return stream.toByteArray();
+    }
+
+    private static Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        ObjectInputStream objectStream = new ObjectInputStream(new ByteArrayInputStream(bytes));
+        try {
+            return objectStream.readObject();
+        } finally {
+            objectStream.close();
+        }
+    }
+
+    /**
+     * The shared properties in serialized form.
+     */
+    @State(Scope.Benchmark)
+    public static class Serialized {
+
+        private byte[] orderedProperties;
+        private byte[] binaryOrderedProperties;
+        private byte[] jdkProperties;
+        private byte[] map;
+
+        @Setup
+        public void setUp(PropertiesState state) throws IOException {
+            orderedProperties = serialize(state.orderedProperties);
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            state.orderedProperties.writeBinary(stream);
+            binaryOrderedProperties = stream.toByteArray();
+            jdkProperties = serialize(state.jdkProperties);
+            map = serialize(state.map);
+        }
+
+    }
+
+}
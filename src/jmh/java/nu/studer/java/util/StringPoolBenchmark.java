@@ -0,0 +1,66 @@
+package nu.studer.java.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import static nu.studer.java.util.OrderedProperties.OrderedPropertiesBuilder;
+
+/**
+ * Measures loading properties whose keys and values repeat across instances, without a string pool and with a weak
+ * and a bounded string pool that is shared by all loaded instances. Run with <tt>-prof gc</tt> to compare the
+ * allocation rates, and see the metrics of the pools for the memory that is retained less.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class StringPoolBenchmark {
+
+    @Param({"1000", "100000"})
+    public int size;
+
+    @Param({"none", "weak", "bounded"})
+    public String pool;
+
+    private OrderedPropertiesBuilder builder;
+    private String content;
+
+    @Setup
+    public void setUp() {
+        builder = new OrderedPropertiesBuilder();
+        if ("weak".equals(pool)) {
+            builder.withStringPool(PropertiesStringPool.weak());
+        } else if ("bounded".equals(pool)) {
+            builder.withStringPool(PropertiesStringPool.bounded(65536));
+        }
+
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            content.append("some.service.").append(i).append(".enabled=").append((i % 3 == 0) ? "true" : "false").append('\n');
+        }
+        this.content = content.toString();
+    }
+
+    @Benchmark
+    public OrderedProperties orderedPropertiesLoad() throws IOException {
+        OrderedProperties properties = builder.build();
+        properties.load(new StringReader(content));
+        return properties;
+    }
+
+}
@@ -0,0 +1,81 @@
+package nu.studer.java.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static nu.studer.java.util.OrderedProperties.OrderedPropertiesBuilder;
+
+/**
+ * Measures extracting the ten properties under a common prefix, through {@link OrderedProperties#subset(String)}
+ * compared with scanning all entries, for modifiable and frozen instances.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class SubsetBenchmark {
+
+    @Param({"1000", "100000"})
+    public int size;
+
+    @Param({"insertion", "comparator"})
+    public String ordering;
+
+    private OrderedProperties orderedProperties;
+    private OrderedProperties frozenOrderedProperties;
+    private String prefix;
+
+    @Setup
+    public void setUp() {
+        OrderedPropertiesBuilder builder = new OrderedPropertiesBuilder();
+        if ("comparator".equals(ordering)) {
+            builder.withOrdering(String.CASE_INSENSITIVE_ORDER);
+        }
+        orderedProperties = builder.build();
+        for (int i = 0; i < size; i++) {
+            orderedProperties.setProperty("some.group." + (i / 10) + ".key." + (i % 10), "some value " + i);
+        }
+        frozenOrderedProperties = orderedProperties.freeze();
+        prefix = "some.group." + (size / 20) + ".";
+
+        // create the index of the keys up front
+        orderedProperties.subset(prefix);
+        frozenOrderedProperties.subset(prefix);
+    }
+
+    @Benchmark
+    public OrderedProperties orderedPropertiesSubset() {
+        return orderedProperties.subset(prefix);
+    }
+
+    @Benchmark
+    public OrderedProperties frozenOrderedPropertiesSubset() {
+        return frozenOrderedProperties.subset(prefix);
+    }
+
+    @Benchmark
+    public OrderedProperties orderedPropertiesScan() {
+        OrderedProperties result = new OrderedProperties();
+        for (Map.Entry<String, String> entry : orderedProperties.entries()) {
+            if (entry.getKey().startsWith(prefix)) {
+                result.setProperty(entry.getKey(), entry.getValue());
+            }
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,79 @@
+package nu.studer.java.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares getting typed values through the caching accessors with parsing the string values on each access.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class TypedAccessBenchmark {
+
+    private OrderedProperties properties;
+
+    @Setup
+    public void setUp() {
+        properties = new OrderedProperties();
+        properties.setProperty("some.int", "123456");
+        properties.setProperty("some.long", "123456789012");
+        properties.setProperty("some.boolean", "true");
+        properties.setProperty("some.duration", "PT1M30S");
+    }
+
+    @Benchmark
+    public int getInt() {
+        return properties.getInt("some.int", 0);
+    }
+
+    @Benchmark
+    public int parseInt() {
+        return Integer.parseInt(properties.getProperty("some.int"));
+    }
+
+    @Benchmark
+    public long getLong() {
+        return properties.getLong("some.long", 0L);
+    }
+
+    @Benchmark
+    public long parseLong() {
+        return Long.parseLong(properties.getProperty("some.long"));
+    }
+
+    @Benchmark
+    public boolean getBoolean() {
+        return properties.getBoolean("some.boolean", false);
+    }
+
+    @Benchmark
+    public boolean parseBoolean() {
+        return Boolean.parseBoolean(properties.getProperty("some.boolean"));
+    }
+
+    @Benchmark
+    public Duration getDuration() {
+        return properties.getDuration("some.duration", Duration.ZERO);
+    }
+
+    @Benchmark
+    public Duration parseDuration() {
+        return Duration.parse(properties.getProperty("some.duration"));
+    }
+
+}
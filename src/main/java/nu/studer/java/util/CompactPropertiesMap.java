@@ -0,0 +1,629 @@
+package nu.studer.java.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * Modifiable map that keeps the keys and values of its entries as bytes in a single shared arena, in the order in
+ * which the keys have been inserted.
+ * <p/>
+ * Strings that only consist of ISO 8859-1 characters, which is the case for all properties read from properties
+ * files that do not contain Unicode escapes, take one byte per character. All other strings take two bytes per
+ * character. Each entry is described by four ints in a single array, the offsets and the lengths of its key and value
+ * in the arena, such that no objects are allocated per entry. Keys are looked up through an open-addressing index
+ * over the hashes of the keys, which are the same as {@link String#hashCode()}, and are compared character by
+ * character with the bytes in the arena, such that looking up a key does not create any strings.
+ * <p/>
+ * Strings are created whenever a key or value is returned. Optionally, the created strings are cached per entry,
+ * such that each key and value is created at most once, at the expense of retaining the strings that have been
+ * returned. Replacing and removing entries leaves unused bytes in the arena, which is compacted once more than half of
+ * it is unused.
+ * <p/>
+ * Neither keys nor values can be <tt>null</tt>, the same as with {@link java.util.Properties}. This map is not
+ * synchronized.
+ */
+final class CompactPropertiesMap extends AbstractMap<String, String> {
+
+    // ints per entry: offset and length of the key, offset and length of the value
+    private static final int FIELDS = 4;
+    private static final int KEY_OFFSET = 0;
+    private static final int KEY_LENGTH = 1;
+    private static final int VALUE_OFFSET = 2;
+    private static final int VALUE_LENGTH = 3;
+
+    // length of the key of a removed entry, lengths are otherwise encoded as (length << 1) | wide
+    private static final int REMOVED = -1;
+
+    private static final int MAX_ARENA_SIZE = Integer.MAX_VALUE - 8;
+
+    private final boolean cacheStrings;
+    private byte[] arena;
+    private int arenaSize;
+    private int unusedBytes;
+    private int[] entries;
+    private int[] hashes;
+    private String[] strings;
+    private int entryCount;
+    private int size;
+    private int[] index;
+    private int modCount;
+
+    /**
+     * Creates an empty map.
+     *
+     * @param expectedSize the number of entries expected to be put into the map
+     * @param cacheStrings whether to cache the strings that are created for the keys and values
+     */
+    CompactPropertiesMap(int expectedSize, boolean cacheStrings) {
+        this.cacheStrings = cacheStrings;
+        init(Math.max(expectedSize, 8));
+    }
+
+    private void init(int capacity) {
+        arena = new byte[(int) Math.min(32L * capacity, MAX_ARENA_SIZE)];
+        arenaSize = 0;
+        unusedBytes = 0;
+        entries = new int[FIELDS * capacity];
+        hashes = new int[capacity];
+        strings = cacheStrings ? new String[2 * capacity] : null;
+        entryCount = 0;
+        size = 0;
+        index = new int[indexCapacity(capacity)];
+    }
+
+    private static int indexCapacity(int entries) {
+        // load factor of at most one half
+        int capacity = 16;
+        while (capacity < 2 * entries) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    /**
+     * Returns whether the strings that are created for the keys and values are cached.
+     *
+     * @return whether strings are cached
+     */
+    boolean isCachingStrings() {
+        return cacheStrings;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public String get(Object key) {
+        int entry = (key instanceof String) ? entryOf((String) key) : -1;
+        return (entry >= 0) ? value(entry) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof String && entryOf((String) key) >= 0;
+    }
+
+    @Override
+    public String put(String key, String value) {
+        if (key == null) {
+            throw new NullPointerException("key must not be null");
+        }
+        if (value == null) {
+            throw new NullPointerException("value must not be null");
+        }
+
+        int hash = key.hashCode();
+        int entry = entryOf(key, hash);
+        if (entry >= 0) {
+            String previousValue = value(entry);
+            if (!previousValue.equals(value)) {
+                int position = FIELDS * entry;
+                unusedBytes += byteLength(entries[position + VALUE_LENGTH]);
+                entries[position + VALUE_OFFSET] = arenaSize;
+                entries[position + VALUE_LENGTH] = write(value);
+                if (cacheStrings) {
+                    strings[2 * entry + 1] = null;
+                }
+                compactIfWasteful();
+            }
+            return previousValue;
+        }
+
+        if (entryCount == hashes.length) {
+            growEntries();
+        }
+        if (2 * (size + 1) > index.length) {
+            rebuildIndex(2 * index.length);
+        }
+
+        entry = entryCount++;
+        int position = FIELDS * entry;
+        entries[position + KEY_OFFSET] = arenaSize;
+        entries[position + KEY_LENGTH] = write(key);
+        entries[position + VALUE_OFFSET] = arenaSize;
+        entries[position + VALUE_LENGTH] = write(value);
+        hashes[entry] = hash;
+        insertIntoIndex(entry);
+        size++;
+        modCount++;
+        return null;
+    }
+
+    @Override
+    public String remove(Object key) {
+        int entry = (key instanceof String) ? entryOf((String) key) : -1;
+        if (entry < 0) {
+            return null;
+        }
+
+        String previousValue = value(entry);
+        removeEntry(entry);
+        compactIfWasteful();
+        return previousValue;
+    }
+
+    @Override
+    public void clear() {
+        init(8);
+        modCount++;
+    }
+
+    /**
+     * Applies the given update, like loading properties, to this map. If the update has written at least half of
+     * the arena and of the entries, the space that has been reserved for further growth is released afterwards, such
+     * that bulk loads do not retain up to twice the memory they need. Releasing the space is paid for by the update.
+     * If the update fails, the entries it has applied so far are kept.
+     *
+     * @param update the update to apply
+     * @param <E>    the type of exception thrown by the update
+     * @throws E if the update fails
+     */
+    <E extends Exception> void update(CopyOnWritePropertiesMap.Update<E> update) throws E {
+        int arenaSizeBefore = arenaSize;
+        int entryCountBefore = entryCount;
+        update.apply(this);
+        if (arenaSize - arenaSizeBefore >= arenaSize / 2 && entryCount - entryCountBefore >= entryCount / 2) {
+            trimToSize();
+        }
+    }
+
+    private void trimToSize() {
+        arena = Arrays.copyOf(arena, Math.max(arenaSize, 16));
+        int capacity = Math.max(entryCount, 8);
+        entries = Arrays.copyOf(entries, FIELDS * capacity);
+        hashes = Arrays.copyOf(hashes, capacity);
+        if (cacheStrings) {
+            strings = Arrays.copyOf(strings, 2 * capacity);
+        }
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super String, ? super String> action) {
+        int expectedModCount = modCount;
+        for (int entry = 0; entry < entryCount; entry++) {
+            if (entries[FIELDS * entry + KEY_LENGTH] != REMOVED) {
+                action.accept(key(entry), value(entry));
+                if (modCount != expectedModCount) {
+                    throw new ConcurrentModificationException();
+                }
+            }
+        }
+    }
+
+    /**
+     * Passes the entries whose keys start with the given prefix to the given action, in the order of this map. The
+     * keys are compared with the prefix in the arena, such that no strings are created for the keys that do not match.
+     * Since the keys are not indexed, all entries are visited.
+     *
+     * @param prefix the prefix of the keys
+     * @param action the action to pass the matching entries to
+     */
+    void forEachWithPrefix(String prefix, BiConsumer<String, String> action) {
+        int expectedModCount = modCount;
+        for (int entry = 0; entry < entryCount; entry++) {
+            int position = FIELDS * entry;
+            int keyLength = entries[position + KEY_LENGTH];
+            if (keyLength != REMOVED && (keyLength >>> 1) >= prefix.length() &&
+                    regionMatches(entries[position + KEY_OFFSET], keyLength, prefix, prefix.length())) {
+                action.accept(key(entry), value(entry));
+                if (modCount != expectedModCount) {
+                    throw new ConcurrentModificationException();
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("NullableProblems")
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+        return new AbstractSet<Map.Entry<String, String>>() {
+
+            @SuppressWarnings("NullableProblems")
+            @Override
+            public Iterator<Map.Entry<String, String>> iterator() {
+                return new EntryIterator<Map.Entry<String, String>>() {
+
+                    @Override
+                    Map.Entry<String, String> get(int entry) {
+                        return new SimpleImmutableEntry<String, String>(key(entry), value(entry));
+                    }
+
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+        };
+    }
+
+    @SuppressWarnings("NullableProblems")
+    @Override
+    public Set<String> keySet() {
+        return new AbstractSet<String>() {
+
+            @SuppressWarnings("NullableProblems")
+            @Override
+            public Iterator<String> iterator() {
+                return new EntryIterator<String>() {
+
+                    @Override
+                    String get(int entry) {
+                        return key(entry);
+                    }
+
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public boolean contains(Object key) {
+                return containsKey(key);
+            }
+
+        };
+    }
+
+    @SuppressWarnings("NullableProblems")
+    @Override
+    public Collection<String> values() {
+        return new AbstractCollection<String>() {
+
+            @SuppressWarnings("NullableProblems")
+            @Override
+            public Iterator<String> iterator() {
+                return new EntryIterator<String>() {
+
+                    @Override
+                    String get(int entry) {
+                        return value(entry);
+                    }
+
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+        };
+    }
+
+    private int entryOf(String key) {
+        return entryOf(key, key.hashCode());
+    }
+
+    private int entryOf(String key, int hash) {
+        int mask = index.length - 1;
+        int slot = spread(hash) & mask;
+        int candidate;
+        while ((candidate = index[slot]) != 0) {
+            int entry = candidate - 1;
+            if (hashes[entry] == hash && keyEquals(entry, key)) {
+                return entry;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private boolean keyEquals(int entry, String key) {
+        int position = FIELDS * entry;
+        int keyLength = entries[position + KEY_LENGTH];
+        return (keyLength >>> 1) == key.length() && regionMatches(entries[position + KEY_OFFSET], keyLength, key, key.length());
+    }
+
+    /**
+     * Returns whether the first characters of the string at the given offset of the arena are equal to the first
+     * characters of the given string.
+     */
+    private boolean regionMatches(int offset, int encodedLength, String string, int length) {
+        if ((encodedLength & 1) == 0) {
+            for (int i = 0; i < length; i++) {
+                if ((arena[offset + i] & 0xFF) != string.charAt(i)) {
+                    return false;
+                }
+            }
+        } else {
+            for (int i = 0; i < length; i++) {
+                if (charAt(offset + 2 * i) != string.charAt(i)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private char charAt(int offset) {
+        return (char) (((arena[offset] & 0xFF) << 8) | (arena[offset + 1] & 0xFF));
+    }
+
+    private String key(int entry) {
+        if (cacheStrings) {
+            String key = strings[2 * entry];
+            if (key == null) {
+                key = read(entries[FIELDS * entry + KEY_OFFSET], entries[FIELDS * entry + KEY_LENGTH]);
+                strings[2 * entry] = key;
+            }
+            return key;
+        }
+        return read(entries[FIELDS * entry + KEY_OFFSET], entries[FIELDS * entry + KEY_LENGTH]);
+    }
+
+    private String value(int entry) {
+        if (cacheStrings) {
+            String value = strings[2 * entry + 1];
+            if (value == null) {
+                value = read(entries[FIELDS * entry + VALUE_OFFSET], entries[FIELDS * entry + VALUE_LENGTH]);
+                strings[2 * entry + 1] = value;
+            }
+            return value;
+        }
+        return read(entries[FIELDS * entry + VALUE_OFFSET], entries[FIELDS * entry + VALUE_LENGTH]);
+    }
+
+    private String read(int offset, int encodedLength) {
+        int length = encodedLength >>> 1;
+        if ((encodedLength & 1) == 0) {
+            return new String(arena, offset, length, StandardCharsets.ISO_8859_1);
+        }
+
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = charAt(offset + 2 * i);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Appends the given string to the arena, with one byte per character if all characters are ISO 8859-1
+     * characters, and two bytes per character otherwise.
+     *
+     * @return the encoded length of the string
+     */
+    private int write(String string) {
+        int length = string.length();
+        ensureArenaCapacity(length);
+        for (int i = 0; i < length; i++) {
+            char c = string.charAt(i);
+            if (c > 0xFF) {
+                return writeWide(string);
+            }
+            arena[arenaSize + i] = (byte) c;
+        }
+        arenaSize += length;
+        return length << 1;
+    }
+
+    private int writeWide(String string) {
+        int length = string.length();
+        ensureArenaCapacity(2 * length);
+        for (int i = 0; i < length; i++) {
+            char c = string.charAt(i);
+            arena[arenaSize + 2 * i] = (byte) (c >>> 8);
+            arena[arenaSize + 2 * i + 1] = (byte) c;
+        }
+        arenaSize += 2 * length;
+        return (length << 1) | 1;
+    }
+
+    private static int byteLength(int encodedLength) {
+        return (encodedLength >>> 1) << (encodedLength & 1);
+    }
+
+    private void ensureArenaCapacity(int bytes) {
+        long required = (long) arenaSize + bytes;
+        if (required > arena.length) {
+            if (required > MAX_ARENA_SIZE) {
+                throw new OutOfMemoryError("compact properties exceed the maximum arena size");
+            }
+            arena = Arrays.copyOf(arena, (int) Math.min(Math.max(2L * arena.length, required), MAX_ARENA_SIZE));
+        }
+    }
+
+    private void growEntries() {
+        int capacity = 2 * hashes.length;
+        entries = Arrays.copyOf(entries, FIELDS * capacity);
+        hashes = Arrays.copyOf(hashes, capacity);
+        if (cacheStrings) {
+            strings = Arrays.copyOf(strings, 2 * capacity);
+        }
+    }
+
+    private void insertIntoIndex(int entry) {
+        int mask = index.length - 1;
+        int slot = spread(hashes[entry]) & mask;
+        while (index[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        index[slot] = entry + 1;
+    }
+
+    private void rebuildIndex(int capacity) {
+        index = new int[capacity];
+        for (int entry = 0; entry < entryCount; entry++) {
+            if (entries[FIELDS * entry + KEY_LENGTH] != REMOVED) {
+                insertIntoIndex(entry);
+            }
+        }
+    }
+
+    private void removeEntry(int entry) {
+        // find the slot of the entry and close the gap by shifting back the entries that follow it in their cluster
+        int mask = index.length - 1;
+        int hole = spread(hashes[entry]) & mask;
+        while (index[hole] != entry + 1) {
+            hole = (hole + 1) & mask;
+        }
+        int slot = (hole + 1) & mask;
+        int candidate;
+        while ((candidate = index[slot]) != 0) {
+            int home = spread(hashes[candidate - 1]) & mask;
+            if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+                index[hole] = candidate;
+                hole = slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        index[hole] = 0;
+
+        int position = FIELDS * entry;
+        unusedBytes += byteLength(entries[position + KEY_LENGTH]) + byteLength(entries[position + VALUE_LENGTH]);
+        entries[position + KEY_LENGTH] = REMOVED;
+        if (cacheStrings) {
+            strings[2 * entry] = null;
+            strings[2 * entry + 1] = null;
+        }
+        size--;
+        modCount++;
+    }
+
+    /**
+     * Compacts the arena and the entries once more than half of the arena or of the entries are unused, which keeps
+     * the amortized cost of modifications constant.
+     */
+    private void compactIfWasteful() {
+        if (unusedBytes > arenaSize / 2 || entryCount - size > entryCount / 2) {
+            compact();
+        }
+    }
+
+    private void compact() {
+        byte[] compacted = new byte[Math.max(arenaSize - unusedBytes, 16)];
+        int offset = 0;
+        int count = 0;
+        for (int entry = 0; entry < entryCount; entry++) {
+            int position = FIELDS * entry;
+            if (entries[position + KEY_LENGTH] == REMOVED) {
+                continue;
+            }
+
+            int target = FIELDS * count;
+            for (int field = KEY_OFFSET; field <= VALUE_OFFSET; field += 2) {
+                int length = entries[position + field + 1];
+                int bytes = byteLength(length);
+                System.arraycopy(arena, entries[position + field], compacted, offset, bytes);
+                entries[target + field] = offset;
+                entries[target + field + 1] = length;
+                offset += bytes;
+            }
+            hashes[count] = hashes[entry];
+            if (cacheStrings) {
+                strings[2 * count] = strings[2 * entry];
+                strings[2 * count + 1] = strings[2 * entry + 1];
+            }
+            count++;
+        }
+        if (cacheStrings) {
+            Arrays.fill(strings, 2 * count, 2 * entryCount, null);
+        }
+
+        arena = compacted;
+        arenaSize = offset;
+        unusedBytes = 0;
+        entryCount = count;
+        rebuildIndex(index.length);
+        modCount++;
+    }
+
+    /**
+     * Iterator over the entries that are not removed, in insertion order.
+     */
+    private abstract class EntryIterator<T> implements Iterator<T> {
+
+        private int next = advance(0);
+        private int last = -1;
+        private int expectedModCount = modCount;
+
+        private int advance(int entry) {
+            while (entry < entryCount && entries[FIELDS * entry + KEY_LENGTH] == REMOVED) {
+                entry++;
+            }
+            return entry;
+        }
+
+        abstract T get(int entry);
+
+        @Override
+        public boolean hasNext() {
+            return next < entryCount;
+        }
+
+        @Override
+        public T next() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (next >= entryCount) {
+                throw new NoSuchElementException();
+            }
+            last = next;
+            next = advance(next + 1);
+            return get(last);
+        }
+
+        @Override
+        public void remove() {
+            if (last < 0) {
+                throw new IllegalStateException();
+            }
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            // do not compact, such that the positions of the remaining entries stay the same
+            removeEntry(last);
+            last = -1;
+            expectedModCount = modCount;
+        }
+
+    }
+
+}
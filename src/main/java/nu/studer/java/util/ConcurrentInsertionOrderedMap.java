@@ -0,0 +1,227 @@
+package nu.studer.java.util;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.BiConsumer;
+
+/**
+ * Thread-safe map that keeps its entries in the order in which they have been inserted.
+ * <p/>
+ * Each entry is held by a node that carries its key, its current value, and a sequence number that is assigned when
+ * the key is inserted. The nodes are indexed by key in a {@link ConcurrentHashMap} and ordered by sequence number in
+ * a {@link ConcurrentSkipListMap}. Lookups only read the index and the volatile value of a node and thus never block.
+ * Modifications are serialized on the map itself, such that the index and the order are updated consistently.
+ * Replacing the value of an existing key keeps the position of the key, the same as {@link java.util.LinkedHashMap}.
+ * <p/>
+ * Iteration is weakly consistent: it never throws a {@link java.util.ConcurrentModificationException} and reflects
+ * the entries at some point at or since the creation of the iterator. Neither keys nor values can be <tt>null</tt>,
+ * the same as with {@link java.util.Properties}.
+ */
+final class ConcurrentInsertionOrderedMap extends AbstractMap<String, String> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private transient ConcurrentHashMap<String, Node> index;
+    private transient ConcurrentSkipListMap<Long, Node> order;
+    private transient long nextSequence;
+
+    /**
+     * Creates an empty map whose index is sized to hold the given number of entries without resizing.
+     *
+     * @param expectedSize the number of entries expected to be put into the map
+     */
+    ConcurrentInsertionOrderedMap(int expectedSize) {
+        this.index = new ConcurrentHashMap<String, Node>(expectedSize);
+        this.order = new ConcurrentSkipListMap<Long, Node>();
+    }
+
+    @Override
+    public String get(Object key) {
+        Node node = index.get(key);
+        return (node != null) ? node.value : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return index.containsKey(key);
+    }
+
+    @Override
+    public int size() {
+        return index.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return index.isEmpty();
+    }
+
+    @Override
+    public synchronized String put(String key, String value) {
+        if (key == null) {
+            throw new NullPointerException("key must not be null");
+        }
+        if (value == null) {
+            throw new NullPointerException("value must not be null");
+        }
+
+        Node node = index.get(key);
+        if (node != null) {
+            String previousValue = node.value;
+            node.value = value;
+            return previousValue;
+        }
+
+        node = new Node(key, value, nextSequence++);
+        order.put(node.sequence, node);
+        index.put(key, node);
+        return null;
+    }
+
+    @Override
+    public synchronized String remove(Object key) {
+        Node node = index.remove(key);
+        if (node == null) {
+            return null;
+        }
+
+        order.remove(node.sequence);
+        return node.value;
+    }
+
+    @Override
+    public synchronized void putAll(Map<? extends String, ? extends String> map) {
+        for (Map.Entry<? extends String, ? extends String> entry : map.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public synchronized void clear() {
+        index.clear();
+        order.clear();
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super String, ? super String> action) {
+        for (Node node : order.values()) {
+            action.accept(node.key, node.value);
+        }
+    }
+
+    @SuppressWarnings("NullableProblems")
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+        return new EntrySet();
+    }
+
+    private void writeObject(ObjectOutputStream stream) throws IOException {
+        stream.defaultWriteObject();
+        Node[] nodes = order.values().toArray(new Node[0]);
+        stream.writeInt(nodes.length);
+        for (Node node : nodes) {
+            stream.writeObject(node.key);
+            stream.writeObject(node.value);
+        }
+    }
+
+    private void readObject(ObjectInputStream stream) throws IOException, ClassNotFoundException {
+        stream.defaultReadObject();
+        index = new ConcurrentHashMap<String, Node>();
+        order = new ConcurrentSkipListMap<Long, Node>();
+        int size = stream.readInt();
+        for (int i = 0; i < size; i++) {
+            put((String) stream.readObject(), (String) stream.readObject());
+        }
+    }
+
+    private final class EntrySet extends AbstractSet<Map.Entry<String, String>> {
+
+        @SuppressWarnings("NullableProblems")
+        @Override
+        public Iterator<Map.Entry<String, String>> iterator() {
+            final Iterator<Node> nodes = order.values().iterator();
+            return new Iterator<Map.Entry<String, String>>() {
+
+                @Override
+                public boolean hasNext() {
+                    return nodes.hasNext();
+                }
+
+                @Override
+                public Map.Entry<String, String> next() {
+                    return nodes.next();
+                }
+
+            };
+        }
+
+        @Override
+        public int size() {
+            return index.size();
+        }
+
+    }
+
+    /**
+     * Entry of the map. The value of a node is replaced in place when the value of its key changes.
+     */
+    private static final class Node implements Map.Entry<String, String> {
+
+        private final String key;
+        private final long sequence;
+        private volatile String value;
+
+        private Node(String key, String value, long sequence) {
+            this.key = key;
+            this.value = value;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public String getKey() {
+            return key;
+        }
+
+        @Override
+        public String getValue() {
+            return value;
+        }
+
+        @Override
+        public String setValue(String value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> that = (Map.Entry<?, ?>) other;
+            return key.equals(that.getKey()) && Objects.equals(value, that.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode() ^ Objects.hashCode(value);
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + value;
+        }
+
+    }
+
+}
@@ -0,0 +1,85 @@
+package nu.studer.java.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Fast 64-bit hash of the content of properties files, in order to detect unchanged content without parsing it.
+ * <p/>
+ * The hash consumes the input eight bytes at a time with the round and avalanche functions of xxHash64, which makes
+ * accidental collisions of changed content practically impossible. Files are hashed through memory-mapped regions,
+ * without copying their content. Content read as characters is hashed with a different seed than content read as
+ * bytes.
+ */
+final class ContentHash {
+
+    private static final long PRIME_1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME_2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME_3 = 0x165667B19E3779F9L;
+    private static final long PRIME_4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME_5 = 0x27D4EB2F165667C5L;
+
+    private static final long MAPPED_REGION_SIZE = 256L * 1024 * 1024;
+
+    private ContentHash() {
+    }
+
+    /**
+     * Returns the hash of the entire content of the given file channel.
+     *
+     * @param channel the channel to hash, which is read from its beginning regardless of its position
+     * @return the hash of the content
+     * @throws IOException if reading the channel fails
+     */
+    static long of(FileChannel channel) throws IOException {
+        long size = channel.size();
+        long hash = PRIME_5 + size;
+        for (long position = 0; position < size; position += MAPPED_REGION_SIZE) {
+            ByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(size - position, MAPPED_REGION_SIZE));
+            while (region.remaining() >= 8) {
+                hash = round(hash, region.getLong());
+            }
+            while (region.hasRemaining()) {
+                hash = round(hash, region.get() & 0xFF);
+            }
+        }
+        return avalanche(hash);
+    }
+
+    /**
+     * Returns the hash of the given range of characters.
+     *
+     * @param content the characters to hash
+     * @param length  the number of characters to hash, starting at the beginning of the array
+     * @return the hash of the characters
+     */
+    static long of(char[] content, int length) {
+        long hash = PRIME_4 + length;
+        int position = 0;
+        for (; position + 4 <= length; position += 4) {
+            long value = ((long) content[position] << 48) | ((long) content[position + 1] << 32) |
+                    ((long) content[position + 2] << 16) | content[position + 3];
+            hash = round(hash, value);
+        }
+        for (; position < length; position++) {
+            hash = round(hash, content[position]);
+        }
+        return avalanche(hash);
+    }
+
+    private static long round(long hash, long value) {
+        long k = Long.rotateLeft(value * PRIME_2, 31) * PRIME_1;
+        return Long.rotateLeft(hash ^ k, 27) * PRIME_1 + PRIME_4;
+    }
+
+    private static long avalanche(long hash) {
+        hash ^= hash >>> 33;
+        hash *= PRIME_2;
+        hash ^= hash >>> 29;
+        hash *= PRIME_3;
+        hash ^= hash >>> 32;
+        return hash;
+    }
+
+}
@@ -0,0 +1,185 @@
+package nu.studer.java.util;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+
+/**
+ * Thread-safe map that publishes each new version of its entries as an immutable {@link FrozenPropertiesMap} through a
+ * volatile reference.
+ * <p/>
+ * Reads go to the currently published snapshot and thus never block, and each iteration sees the entries of a single,
+ * consistent snapshot. Each modification copies the current snapshot into a modifiable map, applies the changes, and
+ * publishes a new snapshot, which costs time proportional to the number of entries. Modifications are serialized on
+ * the map itself. Several changes can be applied with a single copy and a single publication through
+ * {@link #update(Update)}.
+ */
+final class CopyOnWritePropertiesMap extends AbstractMap<String, String> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Comparator<? super String> comparator;
+    private volatile FrozenPropertiesMap snapshot;
+
+    /**
+     * Creates an empty map.
+     *
+     * @param comparator the comparator by which the entries are ordered, or <tt>null</tt> for insertion ordering
+     */
+    CopyOnWritePropertiesMap(Comparator<? super String> comparator) {
+        this.comparator = comparator;
+        this.snapshot = new FrozenPropertiesMap(Collections.<String, String>emptyMap(), comparator);
+    }
+
+    /**
+     * Returns the currently published snapshot of the entries.
+     *
+     * @return the current snapshot
+     */
+    FrozenPropertiesMap snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Returns the comparator by which the entries are ordered.
+     *
+     * @return the comparator, or <tt>null</tt> if the entries are ordered by insertion
+     */
+    Comparator<? super String> comparator() {
+        return comparator;
+    }
+
+    /**
+     * Applies the given update to a modifiable copy of the current snapshot and publishes the copy as the new snapshot.
+     * If the update fails, no new snapshot is published.
+     *
+     * @param update the update to apply
+     * @param <E>    the type of exception thrown by the update
+     * @throws E if the update fails
+     */
+    synchronized <E extends Exception> void update(Update<E> update) throws E {
+        Map<String, String> copy = modifiableCopy();
+        update.apply(copy);
+        publish(copy);
+    }
+
+    private Map<String, String> modifiableCopy() {
+        Map<String, String> copy = (comparator != null) ?
+                new TreeMap<String, String>(comparator) :
+                new LinkedHashMap<String, String>(Math.max(2 * snapshot.size(), 16));
+        copy.putAll(snapshot);
+        return copy;
+    }
+
+    private void publish(Map<String, String> copy) {
+        snapshot = new FrozenPropertiesMap(copy, comparator);
+    }
+
+    @Override
+    public String get(Object key) {
+        return snapshot.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return snapshot.containsKey(key);
+    }
+
+    @Override
+    public int size() {
+        return snapshot.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return snapshot.isEmpty();
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super String, ? super String> action) {
+        snapshot.forEach(action);
+    }
+
+    @Override
+    public synchronized String put(String key, String value) {
+        Map<String, String> copy = modifiableCopy();
+        String previousValue = copy.put(key, value);
+        publish(copy);
+        return previousValue;
+    }
+
+    @Override
+    public synchronized String remove(Object key) {
+        if (!snapshot.containsKey(key)) {
+            return null;
+        }
+
+        Map<String, String> copy = modifiableCopy();
+        String previousValue = copy.remove(key);
+        publish(copy);
+        return previousValue;
+    }
+
+    @Override
+    public synchronized void putAll(Map<? extends String, ? extends String> map) {
+        Map<String, String> copy = modifiableCopy();
+        copy.putAll(map);
+        publish(copy);
+    }
+
+    @Override
+    public synchronized void clear() {
+        snapshot = new FrozenPropertiesMap(Collections.<String, String>emptyMap(), comparator);
+    }
+
+    @SuppressWarnings("NullableProblems")
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+        return new EntrySet();
+    }
+
+    /**
+     * Live view of the entries, such that views that hold on to the entry set, like the ones returned by
+     * {@link Collections#unmodifiableMap(Map)}, reflect later versions. Each iteration sees a single snapshot.
+     */
+    private final class EntrySet extends AbstractSet<Map.Entry<String, String>> {
+
+        @SuppressWarnings("NullableProblems")
+        @Override
+        public Iterator<Map.Entry<String, String>> iterator() {
+            return snapshot.entrySet().iterator();
+        }
+
+        @Override
+        public int size() {
+            return snapshot.size();
+        }
+
+    }
+
+    /**
+     * Modification of a map that might fail with a checked exception.
+     *
+     * @param <E> the type of exception thrown by the modification
+     */
+    interface Update<E extends Exception> {
+
+        /**
+         * Applies the modification to the given map.
+         *
+         * @param properties the map to modify
+         * @throws E if the modification fails
+         */
+        void apply(Map<String, String> properties) throws E;
+
+    }
+
+}
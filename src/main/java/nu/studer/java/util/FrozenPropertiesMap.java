@@ -0,0 +1,273 @@
+package nu.studer.java.util;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * Immutable map that keeps its entries in two parallel arrays of keys and values, in the iteration order of the map
+ * it has been created from.
+ * <p/>
+ * When the entries are ordered by insertion, keys are looked up through an open-addressing index that maps the hash
+ * of a key to its position in the arrays. When the entries are ordered by a comparator, keys are looked up through a
+ * binary search with that comparator, such that the lookup semantics of the original {@link java.util.TreeMap} are
+ * kept, even for comparators that are not consistent with {@link Object#equals(Object)}.
+ * <p/>
+ * No node objects are allocated per entry, neither when creating the map nor when iterating over its entries through
+ * {@link #forEach(BiConsumer)}. All state is held in final fields, so instances can be read by multiple threads
+ * without synchronization. The only exception is the index of the keys by prefix, which is created on first use and
+ * published through a volatile field. Any attempt to modify the map throws an {@link UnsupportedOperationException}.
+ */
+final class FrozenPropertiesMap extends AbstractMap<String, String> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String[] keys;
+    private final String[] values;
+    private final Comparator<? super String> comparator;
+    private final int[] index;
+    private transient volatile int[] sortedPositions;
+
+    /**
+     * Creates a map with the same entries in the same order as the given map. If a comparator is given, the entries
+     * of the given map must be sorted by that comparator.
+     *
+     * @param source     the map to copy the entries from
+     * @param comparator the comparator by which the entries are sorted, or <tt>null</tt> for insertion ordering
+     */
+    FrozenPropertiesMap(Map<String, String> source, Comparator<? super String> comparator) {
+        // the source might be modified concurrently, so its size is only taken as a hint
+        String[] keys = new String[source.size()];
+        String[] values = new String[keys.length];
+        int position = 0;
+        for (Map.Entry<String, String> entry : source.entrySet()) {
+            if (position == keys.length) {
+                keys = Arrays.copyOf(keys, 2 * position + 1);
+                values = Arrays.copyOf(values, keys.length);
+            }
+            keys[position] = entry.getKey();
+            values[position] = entry.getValue();
+            position++;
+        }
+        if (position != keys.length) {
+            keys = Arrays.copyOf(keys, position);
+            values = Arrays.copyOf(values, position);
+        }
+
+        this.keys = keys;
+        this.values = values;
+        this.comparator = comparator;
+        this.index = (comparator == null) ? createIndex(keys) : null;
+    }
+
+    /**
+     * Creates the open-addressing index with a load factor of at most one half. Each slot holds the position of a key
+     * in the keys array plus one, such that zero marks an empty slot.
+     */
+    private static int[] createIndex(String[] keys) {
+        int capacity = Integer.highestOneBit(Math.max(2 * keys.length, 1) - 1) << 1;
+        int[] index = new int[Math.max(capacity, 2)];
+        int mask = index.length - 1;
+        for (int position = 0; position < keys.length; position++) {
+            int slot = hash(keys[position]) & mask;
+            while (index[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            index[slot] = position + 1;
+        }
+        return index;
+    }
+
+    private static int hash(Object key) {
+        int h = Objects.hashCode(key);
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Returns the comparator by which the entries are ordered.
+     *
+     * @return the comparator, or <tt>null</tt> if the entries are ordered by insertion
+     */
+    Comparator<? super String> comparator() {
+        return comparator;
+    }
+
+    private int positionOf(Object key) {
+        if (comparator != null) {
+            if (!(key instanceof String)) {
+                return -1;
+            }
+            int position = Arrays.binarySearch(keys, (String) key, comparator);
+            return (position >= 0) ? position : -1;
+        }
+
+        int mask = index.length - 1;
+        int slot = hash(key) & mask;
+        int candidate;
+        while ((candidate = index[slot]) != 0) {
+            if (Objects.equals(keys[candidate - 1], key)) {
+                return candidate - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Passes the entries whose keys start with the given prefix to the given action, in the order of this map.
+     * <p/>
+     * The matching keys are found through a binary search on the positions of the keys sorted by their natural
+     * ordering, which is created on first use. Hence, finding the matching keys takes time logarithmic in the size
+     * of this map plus linear in the number of matching keys.
+     *
+     * @param prefix the prefix of the keys
+     * @param action the action to apply to each matching entry
+     */
+    void forEachWithPrefix(String prefix, BiConsumer<? super String, ? super String> action) {
+        int[] sortedPositions = sortedPositions();
+        int low = 0;
+        int high = sortedPositions.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (keys[sortedPositions[middle]].compareTo(prefix) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        int end = low;
+        while (end < sortedPositions.length && keys[sortedPositions[end]].startsWith(prefix)) {
+            end++;
+        }
+
+        // positions in ascending order are the order of this map
+        int[] matches = Arrays.copyOfRange(sortedPositions, low, end);
+        Arrays.sort(matches);
+        for (int position : matches) {
+            action.accept(keys[position], values[position]);
+        }
+    }
+
+    /**
+     * Returns the positions of all keys other than <tt>null</tt>, sorted by the natural ordering of the keys.
+     */
+    private int[] sortedPositions() {
+        int[] sortedPositions = this.sortedPositions;
+        if (sortedPositions == null) {
+            String[] sortedKeys = new String[keys.length];
+            int count = 0;
+            for (String key : keys) {
+                if (key != null) {
+                    sortedKeys[count++] = key;
+                }
+            }
+            Arrays.sort(sortedKeys, 0, count);
+
+            sortedPositions = new int[count];
+            for (int i = 0; i < count; i++) {
+                sortedPositions[i] = positionOf(sortedKeys[i]);
+            }
+            this.sortedPositions = sortedPositions;
+        }
+        return sortedPositions;
+    }
+
+    @Override
+    public String get(Object key) {
+        int position = positionOf(key);
+        return (position >= 0) ? values[position] : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return positionOf(key) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return keys.length;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return keys.length == 0;
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super String, ? super String> action) {
+        for (int position = 0; position < keys.length; position++) {
+            action.accept(keys[position], values[position]);
+        }
+    }
+
+    @Override
+    public String put(String key, String value) {
+        throw new UnsupportedOperationException("frozen properties cannot be modified");
+    }
+
+    @Override
+    public String remove(Object key) {
+        throw new UnsupportedOperationException("frozen properties cannot be modified");
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ? extends String> map) {
+        throw new UnsupportedOperationException("frozen properties cannot be modified");
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException("frozen properties cannot be modified");
+    }
+
+    @SuppressWarnings("NullableProblems")
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+        return new EntrySet();
+    }
+
+    private final class EntrySet extends AbstractSet<Map.Entry<String, String>> {
+
+        @SuppressWarnings("NullableProblems")
+        @Override
+        public Iterator<Map.Entry<String, String>> iterator() {
+            return new EntryIterator();
+        }
+
+        @Override
+        public int size() {
+            return keys.length;
+        }
+
+    }
+
+    private final class EntryIterator implements Iterator<Map.Entry<String, String>> {
+
+        private int position;
+
+        @Override
+        public boolean hasNext() {
+            return position < keys.length;
+        }
+
+        @Override
+        public Map.Entry<String, String> next() {
+            if (position >= keys.length) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<String, String> entry = new SimpleImmutableEntry<String, String>(keys[position], values[position]);
+            position++;
+            return entry;
+        }
+
+    }
+
+}
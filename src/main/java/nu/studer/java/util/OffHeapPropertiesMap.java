@@ -0,0 +1,688 @@
+package nu.studer.java.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * Modifiable map that keeps its entries outside of the Java heap, in direct byte buffers, in the order in which the
+ * keys have been inserted.
+ * <p/>
+ * Keys and values are appended to an arena in the same encoding as by {@link CompactPropertiesMap}, with one byte per
+ * character for strings that only consist of ISO 8859-1 characters and two bytes per character otherwise. Each entry
+ * is a fixed-size record of the addresses and lengths of its key and value and of the hash of its key, and keys are
+ * looked up through an open-addressing index of entry numbers. The arena, the records, and the index are all kept
+ * off-heap, in chunks of at most 64 MB each, such that the map can hold more than 2 GB of strings while the garbage
+ * collector only ever sees a few buffer objects, regardless of the number of entries. Strings are created each time
+ * a key or value is returned.
+ * <p/>
+ * The off-heap memory is allocated through {@link ByteBuffer#allocateDirect(int)}, and thus limited by the
+ * <tt>-XX:MaxDirectMemorySize</tt> option of the JVM. It is released once the map, or a chunk that has been
+ * replaced, has been garbage-collected. Replacing and removing entries leaves unused bytes in the arena, which is
+ * compacted once more than half of it is unused.
+ * <p/>
+ * Neither keys nor values can be <tt>null</tt>, the same as with {@link java.util.Properties}. This map is not
+ * synchronized.
+ */
+final class OffHeapPropertiesMap extends AbstractMap<String, String> {
+
+    // layout of an entry record: address of the key, address of the value, length of the key, length of the value,
+    // and hash of the key, padded such that records never span two chunks
+    private static final int ENTRY_SIZE = 32;
+    private static final int KEY_ADDRESS = 0;
+    private static final int VALUE_ADDRESS = 8;
+    private static final int KEY_LENGTH = 16;
+    private static final int VALUE_LENGTH = 20;
+    private static final int HASH = 24;
+
+    // length of the key of a removed entry, lengths are otherwise encoded as (length << 1) | wide
+    private static final int REMOVED = -1;
+
+    // entries are referenced from the index by their number plus one
+    private static final int MAX_ENTRIES = Integer.MAX_VALUE - 1;
+
+    private Memory arena;
+    private long arenaSize;
+    private long unusedBytes;
+    private Memory entries;
+    private int entryCount;
+    private int size;
+    private Memory index;
+    private long indexCapacity;
+    private int modCount;
+
+    /**
+     * Creates an empty map.
+     *
+     * @param expectedSize the number of entries expected to be put into the map
+     */
+    OffHeapPropertiesMap(int expectedSize) {
+        init(Math.max(expectedSize, 8));
+    }
+
+    private void init(int capacity) {
+        arena = new Memory(32L * capacity);
+        arenaSize = 0;
+        unusedBytes = 0;
+        entries = new Memory((long) ENTRY_SIZE * capacity);
+        entryCount = 0;
+        size = 0;
+        indexCapacity = indexCapacity(capacity);
+        index = new Memory(4 * indexCapacity);
+    }
+
+    private static long indexCapacity(long entries) {
+        // load factor of at most one half
+        long capacity = 16;
+        while (capacity < 2 * entries) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public String get(Object key) {
+        int entry = (key instanceof String) ? entryOf((String) key) : -1;
+        return (entry >= 0) ? value(entry) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof String && entryOf((String) key) >= 0;
+    }
+
+    @Override
+    public String put(String key, String value) {
+        if (key == null) {
+            throw new NullPointerException("key must not be null");
+        }
+        if (value == null) {
+            throw new NullPointerException("value must not be null");
+        }
+
+        int hash = key.hashCode();
+        int entry = entryOf(key, hash);
+        if (entry >= 0) {
+            String previousValue = value(entry);
+            if (!previousValue.equals(value)) {
+                long record = record(entry);
+                unusedBytes += byteLength(entries.getInt(record + VALUE_LENGTH));
+                entries.putLong(record + VALUE_ADDRESS, arenaSize);
+                entries.putInt(record + VALUE_LENGTH, write(value));
+                compactIfWasteful();
+            }
+            return previousValue;
+        }
+
+        if (entryCount == MAX_ENTRIES) {
+            throw new OutOfMemoryError("off-heap properties exceed the maximum number of entries");
+        }
+        if (2L * (size + 1) > indexCapacity) {
+            rebuildIndex(2 * indexCapacity);
+        }
+
+        entry = entryCount++;
+        long record = record(entry);
+        entries.ensureCapacity(record + ENTRY_SIZE);
+        entries.putLong(record + KEY_ADDRESS, arenaSize);
+        entries.putInt(record + KEY_LENGTH, write(key));
+        entries.putLong(record + VALUE_ADDRESS, arenaSize);
+        entries.putInt(record + VALUE_LENGTH, write(value));
+        entries.putInt(record + HASH, hash);
+        insertIntoIndex(entry, hash);
+        size++;
+        modCount++;
+        return null;
+    }
+
+    @Override
+    public String remove(Object key) {
+        int entry = (key instanceof String) ? entryOf((String) key) : -1;
+        if (entry < 0) {
+            return null;
+        }
+
+        String previousValue = value(entry);
+        removeEntry(entry);
+        compactIfWasteful();
+        return previousValue;
+    }
+
+    @Override
+    public void clear() {
+        init(8);
+        modCount++;
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super String, ? super String> action) {
+        int expectedModCount = modCount;
+        for (int entry = 0; entry < entryCount; entry++) {
+            if (entries.getInt(record(entry) + KEY_LENGTH) != REMOVED) {
+                action.accept(key(entry), value(entry));
+                if (modCount != expectedModCount) {
+                    throw new ConcurrentModificationException();
+                }
+            }
+        }
+    }
+
+    /**
+     * Passes the entries whose keys start with the given prefix to the given action, in the order of this map. The
+     * keys are compared with the prefix off-heap, such that no strings are created for the keys that do not match.
+     * Since the keys are not indexed, all entries are visited.
+     *
+     * @param prefix the prefix of the keys
+     * @param action the action to pass the matching entries to
+     */
+    void forEachWithPrefix(String prefix, BiConsumer<String, String> action) {
+        int expectedModCount = modCount;
+        for (int entry = 0; entry < entryCount; entry++) {
+            long record = record(entry);
+            int keyLength = entries.getInt(record + KEY_LENGTH);
+            if (keyLength != REMOVED && (keyLength >>> 1) >= prefix.length() &&
+                    regionMatches(entries.getLong(record + KEY_ADDRESS), keyLength, prefix, prefix.length())) {
+                action.accept(key(entry), value(entry));
+                if (modCount != expectedModCount) {
+                    throw new ConcurrentModificationException();
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("NullableProblems")
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+        return new AbstractSet<Map.Entry<String, String>>() {
+
+            @SuppressWarnings("NullableProblems")
+            @Override
+            public Iterator<Map.Entry<String, String>> iterator() {
+                return new EntryIterator<Map.Entry<String, String>>() {
+
+                    @Override
+                    Map.Entry<String, String> get(int entry) {
+                        return new SimpleImmutableEntry<String, String>(key(entry), value(entry));
+                    }
+
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+        };
+    }
+
+    @SuppressWarnings("NullableProblems")
+    @Override
+    public Set<String> keySet() {
+        return new AbstractSet<String>() {
+
+            @SuppressWarnings("NullableProblems")
+            @Override
+            public Iterator<String> iterator() {
+                return new EntryIterator<String>() {
+
+                    @Override
+                    String get(int entry) {
+                        return key(entry);
+                    }
+
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public boolean contains(Object key) {
+                return containsKey(key);
+            }
+
+        };
+    }
+
+    @SuppressWarnings("NullableProblems")
+    @Override
+    public Collection<String> values() {
+        return new AbstractCollection<String>() {
+
+            @SuppressWarnings("NullableProblems")
+            @Override
+            public Iterator<String> iterator() {
+                return new EntryIterator<String>() {
+
+                    @Override
+                    String get(int entry) {
+                        return value(entry);
+                    }
+
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+        };
+    }
+
+    private static long record(int entry) {
+        return (long) ENTRY_SIZE * entry;
+    }
+
+    private int entryOf(String key) {
+        return entryOf(key, key.hashCode());
+    }
+
+    private int entryOf(String key, int hash) {
+        long mask = indexCapacity - 1;
+        long slot = spread(hash) & mask;
+        int candidate;
+        while ((candidate = index.getInt(4 * slot)) != 0) {
+            int entry = candidate - 1;
+            long record = record(entry);
+            if (entries.getInt(record + HASH) == hash && keyEquals(record, key)) {
+                return entry;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private static long spread(int hash) {
+        return (hash ^ (hash >>> 16)) & 0xFFFFFFFFL;
+    }
+
+    private boolean keyEquals(long record, String key) {
+        int keyLength = entries.getInt(record + KEY_LENGTH);
+        return (keyLength >>> 1) == key.length() && regionMatches(entries.getLong(record + KEY_ADDRESS), keyLength, key, key.length());
+    }
+
+    /**
+     * Returns whether the first characters of the string at the given address of the arena are equal to the first
+     * characters of the given string.
+     */
+    private boolean regionMatches(long address, int encodedLength, String string, int length) {
+        if ((encodedLength & 1) == 0) {
+            for (int i = 0; i < length; i++) {
+                if ((arena.get(address + i) & 0xFF) != string.charAt(i)) {
+                    return false;
+                }
+            }
+        } else {
+            for (int i = 0; i < length; i++) {
+                if (charAt(address + 2L * i) != string.charAt(i)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private char charAt(long address) {
+        return (char) (((arena.get(address) & 0xFF) << 8) | (arena.get(address + 1) & 0xFF));
+    }
+
+    private String key(int entry) {
+        long record = record(entry);
+        return read(entries.getLong(record + KEY_ADDRESS), entries.getInt(record + KEY_LENGTH));
+    }
+
+    private String value(int entry) {
+        long record = record(entry);
+        return read(entries.getLong(record + VALUE_ADDRESS), entries.getInt(record + VALUE_LENGTH));
+    }
+
+    private String read(long address, int encodedLength) {
+        int length = encodedLength >>> 1;
+        if ((encodedLength & 1) == 0) {
+            byte[] bytes = new byte[length];
+            arena.get(address, bytes, 0, length);
+            return new String(bytes, StandardCharsets.ISO_8859_1);
+        }
+
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = charAt(address + 2L * i);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Appends the given string to the arena, with one byte per character if all characters are ISO 8859-1
+     * characters, and two bytes per character otherwise.
+     *
+     * @return the encoded length of the string
+     */
+    private int write(String string) {
+        int length = string.length();
+        arena.ensureCapacity(arenaSize + length);
+        for (int i = 0; i < length; i++) {
+            char c = string.charAt(i);
+            if (c > 0xFF) {
+                return writeWide(string);
+            }
+            arena.put(arenaSize + i, (byte) c);
+        }
+        arenaSize += length;
+        return length << 1;
+    }
+
+    private int writeWide(String string) {
+        int length = string.length();
+        arena.ensureCapacity(arenaSize + 2L * length);
+        for (int i = 0; i < length; i++) {
+            char c = string.charAt(i);
+            arena.put(arenaSize + 2L * i, (byte) (c >>> 8));
+            arena.put(arenaSize + 2L * i + 1, (byte) c);
+        }
+        arenaSize += 2L * length;
+        return (length << 1) | 1;
+    }
+
+    private static long byteLength(int encodedLength) {
+        return (long) (encodedLength >>> 1) << (encodedLength & 1);
+    }
+
+    private void insertIntoIndex(int entry, int hash) {
+        long mask = indexCapacity - 1;
+        long slot = spread(hash) & mask;
+        while (index.getInt(4 * slot) != 0) {
+            slot = (slot + 1) & mask;
+        }
+        index.putInt(4 * slot, entry + 1);
+    }
+
+    private void rebuildIndex(long capacity) {
+        indexCapacity = capacity;
+        index = new Memory(4 * capacity);
+        for (int entry = 0; entry < entryCount; entry++) {
+            long record = record(entry);
+            if (entries.getInt(record + KEY_LENGTH) != REMOVED) {
+                insertIntoIndex(entry, entries.getInt(record + HASH));
+            }
+        }
+    }
+
+    private void removeEntry(int entry) {
+        // find the slot of the entry and close the gap by shifting back the entries that follow it in their cluster
+        long record = record(entry);
+        long mask = indexCapacity - 1;
+        long hole = spread(entries.getInt(record + HASH)) & mask;
+        while (index.getInt(4 * hole) != entry + 1) {
+            hole = (hole + 1) & mask;
+        }
+        long slot = (hole + 1) & mask;
+        int candidate;
+        while ((candidate = index.getInt(4 * slot)) != 0) {
+            long home = spread(entries.getInt(record(candidate - 1) + HASH)) & mask;
+            if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+                index.putInt(4 * hole, candidate);
+                hole = slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        index.putInt(4 * hole, 0);
+
+        unusedBytes += byteLength(entries.getInt(record + KEY_LENGTH)) + byteLength(entries.getInt(record + VALUE_LENGTH));
+        entries.putInt(record + KEY_LENGTH, REMOVED);
+        size--;
+        modCount++;
+    }
+
+    /**
+     * Compacts the arena and the entries once more than half of the arena or of the entries are unused, which keeps
+     * the amortized cost of modifications constant.
+     */
+    private void compactIfWasteful() {
+        if (unusedBytes > arenaSize / 2 || entryCount - size > entryCount / 2) {
+            compact();
+        }
+    }
+
+    private void compact() {
+        Memory compacted = new Memory(Math.max(arenaSize - unusedBytes, 64));
+        byte[] buffer = new byte[8192];
+        long offset = 0;
+        int count = 0;
+        for (int entry = 0; entry < entryCount; entry++) {
+            long record = record(entry);
+            int keyLength = entries.getInt(record + KEY_LENGTH);
+            if (keyLength == REMOVED) {
+                continue;
+            }
+
+            // entries only move towards the start, such that a record is read before it is overwritten
+            long keyAddress = entries.getLong(record + KEY_ADDRESS);
+            long valueAddress = entries.getLong(record + VALUE_ADDRESS);
+            int valueLength = entries.getInt(record + VALUE_LENGTH);
+            int hash = entries.getInt(record + HASH);
+
+            long target = record(count);
+            entries.putLong(target + KEY_ADDRESS, offset);
+            entries.putInt(target + KEY_LENGTH, keyLength);
+            offset = copy(keyAddress, compacted, offset, byteLength(keyLength), buffer);
+            entries.putLong(target + VALUE_ADDRESS, offset);
+            entries.putInt(target + VALUE_LENGTH, valueLength);
+            offset = copy(valueAddress, compacted, offset, byteLength(valueLength), buffer);
+            entries.putInt(target + HASH, hash);
+            count++;
+        }
+
+        arena = compacted;
+        arenaSize = offset;
+        unusedBytes = 0;
+        entryCount = count;
+        rebuildIndex(indexCapacity);
+        modCount++;
+    }
+
+    /**
+     * Copies the given number of bytes from the arena to the given address of the target memory.
+     *
+     * @return the address in the target memory right after the copied bytes
+     */
+    private long copy(long address, Memory target, long targetAddress, long length, byte[] buffer) {
+        while (length > 0) {
+            int chunk = (int) Math.min(length, buffer.length);
+            arena.get(address, buffer, 0, chunk);
+            target.put(targetAddress, buffer, 0, chunk);
+            address += chunk;
+            targetAddress += chunk;
+            length -= chunk;
+        }
+        return targetAddress;
+    }
+
+    /**
+     * Iterator over the entries that are not removed, in insertion order.
+     */
+    private abstract class EntryIterator<T> implements Iterator<T> {
+
+        private int next = advance(0);
+        private int last = -1;
+        private int expectedModCount = modCount;
+
+        private int advance(int entry) {
+            while (entry < entryCount && entries.getInt(record(entry) + KEY_LENGTH) == REMOVED) {
+                entry++;
+            }
+            return entry;
+        }
+
+        abstract T get(int entry);
+
+        @Override
+        public boolean hasNext() {
+            return next < entryCount;
+        }
+
+        @Override
+        public T next() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (next >= entryCount) {
+                throw new NoSuchElementException();
+            }
+            last = next;
+            next = advance(next + 1);
+            return get(last);
+        }
+
+        @Override
+        public void remove() {
+            if (last < 0) {
+                throw new IllegalStateException();
+            }
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            // do not compact, such that the positions of the remaining entries stay the same
+            removeEntry(last);
+            last = -1;
+            expectedModCount = modCount;
+        }
+
+    }
+
+    /**
+     * Zero-initialized off-heap memory that is addressed by longs and grows on demand. The memory consists of chunks
+     * of direct byte buffers. The first chunk is reallocated with twice its capacity until it reaches the size of a
+     * chunk, and further chunks are added as needed, such that small maps do not reserve a whole chunk. Ints and longs
+     * must be aligned to their size, such that they never span two chunks.
+     */
+    private static final class Memory {
+
+        private static final int CHUNK_SHIFT = 26;
+        private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+        private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+        private ByteBuffer[] chunks = new ByteBuffer[0];
+        private long capacity;
+
+        private Memory(long capacity) {
+            ensureCapacity(capacity);
+        }
+
+        private void ensureCapacity(long required) {
+            if (required <= capacity) {
+                return;
+            }
+
+            if (capacity < CHUNK_SIZE) {
+                int firstChunkCapacity = (int) Math.min(Math.max(Math.max(2 * capacity, required), 64), CHUNK_SIZE);
+                ByteBuffer firstChunk = allocate(firstChunkCapacity);
+                if (chunks.length > 0) {
+                    ByteBuffer previous = chunks[0].duplicate();
+                    previous.clear();
+                    firstChunk.put(previous);
+                    firstChunk.clear();
+                }
+                chunks = new ByteBuffer[]{firstChunk};
+                capacity = firstChunkCapacity;
+            }
+            if (required > capacity) {
+                int count = (int) ((required + CHUNK_MASK) >>> CHUNK_SHIFT);
+                int existing = chunks.length;
+                chunks = Arrays.copyOf(chunks, count);
+                for (int i = existing; i < count; i++) {
+                    chunks[i] = allocate(CHUNK_SIZE);
+                }
+                capacity = (long) count << CHUNK_SHIFT;
+            }
+        }
+
+        private static ByteBuffer allocate(int capacity) {
+            return ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+        }
+
+        private ByteBuffer chunk(long address) {
+            return chunks[(int) (address >>> CHUNK_SHIFT)];
+        }
+
+        private static int offset(long address) {
+            return (int) (address & CHUNK_MASK);
+        }
+
+        private byte get(long address) {
+            return chunk(address).get(offset(address));
+        }
+
+        private void put(long address, byte value) {
+            chunk(address).put(offset(address), value);
+        }
+
+        private int getInt(long address) {
+            return chunk(address).getInt(offset(address));
+        }
+
+        private void putInt(long address, int value) {
+            chunk(address).putInt(offset(address), value);
+        }
+
+        private long getLong(long address) {
+            return chunk(address).getLong(offset(address));
+        }
+
+        private void putLong(long address, long value) {
+            chunk(address).putLong(offset(address), value);
+        }
+
+        private void get(long address, byte[] bytes, int offset, int length) {
+            while (length > 0) {
+                ByteBuffer chunk = chunk(address).duplicate();
+                int position = offset(address);
+                int count = Math.min(length, chunk.capacity() - position);
+                chunk.position(position);
+                chunk.get(bytes, offset, count);
+                address += count;
+                offset += count;
+                length -= count;
+            }
+        }
+
+        private void put(long address, byte[] bytes, int offset, int length) {
+            while (length > 0) {
+                ByteBuffer chunk = chunk(address).duplicate();
+                int position = offset(address);
+                int count = Math.min(length, chunk.capacity() - position);
+                chunk.position(position);
+                chunk.put(bytes, offset, count);
+                address += count;
+                offset += count;
+                length -= count;
+            }
+        }
+
+    }
+
+}
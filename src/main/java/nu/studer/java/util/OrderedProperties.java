@@ -1,36 +1,59 @@
 package nu.studer.java.util;
 
-import java.io.BufferedWriter;
+import java.io.CharArrayReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InvalidObjectException;
+import java.io.NotSerializableException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.io.Reader;
 import java.io.Serializable;
+import java.io.StreamCorruptedException;
 import java.io.Writer;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Enumeration;
 import java.util.InvalidPropertiesFormatException;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * This class provides an alternative to the JDK's {@link Properties} class. It fixes the design flaw of using
  * inheritance over composition, while keeping up the same APIs as the original class. Keys and values are
  * guaranteed to be of type {@link String}.
  * <p/>
- * This class is not synchronized, contrary to the original implementation.
+ * This class is not synchronized by default, contrary to the original implementation.
  * <p/>
  * As additional functionality, this class keeps its properties in a well-defined order. By default, the order
  * is the one in which the individual properties have been added, either through explicit API calls or through
@@ -39,15 +62,33 @@ import java.util.Vector;
  * Also, an optional flag can be set to omit the comment that contains the current date when storing the
  * properties to a properties file.
  * <p/>
- * Currently, this class does not support the concept of default properties, contrary to the original implementation.
+ * Default properties are supported through {@link OrderedPropertiesBuilder#withDefaults(OrderedProperties)}, the
+ * same as in the original implementation. Properties that are not found in an instance are looked up in a flattened
+ * copy of all properties of its chain of defaults, such that looking up a property takes constant time regardless
+ * of the length of the chain.
  * <p/>
- * <strong>Note that this implementation is not synchronized.</strong> If multiple threads access ordered
+ * Placeholders of the form <tt>${key}</tt> in the values of properties can be resolved through
+ * {@link #getInterpolatedProperty(String)}, which caches the resolved values and detects circular references.
+ * <p/>
+ * Changes of the properties can be observed through {@link #addChangeListener(PropertiesChangeListener)}, which
+ * reports all changes of a load, a reload, or a batch of modifications at once.
+ * <p/>
+ * Once the properties do not change anymore, an immutable and more compact copy can be created through
+ * {@link #freeze()}.
+ * <p/>
+ * <strong>Note that this implementation is not synchronized by default.</strong> If multiple threads access ordered
  * properties concurrently, and at least one of the threads modifies the ordered properties structurally, it
  * <em>must</em> be synchronized externally. This is typically accomplished by synchronizing on some object
- * that naturally encapsulates the properties.
+ * that naturally encapsulates the properties. Alternatively, concurrency can be enabled through
+ * {@link OrderedPropertiesBuilder#withConcurrency(boolean)}, in which case reading the properties never blocks
+ * and no external synchronization is needed. For properties that are modified rarely, copy-on-write can be enabled
+ * through {@link OrderedPropertiesBuilder#withCopyOnWrite(boolean)}, in which case readers always see a consistent
+ * version of the properties.
  * <p/>
- * Note that the actual (and quite complex) logic of parsing and storing properties from and to a stream
- * is delegated to the {@link Properties} class from the JDK.
+ * Note that parsing properties from a stream is done by a dedicated parser that puts the properties straight
+ * into the backing map, applying the same escape, continuation, and comment rules as the JDK. Likewise, properties
+ * in XML format are read and written in a streaming fashion, entry by entry. Storing properties to a stream is
+ * done by a dedicated writer that iterates the backing map once and produces the same output as the JDK.
  *
  * @see Properties
  */
@@ -58,40 +99,244 @@ public final class OrderedProperties implements Serializable {
 
     private transient Map<String, String> properties;
     private transient boolean suppressDate;
+    private transient ForkJoinPool loadPool;
+    private transient Map<String, String> unmodifiableProperties;
+    private transient int hashCode;
+    private transient boolean hashCodeIsZero;
+
+    // not transient, since writeObject excludes the defaults from the binary form and relies on defaultWriteObject
+    private OrderedProperties defaults;
+    private transient volatile FlattenedProperties flattened;
+    private transient volatile int flattenedVersion;
+    private transient volatile Set<WeakReference<OrderedProperties>> dependents;
+    private transient ReferenceQueue<OrderedProperties> collectedDependents;
+    private transient volatile ConcurrentHashMap<String, ParsedValue> parsedValues;
+
+    private transient boolean interpolateSystemProperties;
+    private transient boolean interpolateEnvironment;
+    private transient volatile PropertiesInterpolator interpolator;
+    private transient PrefixIndex prefixIndex;
+    private transient long contentHash;
+    private transient boolean hasContentHash;
+    private transient volatile PropertiesChangeListeners changeListeners;
+    private transient PropertiesStringPool stringPool;
+
+    private static final AtomicIntegerFieldUpdater<OrderedProperties> FLATTENED_VERSION =
+            AtomicIntegerFieldUpdater.newUpdater(OrderedProperties.class, "flattenedVersion");
 
     /**
      * Creates a new instance that will keep the properties in the order they have been added. Other than
      * the ordering of the keys, this instance behaves like an instance of the {@link Properties} class.
      */
     public OrderedProperties() {
-        this(new LinkedHashMap<String, String>(), false);
+        this(new LinkedHashMap<String, String>(), false, null, null, false, false, null);
+    }
+
+    private OrderedProperties(Map<String, String> properties, OrderedProperties template) {
+        this(properties, template.suppressDate, template.loadPool, template.defaults,
+                template.interpolateSystemProperties, template.interpolateEnvironment, template.stringPool);
+        if (defaults != null) {
+            defaults.addDependent(this);
+        }
     }
 
-    private OrderedProperties(Map<String, String> properties, boolean suppressDate) {
+    /**
+     * Creates an instance that is not registered as a dependent of the given default properties, which is left to
+     * the callers that keep the instance beyond a single batch of modifications.
+     */
+    private OrderedProperties(Map<String, String> properties, boolean suppressDate, ForkJoinPool loadPool, OrderedProperties defaults,
+                              boolean interpolateSystemProperties, boolean interpolateEnvironment, PropertiesStringPool stringPool) {
         this.properties = properties;
         this.suppressDate = suppressDate;
+        this.loadPool = loadPool;
+        this.defaults = defaults;
+        this.interpolateSystemProperties = interpolateSystemProperties;
+        this.interpolateEnvironment = interpolateEnvironment;
+        this.stringPool = stringPool;
     }
 
     /**
      * See {@link Properties#getProperty(String)}.
      */
     public String getProperty(String key) {
-        return properties.get(key);
+        String value = properties.get(key);
+        return (value == null && defaults != null) ? inheritedProperties().get(key) : value;
     }
 
     /**
      * See {@link Properties#getProperty(String, String)}.
      */
     public String getProperty(String key, String defaultValue) {
-        String value = properties.get(key);
+        String value = getProperty(key);
+        return (value == null) ? defaultValue : value;
+    }
+
+    /**
+     * Returns the value of the property with the specified key as an <tt>int</tt>, ignoring leading and trailing
+     * whitespace. The default properties are considered the same as by {@link #getProperty(String)}.
+     * <p/>
+     * The converted value is cached along with the key and reused as long as the property holds the same string,
+     * such that repeated calls neither parse the string again nor box the value.
+     *
+     * @param key          the key of the property
+     * @param defaultValue the value to return if there is no property with the specified key
+     * @return the converted value of the property, or the default value if there is no such property
+     * @throws NumberFormatException if the value of the property is not a valid <tt>int</tt>
+     */
+    public int getInt(String key, int defaultValue) {
+        String value = getProperty(key);
+        return (value == null) ? defaultValue : parsedValue(key, value, ParsedValue.INT).intValue();
+    }
+
+    /**
+     * Returns the value of the property with the specified key as a <tt>long</tt>, ignoring leading and trailing
+     * whitespace. The converted value is cached the same as by {@link #getInt(String, int)}.
+     *
+     * @param key          the key of the property
+     * @param defaultValue the value to return if there is no property with the specified key
+     * @return the converted value of the property, or the default value if there is no such property
+     * @throws NumberFormatException if the value of the property is not a valid <tt>long</tt>
+     */
+    public long getLong(String key, long defaultValue) {
+        String value = getProperty(key);
+        return (value == null) ? defaultValue : parsedValue(key, value, ParsedValue.LONG).longValue();
+    }
+
+    /**
+     * Returns the value of the property with the specified key as a <tt>boolean</tt>, ignoring leading and trailing
+     * whitespace. The values <tt>true</tt> and <tt>false</tt> are accepted, ignoring case. The converted value is
+     * cached the same as by {@link #getInt(String, int)}.
+     *
+     * @param key          the key of the property
+     * @param defaultValue the value to return if there is no property with the specified key
+     * @return the converted value of the property, or the default value if there is no such property
+     * @throws IllegalArgumentException if the value of the property is neither <tt>true</tt> nor <tt>false</tt>
+     */
+    public boolean getBoolean(String key, boolean defaultValue) {
+        String value = getProperty(key);
+        return (value == null) ? defaultValue : parsedValue(key, value, ParsedValue.BOOLEAN).booleanValue();
+    }
+
+    /**
+     * Returns the value of the property with the specified key as a {@link Duration}, ignoring leading and trailing
+     * whitespace. Both the ISO-8601 format accepted by {@link Duration#parse(CharSequence)}, e.g. <tt>PT30S</tt>, and
+     * an integral amount followed by one of the units <tt>ns</tt>, <tt>us</tt>, <tt>ms</tt>, <tt>s</tt>,
+     * <tt>m</tt>, <tt>h</tt>, and <tt>d</tt>, e.g. <tt>30s</tt>, are accepted. The converted value is cached the same
+     * as by {@link #getInt(String, int)}.
+     *
+     * @param key          the key of the property
+     * @param defaultValue the value to return if there is no property with the specified key
+     * @return the converted value of the property, or the default value if there is no such property
+     * @throws IllegalArgumentException if the value of the property is not a valid duration
+     */
+    public Duration getDuration(String key, Duration defaultValue) {
+        String value = getProperty(key);
+        return (value == null) ? defaultValue : parsedValue(key, value, ParsedValue.DURATION).durationValue();
+    }
+
+    /**
+     * Returns the cached conversion of the given value of the property with the given key, converting the value if
+     * it has not been converted into the requested type yet or if the property has changed since.
+     */
+    private ParsedValue parsedValue(String key, String value, int type) {
+        ConcurrentHashMap<String, ParsedValue> parsedValues = this.parsedValues;
+        if (parsedValues == null) {
+            parsedValues = new ConcurrentHashMap<String, ParsedValue>();
+            this.parsedValues = parsedValues;
+        }
+
+        ParsedValue parsed = parsedValues.get(key);
+        if (parsed == null || !parsed.isValidFor(value, type)) {
+            parsed = ParsedValue.parse(value, type);
+            parsedValues.put(key, parsed);
+        }
+        return parsed;
+    }
+
+    /**
+     * Returns the value of the property with the specified key, with each placeholder of the form <tt>${key}</tt>
+     * replaced by the value of the referenced property, whose placeholders are resolved in turn. The default
+     * properties are considered the same as by {@link #getProperty(String)}. If enabled through
+     * {@link OrderedPropertiesBuilder#withSystemPropertiesInterpolation(boolean)} and
+     * {@link OrderedPropertiesBuilder#withEnvironmentInterpolation(boolean)}, placeholders that reference keys that
+     * are not present in the properties are resolved against the system properties and the environment variables,
+     * in that order. Placeholders that cannot be resolved are kept as they are.
+     * <p/>
+     * Resolved values are cached. When a property is set or removed, only the cached values that depend on that
+     * property, directly or transitively, are discarded. Loading properties, or modifying the default properties,
+     * discards all cached values. Hence, resolving all properties takes time linear in the size of the properties.
+     * Note that changes to the system properties or the environment variables are not detected once a value that
+     * depends on them has been cached.
+     *
+     * @param key the key of the property
+     * @return the resolved value of the property, or <tt>null</tt> if there is no property with the specified key
+     * @throws IllegalStateException if the value of the property references itself, directly or transitively
+     */
+    public String getInterpolatedProperty(String key) {
+        PropertiesInterpolator interpolator = this.interpolator;
+        if (interpolator == null) {
+            interpolator = new PropertiesInterpolator(this::getInterpolationSource);
+            this.interpolator = interpolator;
+        }
+        return interpolator.resolve(key);
+    }
+
+    /**
+     * Returns the value of the property with the specified key with all placeholders resolved, the same as
+     * {@link #getInterpolatedProperty(String)}, or the default value if there is no property with the specified key.
+     *
+     * @param key          the key of the property
+     * @param defaultValue the value to return if there is no property with the specified key
+     * @return the resolved value of the property, or the default value if there is no such property
+     * @throws IllegalStateException if the value of the property references itself, directly or transitively
+     */
+    public String getInterpolatedProperty(String key, String defaultValue) {
+        String value = getInterpolatedProperty(key);
         return (value == null) ? defaultValue : value;
     }
 
+    private String getInterpolationSource(String key) {
+        String value = getProperty(key);
+        if (value == null && interpolateSystemProperties) {
+            value = System.getProperty(key);
+        }
+        if (value == null && interpolateEnvironment) {
+            value = System.getenv(key);
+        }
+        return value;
+    }
+
+    /**
+     * Returns a new instance that contains the properties returned by {@link #stringPropertyNames()}, including
+     * the inherited ones, with all placeholders resolved the same as by {@link #getInterpolatedProperty(String)}.
+     * The new instance has the same behavior as this instance, but no default properties, and is modifiable even if
+     * this instance is frozen.
+     *
+     * @return the resolved properties
+     * @throws IllegalStateException if the value of any property references itself, directly or transitively
+     */
+    public OrderedProperties interpolated() {
+        final Set<String> keys = stringPropertyNames();
+        OrderedProperties result = builderWithSameBehavior().withExpectedSize(keys.size()).build();
+        result.update(target -> {
+            for (String key : keys) {
+                target.setProperty(key, getInterpolatedProperty(key));
+            }
+        });
+        return result;
+    }
+
     /**
      * See {@link Properties#setProperty(String, String)}.
      */
     public String setProperty(String key, String value) {
-        return properties.put(key, value);
+        String previousValue = properties.put(key, value);
+        modified(key);
+        PropertiesChangeListeners changeListeners = this.changeListeners;
+        if (changeListeners != null) {
+            changeListeners.changed(key, previousValue, value);
+        }
+        return previousValue;
     }
 
     /**
@@ -103,11 +348,63 @@ public final class OrderedProperties implements Serializable {
      * @return the previous value of the property, or <tt>null</tt> if there was no property with the specified key
      */
     public String removeProperty(String key) {
-        return properties.remove(key);
+        // resolve the key held by the map before it is gone, in order to remove the same key from the prefix index
+        String removedKey = (prefixIndex != null) ? storedKey(key) : key;
+        String previousValue = properties.remove(key);
+        ConcurrentHashMap<String, ParsedValue> parsedValues = this.parsedValues;
+        if (parsedValues != null && key != null) {
+            parsedValues.remove(key);
+        }
+        modified(removedKey);
+        PropertiesChangeListeners changeListeners = this.changeListeners;
+        if (changeListeners != null) {
+            changeListeners.changed(key, previousValue, null);
+        }
+        return previousValue;
+    }
+
+    /**
+     * Sets all properties of the given map, in the iteration order of the map. Properties that are present already
+     * keep their position and get the new value. The properties are passed to the bulk operation of the backing map.
+     * If these properties are empty and no change listeners have been registered, insertion-ordered properties are
+     * thus sized once to fit all properties, and sorted properties are copied in linear time if the given map is
+     * sorted by the same comparator. Otherwise, the backing map may grow several times and the properties are
+     * effectively set one at a time, e.g. for compact or off-heap storage.
+     * <p/>
+     * If copy-on-write has been enabled, all properties are published as a single new version. The registered change
+     * listeners are notified once of all changes.
+     *
+     * @param source the properties to set
+     */
+    public void putAll(final Map<String, String> source) {
+        if (source == null) {
+            throw new NullPointerException("source must not be null");
+        }
+        modify(target -> target.putAll(source));
+    }
+
+    /**
+     * Sets all properties of the given instance, in its order, the same as {@link #putAll(Map)}. The properties are
+     * copied straight from the map that backs the given instance. The default properties of the given instance are
+     * not considered.
+     *
+     * @param source the properties to set
+     */
+    public void putAll(OrderedProperties source) {
+        if (source == null) {
+            throw new NullPointerException("source must not be null");
+        }
+        if (source != this) {
+            // copy from the current version of copy-on-write properties, such that they are copied consistently
+            putAll(source.properties instanceof CopyOnWritePropertiesMap ?
+                    ((CopyOnWritePropertiesMap) source.properties).snapshot() :
+                    source.properties);
+        }
     }
 
     /**
-     * Returns <tt>true</tt> if there is a property with the specified key.
+     * Returns <tt>true</tt> if there is a property with the specified key. The default properties are not
+     * considered.
      *
      * @param key the key whose presence is to be tested
      */
@@ -131,310 +428,1694 @@ public final class OrderedProperties implements Serializable {
 
     /**
      * See {@link Properties#propertyNames()}.
+     * <p/>
+     * The keys are enumerated in the same order as by {@link #stringPropertyNames()}. The returned enumeration
+     * iterates over a copy of the keys. Use {@link #keys()} to iterate over the keys without copying them.
      */
     public Enumeration<String> propertyNames() {
-        return new Vector<String>(properties.keySet()).elements();
+        return new Vector<String>(stringPropertyNames()).elements();
     }
 
     /**
      * See {@link Properties#stringPropertyNames()}.
+     * <p/>
+     * The keys of this instance come first, in the order of the properties, followed by the keys of the default
+     * properties that are not present in this instance, in the order of their own names. The returned set is a copy
+     * of the keys. Use {@link #keys()} to get a live view of the keys of this instance.
      */
     public Set<String> stringPropertyNames() {
-        return new LinkedHashSet<String>(properties.keySet());
+        Set<String> names = new LinkedHashSet<String>(properties.keySet());
+        if (defaults != null) {
+            names.addAll(inheritedProperties().keySet());
+        }
+        return names;
     }
 
     /**
      * See {@link Properties#entrySet()}.
+     * <p/>
+     * The returned set is a copy of the entries. Use {@link #entries()} to get a live view of the entries.
      */
     public Set<Map.Entry<String, String>> entrySet() {
         return new LinkedHashSet<Map.Entry<String, String>>(properties.entrySet());
     }
 
     /**
-     * See {@link Properties#load(InputStream)}.
+     * Returns a read-only view of the keys of the properties, in the order of the properties. The view is backed by
+     * this instance, so changes to the properties are reflected in the view. No copy of the keys is made.
+     *
+     * @return the read-only view of the keys
      */
-    public void load(InputStream stream) throws IOException {
-        CustomProperties customProperties = new CustomProperties(this.properties);
-        customProperties.load(stream);
+    public Set<String> keys() {
+        return unmodifiableProperties().keySet();
     }
 
     /**
-     * See {@link Properties#load(Reader)}.
+     * Returns a read-only view of the entries of the properties, in the order of the properties. The view is backed
+     * by this instance, so changes to the properties are reflected in the view. No copy of the entries is made.
+     *
+     * @return the read-only view of the entries
      */
-    public void load(Reader reader) throws IOException {
-        CustomProperties customProperties = new CustomProperties(this.properties);
-        customProperties.load(reader);
+    public Set<Map.Entry<String, String>> entries() {
+        return unmodifiableProperties().entrySet();
     }
 
     /**
-     * See {@link Properties#loadFromXML(InputStream)}.
+     * Returns a new instance that contains the properties whose keys start with the given prefix, in the order of
+     * the properties. The keys are kept as they are, including the prefix. The new instance has the same behavior
+     * as this instance, and its default properties are the subset of the default properties of this instance with
+     * the same prefix. The new instance is modifiable even if this instance is frozen. The new instance is a copy,
+     * so later changes to this instance are not reflected in it.
+     * <p/>
+     * The matching properties are found through an index of the keys sorted by their natural ordering, which is
+     * created on first use and maintained as properties are set and removed. Hence, the properties that do not match
+     * are not visited: finding the matching properties takes time logarithmic in the size of the properties, plus
+     * the time to sort the matching keys into the order of the properties, plus one lookup of the value of each
+     * matching key. The keys of concurrent properties are not indexed, such that modifying them does not
+     * contend on an index, and are scanned instead. The keys of compact and off-heap properties are not indexed
+     * either, such that they are not held as strings on the heap, and are scanned in place instead, in time linear in
+     * the size of the properties.
+     *
+     * @param prefix the prefix of the keys, e.g. <tt>db.pool.</tt>
+     * @return the properties whose keys start with the given prefix
      */
-    @SuppressWarnings("DuplicateThrows")
-    public void loadFromXML(InputStream stream) throws IOException, InvalidPropertiesFormatException {
-        CustomProperties customProperties = new CustomProperties(this.properties);
-        customProperties.loadFromXML(stream);
+    public OrderedProperties subset(final String prefix) {
+        Objects.requireNonNull(prefix, "prefix must not be null");
+        OrderedPropertiesBuilder builder = builderWithSameBehavior();
+        builder.withDefaults((defaults != null) ? defaults.subset(prefix) : null);
+        OrderedProperties result = builder.build();
+        result.update(target -> forEachWithPrefix(prefix, target::setProperty));
+        return result;
     }
 
-    /**
-     * See {@link Properties#store(OutputStream, String)}.
-     */
-    public void store(OutputStream stream, String comments) throws IOException {
-        CustomProperties customProperties = new CustomProperties(this.properties);
-        if (suppressDate) {
-            customProperties.store(new DateSuppressingPropertiesBufferedWriter(new OutputStreamWriter(stream, "8859_1")), comments);
+    private void forEachWithPrefix(String prefix, BiConsumer<String, String> action) {
+        if (properties instanceof FrozenPropertiesMap) {
+            ((FrozenPropertiesMap) properties).forEachWithPrefix(prefix, action);
+        } else if (properties instanceof CopyOnWritePropertiesMap) {
+            ((CopyOnWritePropertiesMap) properties).snapshot().forEachWithPrefix(prefix, action);
+        } else if (properties instanceof CompactPropertiesMap) {
+            ((CompactPropertiesMap) properties).forEachWithPrefix(prefix, action);
+        } else if (properties instanceof OffHeapPropertiesMap) {
+            ((OffHeapPropertiesMap) properties).forEachWithPrefix(prefix, action);
+        } else if (isConcurrent()) {
+            properties.forEach((key, value) -> {
+                if (key.startsWith(prefix)) {
+                    action.accept(key, value);
+                }
+            });
         } else {
-            customProperties.store(stream, comments);
+            PrefixIndex prefixIndex = this.prefixIndex;
+            if (prefixIndex == null) {
+                prefixIndex = new PrefixIndex(properties);
+                this.prefixIndex = prefixIndex;
+            }
+            for (String key : prefixIndex.keysWithPrefix(prefix, comparator())) {
+                action.accept(key, properties.get(key));
+            }
         }
     }
 
     /**
-     * See {@link Properties#store(Writer, String)}.
+     * Performs the given action for each property, in the order of the properties, without copying the properties.
+     *
+     * @param action the action to perform for each key and value
      */
-    public void store(Writer writer, String comments) throws IOException {
-        CustomProperties customProperties = new CustomProperties(this.properties);
-        if (suppressDate) {
-            customProperties.store(new DateSuppressingPropertiesBufferedWriter(writer), comments);
-        } else {
-            customProperties.store(writer, comments);
+    public void forEach(BiConsumer<? super String, ? super String> action) {
+        properties.forEach(action);
+    }
+
+    private Map<String, String> unmodifiableProperties() {
+        if (unmodifiableProperties == null) {
+            unmodifiableProperties = Collections.unmodifiableMap(properties);
         }
+        return unmodifiableProperties;
     }
 
     /**
-     * See {@link Properties#storeToXML(OutputStream, String)}.
+     * See {@link Properties#load(InputStream)}.
      */
-    public void storeToXML(OutputStream stream, String comment) throws IOException {
-        CustomProperties customProperties = new CustomProperties(this.properties);
-        customProperties.storeToXML(stream, comment);
+    public void load(InputStream stream) throws IOException {
+        final PropertiesParser parser = new PropertiesParser(stream);
+        modify(target -> parser.parse(pooled(target)));
     }
 
     /**
-     * See {@link Properties#storeToXML(OutputStream, String, String)}.
+     * See {@link Properties#load(Reader)}.
      */
-    public void storeToXML(OutputStream stream, String comment, String encoding) throws IOException {
-        CustomProperties customProperties = new CustomProperties(this.properties);
-        customProperties.storeToXML(stream, comment, encoding);
+    public void load(Reader reader) throws IOException {
+        final PropertiesParser parser = new PropertiesParser(reader);
+        modify(target -> parser.parse(pooled(target)));
     }
 
     /**
-     * See {@link Properties#list(PrintStream)}.
+     * Reads the properties from the specified file, in the same format as {@link Properties#load(InputStream)}.
+     * <p/>
+     * The file is memory-mapped and its bytes are parsed as ISO 8859-1 characters without copying the content
+     * through a stream or a charset decoder. The mapped memory is released once the mapping is garbage-collected.
+     * <p/>
+     * If a pool for parallel loading has been configured, large files are split into chunks that are parsed in
+     * parallel. The resulting properties and their order are the same as when parsing the file sequentially.
+     *
+     * @param path the properties file to read from
+     * @throws IOException              if an error occurred when reading from the file
+     * @throws IllegalArgumentException if the file contains a malformed Unicode escape sequence
      */
-    public void list(PrintStream stream) {
-        CustomProperties customProperties = new CustomProperties(this.properties);
-        customProperties.list(stream);
+    public void load(Path path) throws IOException {
+        final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            modify(target -> {
+                if (loadPool != null) {
+                    ParallelPropertiesLoader loader = new ParallelPropertiesLoader(loadPool);
+                    loader.load(channel, pooled(target));
+                } else {
+                    PropertiesParser parser = new PropertiesParser(channel);
+                    parser.parse(pooled(target));
+                }
+            });
+        } finally {
+            channel.close();
+        }
     }
 
     /**
-     * See {@link Properties#list(PrintWriter)}.
+     * See {@link Properties#loadFromXML(InputStream)}.
      */
-    public void list(PrintWriter writer) {
-        CustomProperties customProperties = new CustomProperties(this.properties);
-        customProperties.list(writer);
+    @SuppressWarnings("DuplicateThrows")
+    public void loadFromXML(InputStream stream) throws IOException, InvalidPropertiesFormatException {
+        final PropertiesXmlParser parser = new PropertiesXmlParser(stream);
+        modify(target -> parser.parse(pooled(target)));
     }
 
     /**
-     * Convert this instance to a {@link Properties} instance.
+     * Reloads the properties from the given file, applying only the differences between the current properties and
+     * the properties in the file. Properties that are not present in the file anymore are removed, properties whose
+     * value has changed are set to their new value, and properties that are new are added. Unless the properties are
+     * sorted by a comparator, the properties are in the order of the file afterwards, the same as if the file had been
+     * loaded into empty properties, such that storing them reproduces the order of the file. Properties that have
+     * only moved within the file are moved accordingly, but are not reported as changes. The same file format and
+     * parsing as by {@link #load(Path)} apply.
+     * <p/>
+     * A 64-bit hash of the content of the file is kept. If the content has not changed since the last reload, and
+     * the properties have not been modified since, the file is not parsed and no changes are returned. If
+     * copy-on-write has been enabled, all changes are published as a single new version.
      *
-     * @return the {@link Properties} instance
+     * @param path the properties file to reload from
+     * @return the changes that have been applied
+     * @throws IOException                   if reading the file fails
+     * @throws IllegalArgumentException      if the file contains a malformed Unicode escape sequence
+     * @throws UnsupportedOperationException if this instance is frozen
      */
-    public Properties toJdkProperties() {
-        Properties jdkProperties = new Properties();
-        for (Map.Entry<String, String> entry : this.entrySet()) {
-            jdkProperties.put(entry.getKey(), entry.getValue());
+    public PropertiesChangeSet reload(Path path) throws IOException {
+        checkNotFrozen();
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long hash = ContentHash.of(channel);
+            if (hasContentHash && hash == contentHash) {
+                return PropertiesChangeSet.empty();
+            }
+
+            Map<String, String> reloaded = newProperties(comparator(), false, false, false, false, false, properties.size());
+            if (loadPool != null) {
+                ParallelPropertiesLoader loader = new ParallelPropertiesLoader(loadPool);
+                loader.load(channel, pooled(reloaded));
+            } else {
+                PropertiesParser parser = new PropertiesParser(channel);
+                parser.parse(pooled(reloaded));
+            }
+            return reloaded(reloaded, hash);
+        } finally {
+            channel.close();
         }
-        return jdkProperties;
     }
 
-    @Override
-    public boolean equals(Object other) {
-        if (this == other) {
-            return true;
+    /**
+     * Reloads the properties from the given reader, applying only the differences between the current properties
+     * and the properties read, the same as {@link #reload(Path)}. The content is read entirely before it is hashed
+     * and, if it has changed since the last reload, parsed. The same format as by {@link #load(Reader)} applies.
+     *
+     * @param reader the reader to reload from
+     * @return the changes that have been applied
+     * @throws IOException                   if reading from the reader fails
+     * @throws IllegalArgumentException      if the content contains a malformed Unicode escape sequence
+     * @throws UnsupportedOperationException if this instance is frozen
+     */
+    public PropertiesChangeSet reload(Reader reader) throws IOException {
+        checkNotFrozen();
+        char[] content = new char[8192];
+        int length = 0;
+        int read;
+        while ((read = reader.read(content, length, content.length - length)) >= 0) {
+            length += read;
+            if (length == content.length) {
+                content = Arrays.copyOf(content, 2 * length);
+            }
         }
 
-        if (other == null || getClass() != other.getClass()) {
-            return false;
+        long hash = ContentHash.of(content, length);
+        if (hasContentHash && hash == contentHash) {
+            return PropertiesChangeSet.empty();
         }
 
-        OrderedProperties that = (OrderedProperties) other;
-        return Arrays.equals(properties.entrySet().toArray(), that.properties.entrySet().toArray());
+        Map<String, String> reloaded = newProperties(comparator(), false, false, false, false, false, properties.size());
+        PropertiesParser parser = new PropertiesParser(new CharArrayReader(content, 0, length));
+        parser.parse(pooled(reloaded));
+        return reloaded(reloaded, hash);
     }
 
-    @Override
-    public int hashCode() {
-        return Arrays.hashCode(properties.entrySet().toArray());
-    }
+    private PropertiesChangeSet reloaded(final Map<String, String> reloaded, long hash) {
+        final PropertiesChangeSet changes = PropertiesChangeSet.between(properties, reloaded);
+        final boolean reorder = comparator() == null && !keepsOrderOf(reloaded);
+        if (!changes.isEmpty() || reorder) {
+            update(target -> {
+                changes.applyTo(target);
+                if (reorder) {
+                    target.reorder(reloaded);
+                }
+            });
+        }
 
-    private void writeObject(ObjectOutputStream stream) throws IOException {
-        stream.defaultWriteObject();
-        stream.writeObject(properties);
-        stream.writeBoolean(suppressDate);
+        // set after applying the changes, since modifying the properties discards the hash
+        contentHash = hash;
+        hasContentHash = true;
+        return changes;
     }
 
-    @SuppressWarnings("unchecked")
-    private void readObject(ObjectInputStream stream) throws IOException, ClassNotFoundException {
-        stream.defaultReadObject();
-        properties = (Map<String, String>) stream.readObject();
-        suppressDate = stream.readBoolean();
+    /**
+     * Returns <tt>true</tt> if applying the differences to the given reloaded properties leaves this instance in their
+     * order, i.e. if the properties present in both are in the same order in both and new properties only follow them.
+     */
+    private boolean keepsOrderOf(Map<String, String> reloaded) {
+        Iterator<String> keys = properties.keySet().iterator();
+        boolean added = false;
+        for (String key : reloaded.keySet()) {
+            if (!properties.containsKey(key)) {
+                added = true;
+            } else if (added) {
+                return false;
+            } else {
+                // the properties that are removed by the reload are skipped
+                String current = keys.next();
+                while (!reloaded.containsKey(current)) {
+                    current = keys.next();
+                }
+                if (!current.equals(key)) {
+                    return false;
+                }
+            }
+        }
+        return true;
     }
 
-    private void readObjectNoData() throws InvalidObjectException {
-        throw new InvalidObjectException("Stream data required");
+    /**
+     * Moves the properties into the order of the given properties, which have the same keys as this instance. Only
+     * the properties that follow the longest common prefix of both orders are moved.
+     */
+    private void reorder(Map<String, String> order) {
+        Iterator<String> keys = properties.keySet().iterator();
+        Iterator<Map.Entry<String, String>> entries = order.entrySet().iterator();
+        List<Map.Entry<String, String>> moved = new ArrayList<Map.Entry<String, String>>();
+        boolean inOrder = true;
+        while (entries.hasNext()) {
+            Map.Entry<String, String> entry = entries.next();
+            inOrder = inOrder && keys.hasNext() && keys.next().equals(entry.getKey());
+            if (!inOrder) {
+                moved.add(entry);
+            }
+        }
+        for (Map.Entry<String, String> entry : moved) {
+            removeProperty(entry.getKey());
+            setProperty(entry.getKey(), entry.getValue());
+        }
     }
 
     /**
-     * See {@link Properties#toString()}.
+     * Returns a view of the given map that replaces the keys and values put into it with equal strings from the string
+     * pool, if a string pool has been configured.
      */
-    @Override
-    public String toString() {
-        return properties.toString();
+    private Map<String, String> pooled(Map<String, String> target) {
+        return (stringPool != null) ? stringPool.pooling(target) : target;
+    }
+
+    private void checkNotFrozen() {
+        if (isFrozen()) {
+            throw new UnsupportedOperationException("frozen properties cannot be modified");
+        }
     }
 
     /**
-     * Creates a new instance that will have both the same property entries and
-     * the same behavior as the given source.
+     * Applies several modifications as a batch. The given action is invoked with an instance that it can modify
+     * through the usual methods.
      * <p/>
-     * Note that the source instance and the copy instance will share the same
-     * comparator instance if a custom ordering had been configured on the source.
+     * If copy-on-write has been enabled, the action receives a modifiable copy of the current properties, and the
+     * modified copy is published as the new version of the properties once the action has completed, such that
+     * readers either see none or all of the modifications and the properties are copied only once. If the action
+     * fails, no new version is published. The instance passed to the action must not be used once the action has
+     * completed.
+     * <p/>
+     * Otherwise, the action receives this instance and the modifications are applied directly.
+     * <p/>
+     * The registered change listeners are notified of all modifications at once, after the action has completed.
      *
-     * @param source the source to copy from
-     * @return the copy
+     * @param action the action that modifies the properties
      */
-    public static OrderedProperties copyOf(OrderedProperties source) {
-        // create a copy that has the same behaviour
-        OrderedPropertiesBuilder builder = new OrderedPropertiesBuilder();
-        builder.withSuppressDateInComment(source.suppressDate);
-        if (source.properties instanceof TreeMap) {
-            builder.withOrdering(((TreeMap<String, String>) source.properties).comparator());
-        }
-        OrderedProperties result = builder.build();
-
-        // copy the properties from the source to the target
-        for (Map.Entry<String, String> entry : source.entrySet()) {
-            result.setProperty(entry.getKey(), entry.getValue());
+    public void update(final Consumer<? super OrderedProperties> action) {
+        final PropertiesChangeListeners changeListeners = this.changeListeners;
+        PropertiesChangeListeners.Batch batch = (changeListeners != null) ? changeListeners.beginBatch() : null;
+        boolean completed = false;
+        try {
+            if (properties instanceof CopyOnWritePropertiesMap) {
+                apply(target -> {
+                    // the copy records its modifications in the batch of this instance, and is discarded afterwards
+                    // such that it is not registered as a dependent of the default properties
+                    OrderedProperties copy = new OrderedProperties(target, suppressDate, loadPool, defaults,
+                            interpolateSystemProperties, interpolateEnvironment, stringPool);
+                    copy.changeListeners = changeListeners;
+                    action.accept(copy);
+                });
+            } else {
+                action.accept(this);
+            }
+            completed = true;
+        } finally {
+            endBatch(batch, completed);
         }
-        return result;
     }
 
     /**
-     * Builder for {@link OrderedProperties} instances.
+     * Applies the given modification to the backing map as a batch of changes.
      */
-    public static final class OrderedPropertiesBuilder {
-
-        private Comparator<? super String> comparator;
-        private boolean suppressDate;
-
-        /**
-         * Use a custom ordering of the keys.
-         *
-         * @param comparator the ordering to apply on the keys
-         * @return the builder
-         */
-        public OrderedPropertiesBuilder withOrdering(Comparator<? super String> comparator) {
-            this.comparator = comparator;
-            return this;
+    private <E extends Exception> void modify(final CopyOnWritePropertiesMap.Update<E> modification) throws E {
+        PropertiesChangeListeners changeListeners = this.changeListeners;
+        final PropertiesChangeListeners.Batch batch = (changeListeners != null) ? changeListeners.beginBatch() : null;
+        boolean completed = false;
+        try {
+            if (batch != null) {
+                apply(target -> modification.apply(batch.recording(target)));
+            } else {
+                apply(modification);
+            }
+            completed = true;
+        } finally {
+            endBatch(batch, completed);
         }
+    }
 
-        /**
-         * Suppress the comment that contains the current date when storing the properties.
-         *
-         * @param suppressDate whether to suppress the comment that contains the current date
-         * @return the builder
-         */
-        public OrderedPropertiesBuilder withSuppressDateInComment(boolean suppressDate) {
-            this.suppressDate = suppressDate;
-            return this;
+    /**
+     * Applies the given modification to the backing map, publishing the modified properties once if copy-on-write
+     * has been enabled, and releasing the space reserved for growth after bulk modifications of compact storage.
+     */
+    private <E extends Exception> void apply(CopyOnWritePropertiesMap.Update<E> modification) throws E {
+        try {
+            if (properties instanceof CopyOnWritePropertiesMap) {
+                ((CopyOnWritePropertiesMap) properties).update(modification);
+            } else if (properties instanceof CompactPropertiesMap) {
+                ((CompactPropertiesMap) properties).update(modification);
+            } else {
+                modification.apply(properties);
+            }
+        } finally {
+            modified();
         }
+    }
 
-        /**
-         * Builds a new {@link OrderedProperties} instance.
-         *
-         * @return the new instance
-         */
-        public OrderedProperties build() {
-            Map<String, String> properties = (this.comparator != null) ?
-                    new TreeMap<String, String>(comparator) :
-                    new LinkedHashMap<String, String>();
-            return new OrderedProperties(properties, suppressDate);
+    private void endBatch(PropertiesChangeListeners.Batch batch, boolean completed) {
+        if (batch != null) {
+            // failed modifications of copy-on-write properties are not published, all others have been applied
+            changeListeners.endBatch(batch, completed || !(properties instanceof CopyOnWritePropertiesMap));
         }
-
     }
 
     /**
-     * Custom {@link Properties} that delegates reading, writing, and enumerating properties to the
-     * backing {@link OrderedProperties} instance's properties.
+     * Registers a listener that is notified synchronously of all changes of the properties, on the thread that
+     * modifies the properties and after the modification has been applied. See
+     * {@link #addChangeListener(PropertiesChangeListener, Executor)}.
+     *
+     * @param listener the listener to register
      */
-    private static final class CustomProperties extends Properties {
-
-        private final Map<String, String> targetProperties;
+    public void addChangeListener(PropertiesChangeListener listener) {
+        addChangeListener(listener, null);
+    }
 
-        private CustomProperties(Map<String, String> targetProperties) {
-            this.targetProperties = targetProperties;
+    /**
+     * Registers a listener that is notified of all changes of the properties through the given executor. If no
+     * executor is given, the listener is notified synchronously on the thread that modifies the properties.
+     * <p/>
+     * Setting or removing a single property notifies the listener of a single change. Loading or reloading properties
+     * and applying modifications through {@link #update(Consumer)} notifies the listener once of all changes, after
+     * they have been applied. Properties that are set to their current value are not reported. Changes of the default
+     * properties are not reported.
+     * <p/>
+     * As long as no listener is registered, modifying the properties does not keep track of any changes.
+     *
+     * @param listener the listener to register
+     * @param executor the executor to notify the listener through, or <tt>null</tt> to notify it synchronously
+     */
+    public void addChangeListener(PropertiesChangeListener listener, Executor executor) {
+        if (listener == null) {
+            throw new NullPointerException("listener must not be null");
         }
-
-        @Override
-        public Object get(Object key) {
-            return targetProperties.get(key);
+        synchronized (this) {
+            if (changeListeners == null) {
+                changeListeners = new PropertiesChangeListeners();
+            }
         }
+        changeListeners.add(listener, executor);
+    }
 
-        @Override
-        public Object put(Object key, Object value) {
-            return targetProperties.put((String) key, (String) value);
+    /**
+     * Unregisters the given listener. If the listener has been registered several times, only one registration is
+     * removed.
+     *
+     * @param listener the listener to unregister
+     */
+    public void removeChangeListener(PropertiesChangeListener listener) {
+        PropertiesChangeListeners changeListeners = this.changeListeners;
+        if (changeListeners != null) {
+            changeListeners.remove(listener);
+        }
+    }
+
+    /**
+     * See {@link Properties#store(OutputStream, String)}. Characters outside of printable ASCII are written as Unicode
+     * escapes, the same as by the {@link Properties} class, also when the date comment is suppressed.
+     */
+    public void store(OutputStream stream, String comments) throws IOException {
+        PropertiesWriter writer = new PropertiesWriter(stream);
+        writer.write(this.properties, comments, suppressDate);
+    }
+
+    /**
+     * See {@link Properties#store(Writer, String)}.
+     */
+    public void store(Writer writer, String comments) throws IOException {
+        PropertiesWriter propertiesWriter = new PropertiesWriter(writer);
+        propertiesWriter.write(this.properties, comments, suppressDate);
+    }
+
+    /**
+     * See {@link Properties#storeToXML(OutputStream, String)}.
+     */
+    public void storeToXML(OutputStream stream, String comment) throws IOException {
+        storeToXML(stream, comment, "UTF-8");
+    }
+
+    /**
+     * See {@link Properties#storeToXML(OutputStream, String, String)}.
+     */
+    public void storeToXML(OutputStream stream, String comment, String encoding) throws IOException {
+        PropertiesXmlWriter writer = new PropertiesXmlWriter(stream, encoding);
+        writer.write(this.properties, comment);
+    }
+
+    /**
+     * Writes the properties in the compact binary format, along with their behavior and their default properties,
+     * such that they can be read through {@link #readBinary(InputStream)}. The binary format is considerably more
+     * compact and faster to read and write than Java serialization. Strings that occur multiple times are written
+     * only once.
+     * <p/>
+     * The properties can only be written if they are ordered by insertion, by the natural ordering of the keys, or by
+     * {@link String#CASE_INSENSITIVE_ORDER}, which also applies to the default properties. Other comparators are only
+     * supported by Java serialization.
+     *
+     * @param stream the stream to write to
+     * @throws IOException if writing to the stream fails, if the properties are ordered by another comparator, or if
+     *                     the properties contain a <tt>null</tt> key
+     */
+    public void writeBinary(OutputStream stream) throws IOException {
+        stream.write(toBinary(true, false));
+    }
+
+    /**
+     * Reads properties that have been written through {@link #writeBinary(OutputStream)}. The returned instance has
+     * the same property entries, the same behavior, and the same default properties as the written instance. No
+     * data beyond the written instance is read from the stream.
+     *
+     * @param stream the stream to read from
+     * @return the properties read from the stream
+     * @throws IOException if reading from the stream fails, or if the stream does not contain properties in the
+     *                     binary format
+     */
+    public static OrderedProperties readBinary(InputStream stream) throws IOException {
+        try {
+            OrderedProperties result = new OrderedProperties();
+            result.fromBinary(new PropertiesBinaryFormat.Reader(PropertiesBinaryFormat.readEncoded(stream), 0), null);
+            return result;
+        } catch (ClassNotFoundException e) {
+            // cannot happen, no objects are read without an object stream
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * See {@link Properties#list(PrintStream)}.
+     */
+    public void list(PrintStream stream) {
+        new JdkPropertiesView(this, false).list(stream);
+    }
+
+    /**
+     * See {@link Properties#list(PrintWriter)}.
+     */
+    public void list(PrintWriter writer) {
+        new JdkPropertiesView(this, false).list(writer);
+    }
+
+    /**
+     * Returns an immutable copy of this instance that has both the same property entries and the same behavior.
+     * <p/>
+     * The copy keeps its entries in two parallel arrays of keys and values, in the order of this instance, and
+     * looks up keys through an open-addressing index, or through a binary search if a custom ordering has been
+     * configured. This takes considerably less memory than the map that backs a modifiable instance. Since the copy
+     * cannot change, it can be read by multiple threads concurrently without synchronization once it has been
+     * published to them. Any attempt to modify
+     * the copy, including loading properties into it, throws an {@link UnsupportedOperationException}.
+     * <p/>
+     * If this instance is frozen already, this instance is returned. If copy-on-write has been enabled, the version
+     * of the properties that is currently published is returned without copying any properties.
+     *
+     * @return the frozen copy
+     */
+    public OrderedProperties freeze() {
+        if (isFrozen()) {
+            return this;
+        }
+        FrozenPropertiesMap frozenProperties = (properties instanceof CopyOnWritePropertiesMap) ?
+                ((CopyOnWritePropertiesMap) properties).snapshot() :
+                new FrozenPropertiesMap(properties, comparator());
+        return new OrderedProperties(frozenProperties, this);
+    }
+
+    /**
+     * Returns the current version of the properties as an immutable instance, the same as {@link #freeze()}.
+     * <p/>
+     * If copy-on-write has been enabled, the version that is currently published is returned without copying
+     * any properties. The returned instance does not change when the properties are modified afterwards.
+     *
+     * @return the current version of the properties
+     */
+    public OrderedProperties snapshot() {
+        return freeze();
+    }
+
+    /**
+     * Returns <tt>true</tt> if this instance has been created through {@link #freeze()} and thus cannot be modified.
+     *
+     * @return whether this instance is frozen
+     */
+    public boolean isFrozen() {
+        return properties instanceof FrozenPropertiesMap;
+    }
+
+    private boolean isConcurrent() {
+        return properties instanceof ConcurrentInsertionOrderedMap || properties instanceof ConcurrentSkipListMap;
+    }
+
+    private boolean isCopyOnWrite() {
+        return properties instanceof CopyOnWritePropertiesMap;
+    }
+
+    /**
+     * Returns <tt>true</tt> if the properties are kept in compact storage, as configured through
+     * {@link OrderedPropertiesBuilder#withCompactStorage(boolean)}.
+     *
+     * @return whether the properties are kept in compact storage
+     */
+    public boolean isCompact() {
+        return properties instanceof CompactPropertiesMap;
+    }
+
+    /**
+     * Returns <tt>true</tt> if the properties are kept off-heap, as configured through
+     * {@link OrderedPropertiesBuilder#withOffHeapStorage(boolean)}.
+     *
+     * @return whether the properties are kept off-heap
+     */
+    public boolean isOffHeap() {
+        return properties instanceof OffHeapPropertiesMap;
+    }
+
+    private boolean isCachingStrings() {
+        return properties instanceof CompactPropertiesMap && ((CompactPropertiesMap) properties).isCachingStrings();
+    }
+
+    private Comparator<? super String> comparator() {
+        if (properties instanceof TreeMap) {
+            return ((TreeMap<String, String>) properties).comparator();
+        } else if (properties instanceof ConcurrentSkipListMap) {
+            return ((ConcurrentSkipListMap<String, String>) properties).comparator();
+        } else if (properties instanceof FrozenPropertiesMap) {
+            return ((FrozenPropertiesMap) properties).comparator();
+        } else if (properties instanceof CopyOnWritePropertiesMap) {
+            return ((CopyOnWritePropertiesMap) properties).comparator();
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Convert this instance to a {@link Properties} instance. The default properties are converted into the
+     * default properties of the {@link Properties} instance. Properties without a value are omitted, since the
+     * {@link Properties} class does not support them.
+     *
+     * @return the {@link Properties} instance
+     */
+    public Properties toJdkProperties() {
+        Properties jdkProperties = (defaults != null) ? new Properties(defaults.toJdkProperties()) : new Properties();
+        for (Map.Entry<String, String> entry : properties.entrySet()) {
+            // properties without a value fall through to the default properties, which is what an absent key does
+            if (entry.getValue() != null) {
+                jdkProperties.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return jdkProperties;
+    }
+
+    /**
+     * Returns a read-only {@link Properties} view of this instance, see {@link #asJdkProperties(boolean)}.
+     *
+     * @return the read-only view
+     */
+    public Properties asJdkProperties() {
+        return asJdkProperties(false);
+    }
+
+    /**
+     * Returns a {@link Properties} instance that is backed by this instance, in order to pass the properties to APIs
+     * that require a {@link Properties} instance without copying them. Changes of this instance are reflected in the
+     * view. The properties are enumerated in the order of this instance, and {@link Properties#getProperty(String)}
+     * falls through to the default properties of this instance.
+     * <p/>
+     * If the view is write-through, setting, removing, and loading properties through the view modifies this
+     * instance, such that change listeners are notified and modifications of several properties, like
+     * {@link Properties#putAll(Map)}, are applied as a batch. Otherwise, modifying the view throws an
+     * {@link UnsupportedOperationException}. The key, value, and entry views of the view are read-only in any case.
+     * <p/>
+     * Contrary to the original implementation, the view is not synchronized. It is as thread-safe as this instance.
+     * Serializing or cloning the view creates a copy, the same as {@link #toJdkProperties()}.
+     *
+     * @param writeThrough whether modifications of the view are applied to this instance
+     * @return the view
+     */
+    public Properties asJdkProperties(boolean writeThrough) {
+        return new JdkPropertiesView(this, writeThrough);
+    }
+
+    /**
+     * Creates a new instance that contains the properties of the given {@link Properties} instance whose keys and
+     * values are strings. The new instance is sized up front to hold all properties. The default properties of the
+     * given instance are not copied, since they are not accessible. The properties are added in the iteration order
+     * of the given instance, which is undefined unless the given instance is a view returned by
+     * {@link #asJdkProperties(boolean)}, in which case the backing instance is copied through {@link #copyOf(OrderedProperties)}.
+     *
+     * @param source the properties to copy
+     * @return the new instance
+     */
+    public static OrderedProperties fromJdkProperties(final Properties source) {
+        if (source instanceof JdkPropertiesView) {
+            return copyOf(((JdkPropertiesView) source).target);
+        }
+
+        final OrderedProperties result = new OrderedPropertiesBuilder().withExpectedSize(source.size()).build();
+        // iterate the source with a single acquisition of its monitor
+        result.modify(target -> source.forEach((key, value) -> {
+            if (key instanceof String && value instanceof String) {
+                target.put((String) key, (String) value);
+            }
+        }));
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+
+        if (other == null || getClass() != other.getClass()) {
+            return false;
+        }
+
+        OrderedProperties that = (OrderedProperties) other;
+        if (properties.size() != that.properties.size()) {
+            return false;
+        }
+        if (hashCode != 0 && that.hashCode != 0 && hashCode != that.hashCode) {
+            return false;
+        }
+
+        // walk both maps in lockstep, the order of the properties is part of the equality
+        Iterator<Map.Entry<String, String>> entries = properties.entrySet().iterator();
+        Iterator<Map.Entry<String, String>> otherEntries = that.properties.entrySet().iterator();
+        while (entries.hasNext() && otherEntries.hasNext()) {
+            Map.Entry<String, String> entry = entries.next();
+            Map.Entry<String, String> otherEntry = otherEntries.next();
+            if (!Objects.equals(entry.getKey(), otherEntry.getKey()) || !Objects.equals(entry.getValue(), otherEntry.getValue())) {
+                return false;
+            }
+        }
+        return !entries.hasNext() && !otherEntries.hasNext();
+    }
+
+    /**
+     * Returns the hash code of the properties, taking their order into account. The hash code is computed the same
+     * way as {@link java.util.Arrays#hashCode(Object[])} computes it for the array of entries. It is cached until the
+     * properties are modified the next time, unless concurrency or copy-on-write has been
+     * enabled.
+     */
+    @Override
+    public int hashCode() {
+        // same scheme as String, a single racy read of the cached value is enough for frozen instances shared by threads
+        int result = hashCode;
+        if (result == 0 && !hashCodeIsZero) {
+            result = 1;
+            for (Map.Entry<String, String> entry : properties.entrySet()) {
+                result = 31 * result + (Objects.hashCode(entry.getKey()) ^ Objects.hashCode(entry.getValue()));
+            }
+
+            // a concurrent modification could invalidate the cache before the computed value is stored
+            if (isConcurrent() || isCopyOnWrite()) {
+                return result;
+            }
+
+            if (result == 0) {
+                hashCodeIsZero = true;
+            } else {
+                hashCode = result;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Invoked after each modification of the properties, in order to invalidate any state that is derived from
+     * the properties.
+     */
+    private void modified() {
+        hashCode = 0;
+        hashCodeIsZero = false;
+        hasContentHash = false;
+        prefixIndex = null;
+        PropertiesInterpolator interpolator = this.interpolator;
+        if (interpolator != null) {
+            interpolator.invalidateAll();
+        }
+        invalidateDependents();
+    }
+
+    /**
+     * Invoked after a modification of the property with the given key, in order to invalidate any state that is
+     * derived from the properties. State that is derived from individual properties is only invalidated as far as
+     * it depends on the modified property.
+     */
+    private void modified(String key) {
+        hashCode = 0;
+        hashCodeIsZero = false;
+        hasContentHash = false;
+        PrefixIndex prefixIndex = this.prefixIndex;
+        if (prefixIndex != null) {
+            String storedKey = storedKey(key);
+            if (properties.containsKey(storedKey)) {
+                prefixIndex.added(storedKey);
+            } else {
+                prefixIndex.removed(storedKey);
+            }
+        }
+        PropertiesInterpolator interpolator = this.interpolator;
+        if (interpolator != null && key != null) {
+            interpolator.invalidate(key);
+        }
+        invalidateDependents();
+    }
+
+    /**
+     * Returns the key under which the given key is held by the backing map. The keys differ if a custom ordering
+     * considers differently spelled keys equal, since the map keeps the spelling of the key that has been set first.
+     */
+    private String storedKey(String key) {
+        if (key != null && properties instanceof TreeMap) {
+            TreeMap<String, String> sortedProperties = (TreeMap<String, String>) properties;
+            Comparator<? super String> comparator = sortedProperties.comparator();
+            if (comparator != null) {
+                String storedKey = sortedProperties.ceilingKey(key);
+                return (storedKey != null && comparator.compare(storedKey, key) == 0) ? storedKey : key;
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Returns the properties of the chain of defaults, flattened into a single map in the order of
+     * {@link #stringPropertyNames()} of the defaults.
+     */
+    private Map<String, String> inheritedProperties() {
+        return defaults.flattenedProperties();
+    }
+
+    /**
+     * Returns the properties of this instance that have a value, followed by the inherited properties that are not
+     * present in this instance. The map is built once and shared by all instances that use this instance as their
+     * default properties, and rebuilt lazily whenever this instance or a layer of its chain of defaults has been
+     * modified since it was built.
+     */
+    private Map<String, String> flattenedProperties() {
+        FlattenedProperties flattened = this.flattened;
+        int version = flattenedVersion;
+        if (flattened == null || flattened.version != version) {
+            // the version is read before flattening, such that a concurrent modification invalidates the result
+            flattened = new FlattenedProperties(flatten(), version);
+            this.flattened = flattened;
+        }
+        return flattened.properties;
+    }
+
+    private Map<String, String> flatten() {
+        Map<String, String> inherited = (defaults != null) ? inheritedProperties() : Collections.<String, String>emptyMap();
+        Map<String, String> flattened = new LinkedHashMap<String, String>(Math.max(2 * (properties.size() + inherited.size()), 16));
+        for (Map.Entry<String, String> entry : properties.entrySet()) {
+            if (entry.getValue() != null) {
+                flattened.put(entry.getKey(), entry.getValue());
+            }
+        }
+        for (Map.Entry<String, String> entry : inherited.entrySet()) {
+            if (!flattened.containsKey(entry.getKey())) {
+                flattened.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return flattened;
+    }
+
+    private void addDependent(OrderedProperties dependent) {
+        ReferenceQueue<OrderedProperties> collectedDependents;
+        synchronized (this) {
+            if (dependents == null) {
+                this.collectedDependents = new ReferenceQueue<OrderedProperties>();
+                dependents = ConcurrentHashMap.newKeySet();
+            }
+            collectedDependents = this.collectedDependents;
+        }
+
+        // drop the dependents that have been garbage-collected meanwhile, references are compared by identity
+        Reference<? extends OrderedProperties> reference;
+        while ((reference = collectedDependents.poll()) != null) {
+            dependents.remove(reference);
+        }
+        dependents.add(new WeakReference<OrderedProperties>(dependent, collectedDependents));
+    }
+
+    private void invalidateDependents() {
+        Set<WeakReference<OrderedProperties>> dependents = this.dependents;
+        if (dependents != null) {
+            // only instances that are used as default properties have their properties flattened
+            FLATTENED_VERSION.incrementAndGet(this);
+            for (WeakReference<OrderedProperties> reference : dependents) {
+                OrderedProperties dependent = reference.get();
+                if (dependent != null) {
+                    dependent.defaultsModified();
+                }
+            }
+        }
+    }
+
+    private void defaultsModified() {
+        PropertiesInterpolator interpolator = this.interpolator;
+        if (interpolator != null) {
+            interpolator.invalidateAll();
+        }
+        invalidateDependents();
+    }
+
+    private byte[] toBinary(boolean includeDefaults, boolean serialization) throws IOException {
+        // take a snapshot of thread-safe properties, such that the number of entries matches the written entries
+        Map<String, String> source = isConcurrent() ? new FrozenPropertiesMap(properties, comparator()) :
+                isCopyOnWrite() ? ((CopyOnWritePropertiesMap) properties).snapshot() : properties;
+        final PropertiesBinaryFormat.Writer writer = new PropertiesBinaryFormat.Writer(source.size());
+
+        int flags = 0;
+        flags |= suppressDate ? PropertiesBinaryFormat.SUPPRESS_DATE : 0;
+        flags |= isConcurrent() ? PropertiesBinaryFormat.CONCURRENT : 0;
+        flags |= isCopyOnWrite() ? PropertiesBinaryFormat.COPY_ON_WRITE : 0;
+        flags |= isFrozen() ? PropertiesBinaryFormat.FROZEN : 0;
+        flags |= isCompact() ? PropertiesBinaryFormat.COMPACT_STORAGE : 0;
+        flags |= isCachingStrings() ? PropertiesBinaryFormat.COMPACT_STORAGE_CACHE : 0;
+        flags |= isOffHeap() ? PropertiesBinaryFormat.OFF_HEAP_STORAGE : 0;
+        flags |= interpolateSystemProperties ? PropertiesBinaryFormat.SYSTEM_PROPERTIES_INTERPOLATION : 0;
+        flags |= interpolateEnvironment ? PropertiesBinaryFormat.ENVIRONMENT_INTERPOLATION : 0;
+        flags |= (includeDefaults && defaults != null) ? PropertiesBinaryFormat.DEFAULTS : 0;
+        flags |= (comparator() != null) ? PropertiesBinaryFormat.COMPARATOR : 0;
+        writer.writeVarint(flags);
+
+        Comparator<? super String> comparator = comparator();
+        if (comparator == Comparator.<String>naturalOrder()) {
+            writer.writeVarint(PropertiesBinaryFormat.NATURAL_ORDER);
+        } else if (comparator == String.CASE_INSENSITIVE_ORDER) {
+            writer.writeVarint(PropertiesBinaryFormat.CASE_INSENSITIVE_ORDER);
+        } else if (comparator != null && serialization) {
+            writer.writeVarint(PropertiesBinaryFormat.SERIALIZED_ORDER);
+        } else if (comparator != null) {
+            throw new NotSerializableException("Comparator not supported by the binary format: " + comparator.getClass().getName());
+        }
+
+        if (containsNullKey(source)) {
+            throw new NotSerializableException("Null keys are not supported by the binary format");
+        }
+        writer.writeVarint(source.size());
+        source.forEach((key, value) -> {
+            writer.writeKey(key);
+            writer.writeValue(value);
+        });
+
+        if ((flags & PropertiesBinaryFormat.DEFAULTS) != 0) {
+            writer.writeEncoded(defaults.toBinary(true, serialization));
+        }
+        return writer.toByteArray();
+    }
+
+    private static boolean containsNullKey(Map<String, String> map) {
+        try {
+            return map.containsKey(null);
+        } catch (NullPointerException e) {
+            // maps that do not permit null keys cannot contain one
+            return false;
+        }
+    }
+
+    /**
+     * Initializes this instance from the binary format. Comparators that are not well-known are read from the given
+     * object stream, if any.
+     */
+    @SuppressWarnings("unchecked")
+    private void fromBinary(final PropertiesBinaryFormat.Reader reader, ObjectInputStream stream) throws IOException, ClassNotFoundException {
+        int flags = reader.readVarint();
+        Comparator<? super String> comparator = null;
+        if ((flags & PropertiesBinaryFormat.COMPARATOR) != 0) {
+            int comparatorId = reader.readVarint();
+            if (comparatorId == PropertiesBinaryFormat.NATURAL_ORDER) {
+                comparator = Comparator.<String>naturalOrder();
+            } else if (comparatorId == PropertiesBinaryFormat.CASE_INSENSITIVE_ORDER) {
+                comparator = String.CASE_INSENSITIVE_ORDER;
+            } else if (comparatorId == PropertiesBinaryFormat.SERIALIZED_ORDER && stream != null) {
+                comparator = (Comparator<? super String>) stream.readObject();
+            } else {
+                throw new StreamCorruptedException("Unknown comparator: " + comparatorId);
+            }
+        }
+
+        final int count = reader.readEntryCount();
+        boolean frozen = (flags & PropertiesBinaryFormat.FROZEN) != 0;
+        Map<String, String> properties = newProperties(comparator,
+                !frozen && (flags & PropertiesBinaryFormat.CONCURRENT) != 0,
+                !frozen && (flags & PropertiesBinaryFormat.COPY_ON_WRITE) != 0,
+                !frozen && (flags & PropertiesBinaryFormat.COMPACT_STORAGE) != 0,
+                (flags & PropertiesBinaryFormat.COMPACT_STORAGE_CACHE) != 0,
+                !frozen && (flags & PropertiesBinaryFormat.OFF_HEAP_STORAGE) != 0,
+                count);
+        if (properties instanceof CopyOnWritePropertiesMap) {
+            ((CopyOnWritePropertiesMap) properties).update(target -> reader.readEntries(count, target));
+        } else if (properties instanceof CompactPropertiesMap) {
+            ((CompactPropertiesMap) properties).update(target -> reader.readEntries(count, target));
+        } else {
+            reader.readEntries(count, properties);
+        }
+
+        this.properties = frozen ? new FrozenPropertiesMap(properties, comparator) : properties;
+        this.suppressDate = (flags & PropertiesBinaryFormat.SUPPRESS_DATE) != 0;
+        this.interpolateSystemProperties = (flags & PropertiesBinaryFormat.SYSTEM_PROPERTIES_INTERPOLATION) != 0;
+        this.interpolateEnvironment = (flags & PropertiesBinaryFormat.ENVIRONMENT_INTERPOLATION) != 0;
+        if ((flags & PropertiesBinaryFormat.DEFAULTS) != 0) {
+            OrderedProperties defaults = new OrderedProperties();
+            defaults.fromBinary(reader.nested(), stream);
+            this.defaults = defaults;
+            defaults.addDependent(this);
+        }
+        reader.checkEnd();
+    }
+
+    private void writeObject(ObjectOutputStream stream) throws IOException {
+        stream.defaultWriteObject();
+        stream.writeObject(toBinary(false, true));
+        Comparator<? super String> comparator = comparator();
+        if (comparator != null && comparator != Comparator.<String>naturalOrder() && comparator != String.CASE_INSENSITIVE_ORDER) {
+            stream.writeObject(comparator);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream stream) throws IOException, ClassNotFoundException {
+        stream.defaultReadObject();
+        Object data = stream.readObject();
+        if (data instanceof byte[]) {
+            fromBinary(new PropertiesBinaryFormat.Reader((byte[]) data, 0), stream);
+        } else {
+            // instances serialized before the binary format was introduced hold the backing map itself
+            properties = (Map<String, String>) data;
+            suppressDate = stream.readBoolean();
+        }
+        if (defaults != null) {
+            defaults.addDependent(this);
+        }
+    }
+
+    private void readObjectNoData() throws InvalidObjectException {
+        throw new InvalidObjectException("Stream data required");
+    }
+
+    /**
+     * See {@link Properties#toString()}.
+     */
+    @Override
+    public String toString() {
+        return properties.toString();
+    }
+
+    /**
+     * Creates a new instance that will have both the same property entries and
+     * the same behavior as the given source.
+     * <p/>
+     * Note that the source instance and the copy instance will share the same
+     * comparator instance if a custom ordering had been configured on the source,
+     * and the same pool if parallel loading had been configured on the source,
+     * as well as the same default properties.
+     * The copy is modifiable, even if the source is frozen, and thread-safe if
+     * concurrency or copy-on-write had been enabled on the source.
+     *
+     * @param source the source to copy from
+     * @return the copy
+     */
+    public static OrderedProperties copyOf(OrderedProperties source) {
+        // create a copy that has the same behaviour
+        OrderedPropertiesBuilder builder = source.builderWithSameBehavior();
+        builder.withDefaults(source.defaults);
+        builder.withExpectedSize(source.size());
+        OrderedProperties result = builder.build();
+
+        // copy the properties from the source to the target
+        result.putAll(source);
+        return result;
+    }
+
+    /**
+     * Creates the map that backs the properties, for the given ordering, thread-safety, and storage.
+     */
+    private static Map<String, String> newProperties(Comparator<? super String> comparator, boolean concurrent, boolean copyOnWrite,
+                                                     boolean compact, boolean cacheStrings, boolean offHeap, int expectedSize) {
+        if (copyOnWrite) {
+            return new CopyOnWritePropertiesMap(comparator);
+        } else if (concurrent) {
+            return (comparator != null) ?
+                    new ConcurrentSkipListMap<String, String>(comparator) :
+                    new ConcurrentInsertionOrderedMap(expectedSize);
+        } else if (offHeap && comparator == null) {
+            return new OffHeapPropertiesMap(expectedSize);
+        } else if (compact && comparator == null) {
+            return new CompactPropertiesMap(expectedSize, cacheStrings);
+        } else {
+            return (comparator != null) ?
+                    new TreeMap<String, String>(comparator) :
+                    new LinkedHashMap<String, String>(Math.max(2 * expectedSize, 16));
+        }
+    }
+
+    /**
+     * Returns a builder that is configured with the same behavior as this instance, except for the default properties.
+     */
+    private OrderedPropertiesBuilder builderWithSameBehavior() {
+        OrderedPropertiesBuilder builder = new OrderedPropertiesBuilder();
+        builder.withSuppressDateInComment(suppressDate);
+        builder.withParallelLoad(loadPool);
+        builder.withConcurrency(isConcurrent());
+        builder.withCopyOnWrite(isCopyOnWrite());
+        builder.withCompactStorage(isCompact(), isCachingStrings());
+        builder.withOffHeapStorage(isOffHeap());
+        builder.withOrdering(comparator());
+        builder.withSystemPropertiesInterpolation(interpolateSystemProperties);
+        builder.withEnvironmentInterpolation(interpolateEnvironment);
+        builder.withStringPool(stringPool);
+        return builder;
+    }
+
+    /**
+     * Flattened properties of an instance and its chain of defaults, along with the version they have been built from.
+     */
+    private static final class FlattenedProperties {
+
+        private final Map<String, String> properties;
+        private final int version;
+
+        private FlattenedProperties(Map<String, String> properties, int version) {
+            this.properties = properties;
+            this.version = version;
+        }
+
+    }
+
+    /**
+     * Builder for {@link OrderedProperties} instances.
+     */
+    public static final class OrderedPropertiesBuilder {
+
+        private Comparator<? super String> comparator;
+        private boolean suppressDate;
+        private ForkJoinPool loadPool;
+        private boolean concurrent;
+        private boolean copyOnWrite;
+        private OrderedProperties defaults;
+        private boolean interpolateSystemProperties;
+        private boolean interpolateEnvironment;
+        private int expectedSize;
+        private PropertiesStringPool stringPool;
+        private boolean compact;
+        private boolean cacheStrings;
+        private boolean offHeap;
+
+        /**
+         * Use a custom ordering of the keys.
+         *
+         * @param comparator the ordering to apply on the keys
+         * @return the builder
+         */
+        public OrderedPropertiesBuilder withOrdering(Comparator<? super String> comparator) {
+            this.comparator = comparator;
+            return this;
+        }
+
+        /**
+         * Suppress the comment that contains the current date when storing the properties.
+         *
+         * @param suppressDate whether to suppress the comment that contains the current date
+         * @return the builder
+         */
+        public OrderedPropertiesBuilder withSuppressDateInComment(boolean suppressDate) {
+            this.suppressDate = suppressDate;
+            return this;
+        }
+
+        /**
+         * Parse large properties files in parallel on the given pool when loading them through
+         * {@link OrderedProperties#load(Path)}. The resulting properties and their order are the same as when
+         * parsing the files sequentially. Pass <tt>null</tt> to parse sequentially, which is the default.
+         *
+         * @param pool the pool to parse on
+         * @return the builder
+         */
+        public OrderedPropertiesBuilder withParallelLoad(ForkJoinPool pool) {
+            this.loadPool = pool;
+            return this;
+        }
+
+        /**
+         * Make the properties safe for use by multiple threads without external synchronization. Getting
+         * properties and testing for their presence never blocks. Modifications are atomic per property. Iterating,
+         * storing, and comparing the properties honor the configured ordering and are weakly consistent: they never
+         * fail because of concurrent modifications and reflect the properties at some point at or since their start.
+         * <p/>
+         * Properties are kept in a {@link ConcurrentSkipListMap} when a custom ordering is configured, and in a
+         * concurrent map that serializes modifications when the properties are kept in insertion order. In both
+         * cases, neither keys nor values can be <tt>null</tt>, the same as with the {@link Properties} class.
+         *
+         * @param concurrent whether the properties can be accessed by multiple threads concurrently
+         * @return the builder
+         */
+        public OrderedPropertiesBuilder withConcurrency(boolean concurrent) {
+            this.concurrent = concurrent;
+            return this;
+        }
+
+        /**
+         * Publish each version of the properties as an immutable snapshot, for properties that are read often by
+         * multiple threads and modified rarely. Reading the properties never blocks, and each iteration, store, and
+         * comparison sees a single, consistent version of the properties. Each modification copies the properties
+         * and publishes the copy, serialized with other modifications. Loading properties publishes a single new
+         * version, as does applying several modifications through {@link OrderedProperties#update(Consumer)}. If
+         * loading fails, no new version is published.
+         * The current version can be retrieved without copying through {@link OrderedProperties#snapshot()}.
+         * <p/>
+         * Copy-on-write takes precedence over {@link #withConcurrency(boolean)}.
+         *
+         * @param copyOnWrite whether to publish each version of the properties as an immutable snapshot
+         * @return the builder
+         */
+        public OrderedPropertiesBuilder withCopyOnWrite(boolean copyOnWrite) {
+            this.copyOnWrite = copyOnWrite;
+            return this;
+        }
+
+        /**
+         * Use the given properties as default properties. Properties that are not found in the built instance are
+         * looked up in the default properties, and in their defaults in turn, the same as with the {@link Properties}
+         * class. All properties of the chain of defaults are flattened into a single index that is rebuilt lazily
+         * once any of the default properties have been modified, such that looking up a property takes constant time
+         * regardless of the length of the chain. Keys are matched exactly when looking up default properties.
+         *
+         * @param defaults the default properties, or <tt>null</tt> for no default properties
+         * @return the builder
+         */
+        public OrderedPropertiesBuilder withDefaults(OrderedProperties defaults) {
+            this.defaults = defaults;
+            return this;
+        }
+
+        /**
+         * Size the backing map to hold the given number of properties without resizing it. This avoids repeatedly
+         * growing the map while loading or copying a known, large number of properties. Maps that are ordered by a
+         * comparator and copy-on-write maps, which are copied on each modification anyway, are not sized up front.
+         *
+         * @param expectedSize the number of properties expected to be set
+         * @return the builder
+         */
+        public OrderedPropertiesBuilder withExpectedSize(int expectedSize) {
+            if (expectedSize < 0) {
+                throw new IllegalArgumentException("expectedSize must not be negative: " + expectedSize);
+            }
+            this.expectedSize = expectedSize;
+            return this;
+        }
+
+        /**
+         * Resolve placeholders that reference keys which are not present in the properties against the system
+         * properties when calling {@link OrderedProperties#getInterpolatedProperty(String)}.
+         *
+         * @param interpolateSystemProperties whether to resolve placeholders against the system properties
+         * @return the builder
+         */
+        public OrderedPropertiesBuilder withSystemPropertiesInterpolation(boolean interpolateSystemProperties) {
+            this.interpolateSystemProperties = interpolateSystemProperties;
+            return this;
+        }
+
+        /**
+         * Resolve placeholders that reference keys which are neither present in the properties nor, if enabled, in
+         * the system properties against the environment variables when calling
+         * {@link OrderedProperties#getInterpolatedProperty(String)}.
+         *
+         * @param interpolateEnvironment whether to resolve placeholders against the environment variables
+         * @return the builder
+         */
+        public OrderedPropertiesBuilder withEnvironmentInterpolation(boolean interpolateEnvironment) {
+            this.interpolateEnvironment = interpolateEnvironment;
+            return this;
+        }
+
+        /**
+         * Replace the keys and values of properties that are loaded or reloaded with equal strings from the given
+         * pool, such that equal keys and values of all instances that share the pool are held only once. Properties
+         * that are set individually are not pooled.
+         *
+         * @param stringPool the pool of strings, or <tt>null</tt> to not pool any strings
+         * @return the builder
+         */
+        public OrderedPropertiesBuilder withStringPool(PropertiesStringPool stringPool) {
+            this.stringPool = stringPool;
+            return this;
+        }
+
+        /**
+         * Keep the keys and values of the properties as bytes in a single shared arena instead of as individual
+         * strings, for large properties that are mostly loaded once and then read. Keys and values that only consist
+         * of ISO 8859-1 characters take one byte per character, and no objects are held per property, which takes
+         * less than half the memory of the map that backs regular properties. Strings are created each time a key or
+         * value is returned, which makes reading the properties slower. Replacing and removing properties leaves
+         * unused space in the arena, which is reclaimed once more than half of it is unused.
+         * <p/>
+         * Compact storage only applies to properties kept in insertion order that are neither concurrent nor
+         * copy-on-write, all of which take precedence. Neither keys nor values can be <tt>null</tt>, the same as with
+         * the {@link Properties} class. Freezing compact properties creates all strings, since frozen properties hold
+         * their strings directly.
+         *
+         * @param compact whether to keep the properties in compact storage
+         * @return the builder
+         */
+        public OrderedPropertiesBuilder withCompactStorage(boolean compact) {
+            return withCompactStorage(compact, false);
+        }
+
+        /**
+         * Keep the keys and values of the properties in compact storage, the same as
+         * {@link #withCompactStorage(boolean)}, and optionally cache the strings that are created for the keys and
+         * values. Cached strings are created at most once, at the expense of retaining all keys and values that have
+         * been returned in addition to their bytes, such that caching pays off only if few properties are read often.
+         *
+         * @param compact      whether to keep the properties in compact storage
+         * @param cacheStrings whether to cache the strings that are created for the keys and values
+         * @return the builder
+         */
+        public OrderedPropertiesBuilder withCompactStorage(boolean compact, boolean cacheStrings) {
+            this.compact = compact;
+            this.cacheStrings = cacheStrings;
+            return this;
+        }
+
+        /**
+         * Keep the keys and values of the properties outside of the Java heap, for huge properties like translation
+         * catalogs of several gigabytes that would otherwise prolong the pauses of the garbage collector. The keys and
+         * values are stored in the same encoding as in compact storage, and both the entries and the index used to
+         * look up keys are kept in direct byte buffers, such that the garbage collector only sees a few buffer
+         * objects regardless of the number of properties. Strings are created each time a key or value is returned.
+         * Iterating and storing the properties behave exactly as for properties kept on the heap.
+         * <p/>
+         * The off-heap memory is limited by the <tt>-XX:MaxDirectMemorySize</tt> option of the JVM, and released once
+         * the instance has been garbage-collected. Off-heap storage only applies to properties kept in insertion order
+         * that are neither concurrent nor copy-on-write, all of which take precedence, and itself takes precedence over
+         * {@link #withCompactStorage(boolean)}. Neither keys nor values can be <tt>null</tt>. Freezing off-heap
+         * properties copies them onto the heap, since frozen properties hold their strings directly.
+         *
+         * @param offHeap whether to keep the properties off-heap
+         * @return the builder
+         */
+        public OrderedPropertiesBuilder withOffHeapStorage(boolean offHeap) {
+            this.offHeap = offHeap;
+            return this;
+        }
+
+        /**
+         * Builds a new {@link OrderedProperties} instance.
+         *
+         * @return the new instance
+         */
+        public OrderedProperties build() {
+            Map<String, String> properties = newProperties(comparator, concurrent, copyOnWrite, compact, cacheStrings, offHeap, expectedSize);
+            OrderedProperties result = new OrderedProperties(properties, suppressDate, loadPool, defaults, interpolateSystemProperties, interpolateEnvironment, stringPool);
+            if (defaults != null) {
+                defaults.addDependent(result);
+            }
+            return result;
+        }
+
+    }
+
+    /**
+     * {@link Properties} that are backed by an {@link OrderedProperties} instance, without copying any properties.
+     * <p/>
+     * All lookups go to the map that backs the instance, and {@link #getProperty(String)} and the property names also
+     * consider the default properties of the instance. If the view is write-through, modifications are applied to the
+     * instance through its usual methods, and modifications of several properties are applied as a single batch.
+     * Otherwise, all modifications throw an {@link UnsupportedOperationException}. The collection views are always
+     * read-only. None of the methods are synchronized, the thread-safety is the one of the backing instance.
+     * <p/>
+     * Serializing or cloning the view produces a copy that is not backed by the instance anymore.
+     */
+    private static final class JdkPropertiesView extends Properties {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient OrderedProperties target;
+        private final transient boolean writeThrough;
+
+        private JdkPropertiesView(OrderedProperties target, boolean writeThrough) {
+            this.target = target;
+            this.writeThrough = writeThrough;
+        }
+
+        private Map<String, String> map() {
+            return target.properties;
+        }
+
+        private void checkWriteThrough() {
+            if (!writeThrough) {
+                throw new UnsupportedOperationException("properties view is read-only");
+            }
         }
 
         @Override
         public String getProperty(String key) {
-            return targetProperties.get(key);
+            return target.getProperty(key);
+        }
+
+        @Override
+        public String getProperty(String key, String defaultValue) {
+            return target.getProperty(key, defaultValue);
+        }
+
+        @Override
+        public Object setProperty(String key, String value) {
+            checkWriteThrough();
+            return target.setProperty(Objects.requireNonNull(key), Objects.requireNonNull(value));
+        }
+
+        @Override
+        public Enumeration<?> propertyNames() {
+            return target.propertyNames();
+        }
+
+        @Override
+        public Set<String> stringPropertyNames() {
+            return target.stringPropertyNames();
+        }
+
+        @Override
+        public void load(Reader reader) throws IOException {
+            checkWriteThrough();
+            target.load(reader);
+        }
+
+        @Override
+        public void load(InputStream stream) throws IOException {
+            checkWriteThrough();
+            target.load(stream);
+        }
+
+        @SuppressWarnings("DuplicateThrows")
+        @Override
+        public void loadFromXML(InputStream stream) throws IOException, InvalidPropertiesFormatException {
+            checkWriteThrough();
+            target.loadFromXML(stream);
+        }
+
+        @Override
+        public void list(PrintStream stream) {
+            stream.println("-- listing properties --");
+            for (String key : stringPropertyNames()) {
+                stream.println(key + "=" + abbreviate(getProperty(key)));
+            }
+        }
+
+        @Override
+        public void list(PrintWriter writer) {
+            writer.println("-- listing properties --");
+            for (String key : stringPropertyNames()) {
+                writer.println(key + "=" + abbreviate(getProperty(key)));
+            }
+        }
+
+        private static String abbreviate(String value) {
+            // same as the original implementation
+            return (value.length() > 40) ? value.substring(0, 37) + "..." : value;
+        }
+
+        @Override
+        public int size() {
+            return map().size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return map().isEmpty();
         }
 
         @Override
         public Enumeration<Object> keys() {
-            return new Vector<Object>(targetProperties.keySet()).elements();
+            return Collections.enumeration(Collections.<Object>unmodifiableSet(map().keySet()));
         }
 
-        @SuppressWarnings("NullableProblems")
         @Override
-        public Set<Object> keySet() {
-            return new LinkedHashSet<Object>(targetProperties.keySet());
+        public Enumeration<Object> elements() {
+            return Collections.enumeration(Collections.<Object>unmodifiableCollection(map().values()));
         }
 
-    }
+        @Override
+        public boolean contains(Object value) {
+            return containsValue(value);
+        }
 
-    /**
-     * Custom {@link BufferedWriter} for storing properties that will write all leading lines of comments except
-     * the last comment line. Using the JDK Properties class to store properties, the last comment
-     * line always contains the current date which is what we want to filter out.
-     */
-    private static final class DateSuppressingPropertiesBufferedWriter extends BufferedWriter {
+        @Override
+        public boolean containsValue(Object value) {
+            return map().containsValue(Objects.requireNonNull(value));
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return (Objects.requireNonNull(key) instanceof String) && map().containsKey(key);
+        }
+
+        @Override
+        public Object get(Object key) {
+            return (Objects.requireNonNull(key) instanceof String) ? map().get(key) : null;
+        }
+
+        @Override
+        public Object getOrDefault(Object key, Object defaultValue) {
+            Object value = get(key);
+            return (value != null) ? value : defaultValue;
+        }
+
+        @Override
+        public Object put(Object key, Object value) {
+            checkWriteThrough();
+            return target.setProperty((String) Objects.requireNonNull(key), (String) Objects.requireNonNull(value));
+        }
+
+        @Override
+        public Object remove(Object key) {
+            checkWriteThrough();
+            return (Objects.requireNonNull(key) instanceof String) ? target.removeProperty((String) key) : null;
+        }
+
+        @Override
+        public void putAll(final Map<?, ?> map) {
+            checkWriteThrough();
+            target.update(properties -> {
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    properties.setProperty((String) Objects.requireNonNull(entry.getKey()), (String) Objects.requireNonNull(entry.getValue()));
+                }
+            });
+        }
+
+        @Override
+        public void clear() {
+            checkWriteThrough();
+            target.update(properties -> {
+                for (String key : new ArrayList<String>(properties.keys())) {
+                    properties.removeProperty(key);
+                }
+            });
+        }
+
+        @Override
+        public Object putIfAbsent(Object key, Object value) {
+            Object currentValue = get(key);
+            return (currentValue != null) ? currentValue : put(key, value);
+        }
 
-        private final String LINE_SEPARATOR = System.getProperty("line.separator");
+        @Override
+        public boolean remove(Object key, Object value) {
+            checkWriteThrough();
+            if (value != null && value.equals(get(key))) {
+                remove(key);
+                return true;
+            }
+            return false;
+        }
 
-        private StringBuilder currentComment;
-        private String previousComment;
+        @Override
+        public boolean replace(Object key, Object oldValue, Object newValue) {
+            checkWriteThrough();
+            Objects.requireNonNull(newValue);
+            if (oldValue != null && oldValue.equals(get(key))) {
+                put(key, newValue);
+                return true;
+            }
+            return false;
+        }
 
-        private DateSuppressingPropertiesBufferedWriter(Writer out) {
-            super(out);
+        @Override
+        public Object replace(Object key, Object value) {
+            checkWriteThrough();
+            Objects.requireNonNull(value);
+            return containsKey(key) ? put(key, value) : null;
         }
 
-        @SuppressWarnings("NullableProblems")
         @Override
-        public void write(String string) throws IOException {
-            if (currentComment != null) {
-                currentComment.append(string);
-                if (string.endsWith(LINE_SEPARATOR)) {
-                    if (previousComment != null) {
-                        super.write(previousComment);
-                    }
+        public void replaceAll(final BiFunction<? super Object, ? super Object, ?> function) {
+            checkWriteThrough();
+            target.update(properties -> {
+                for (Map.Entry<String, String> entry : new ArrayList<Map.Entry<String, String>>(properties.entrySet())) {
+                    properties.setProperty(entry.getKey(), (String) Objects.requireNonNull(function.apply(entry.getKey(), entry.getValue())));
+                }
+            });
+        }
 
-                    previousComment = currentComment.toString();
-                    currentComment = null;
+        @Override
+        public Object computeIfAbsent(Object key, Function<? super Object, ?> function) {
+            checkWriteThrough();
+            Object value = get(key);
+            if (value == null) {
+                value = function.apply(key);
+                if (value != null) {
+                    put(key, value);
                 }
-            } else if (string.startsWith("#")) {
-                currentComment = new StringBuilder(string);
+            }
+            return value;
+        }
+
+        @Override
+        public Object computeIfPresent(Object key, BiFunction<? super Object, ? super Object, ?> function) {
+            checkWriteThrough();
+            Object value = get(key);
+            return (value != null) ? computed(key, function.apply(key, value)) : null;
+        }
+
+        @Override
+        public Object compute(Object key, BiFunction<? super Object, ? super Object, ?> function) {
+            checkWriteThrough();
+            return computed(key, function.apply(key, get(key)));
+        }
+
+        @Override
+        public Object merge(Object key, Object value, BiFunction<? super Object, ? super Object, ?> function) {
+            checkWriteThrough();
+            Objects.requireNonNull(value);
+            Object currentValue = get(key);
+            return computed(key, (currentValue != null) ? function.apply(currentValue, value) : value);
+        }
+
+        private Object computed(Object key, Object value) {
+            if (value != null) {
+                put(key, value);
             } else {
-                super.write(string);
+                remove(key);
             }
+            return value;
+        }
+
+        @Override
+        public void forEach(BiConsumer<? super Object, ? super Object> action) {
+            map().forEach(action);
+        }
+
+        @Override
+        public Set<Object> keySet() {
+            return Collections.<Object>unmodifiableSet(map().keySet());
+        }
+
+        @Override
+        public Collection<Object> values() {
+            return Collections.<Object>unmodifiableCollection(map().values());
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public Set<Map.Entry<Object, Object>> entrySet() {
+            return (Set<Map.Entry<Object, Object>>) (Set<?>) target.unmodifiableProperties().entrySet();
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other == this || (other instanceof Map && entrySet().equals(((Map<?, ?>) other).entrySet()));
+        }
+
+        @Override
+        public int hashCode() {
+            return target.unmodifiableProperties().hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return map().toString();
+        }
+
+        @Override
+        protected void rehash() {
+            // the backing map is managed by the instance
+        }
+
+        @Override
+        public Object clone() {
+            return target.toJdkProperties();
+        }
+
+        private Object writeReplace() {
+            return target.toJdkProperties();
         }
 
     }
 
 }
-
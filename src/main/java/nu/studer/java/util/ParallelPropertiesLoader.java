@@ -0,0 +1,156 @@
+package nu.studer.java.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Loads a properties file by splitting its memory-mapped content into chunks and parsing the chunks in parallel
+ * on a {@link ForkJoinPool}.
+ * <p/>
+ * The content is only ever split right after a line terminator that definitely ends a logical line, i.e. a
+ * line terminator that is preceded by an even number of backslashes. Each chunk therefore starts at the beginning
+ * of a logical line and can be parsed independently. The parsed chunks are merged into the target map in the order
+ * of the chunks, which yields the same key order and the same last-write-wins semantics for duplicate keys as
+ * parsing the file sequentially.
+ */
+final class ParallelPropertiesLoader {
+
+    private static final int MIN_CHUNK_SIZE = 1024 * 1024;
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private final ForkJoinPool pool;
+
+    ParallelPropertiesLoader(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Parses all properties from the given file channel and puts them into the given map, in the order they appear
+     * in the file. Files that are too small to benefit from parallel parsing or too large to be mapped into a single
+     * buffer are parsed sequentially.
+     *
+     * @param channel the file channel to read from, starting at its beginning
+     * @param target  the map to put the parsed properties into
+     * @throws IOException              if reading from the file fails
+     * @throws IllegalArgumentException if the file contains a malformed <tt>&#92;uxxxx</tt> encoding
+     */
+    void load(FileChannel channel, Map<String, String> target) throws IOException {
+        long size = channel.size();
+        int chunkCount = (int) Math.min(pool.getParallelism() * CHUNKS_PER_THREAD, size / MIN_CHUNK_SIZE);
+        if (chunkCount < 2 || size > Integer.MAX_VALUE) {
+            new PropertiesParser(channel).parse(target);
+            return;
+        }
+
+        ByteBuffer content = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        List<ChunkParser> chunks = split(content, chunkCount);
+        pool.invoke(new ChunkParsers(chunks));
+
+        // merge in file order, stopping at the first chunk that failed just like a sequential parse would
+        for (ChunkParser chunk : chunks) {
+            target.putAll(chunk.result);
+            if (chunk.failure != null) {
+                throw chunk.failure;
+            }
+        }
+    }
+
+    private static List<ChunkParser> split(ByteBuffer content, int chunkCount) {
+        int size = content.limit();
+        List<ChunkParser> chunks = new ArrayList<ChunkParser>(chunkCount);
+        int start = 0;
+        for (int i = 1; i <= chunkCount && start < size; i++) {
+            int end = (i == chunkCount) ? size : nextChunkBoundary(content, Math.max(start, (int) ((long) size * i / chunkCount)));
+            if (end > start) {
+                ByteBuffer chunk = content.duplicate();
+                chunk.limit(end);
+                chunk.position(start);
+                chunks.add(new ChunkParser(chunk.slice()));
+                start = end;
+            }
+        }
+        return chunks;
+    }
+
+    /**
+     * Returns the position right after the first line terminator at or after the given position that ends a logical
+     * line, or the size of the content if there is no such line terminator.
+     */
+    static int nextChunkBoundary(ByteBuffer content, int from) {
+        int size = content.limit();
+        for (int i = from; i < size; i++) {
+            byte b = content.get(i);
+            if (b == '\n' || b == '\r') {
+                // a line feed that directly follows a carriage return belongs to the same line terminator
+                int lineEnd = (b == '\n' && i > 0 && content.get(i - 1) == '\r') ? i - 1 : i;
+                int backslashes = 0;
+                while (lineEnd - backslashes > 0 && content.get(lineEnd - backslashes - 1) == '\\') {
+                    backslashes++;
+                }
+                if ((backslashes & 1) == 0) {
+                    return (b == '\r' && i + 1 < size && content.get(i + 1) == '\n') ? i + 2 : i + 1;
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Parses all chunks in parallel.
+     */
+    private static final class ChunkParsers extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<ChunkParser> chunks;
+
+        private ChunkParsers(List<ChunkParser> chunks) {
+            this.chunks = chunks;
+        }
+
+        @Override
+        protected void compute() {
+            ForkJoinTask.invokeAll(chunks);
+        }
+
+    }
+
+    /**
+     * Parses a single chunk into its own map, remembering a parse failure instead of propagating it so that the
+     * entries parsed before the failure can still be merged.
+     */
+    private static final class ChunkParser extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final ByteBuffer chunk;
+        private final Map<String, String> result = new LinkedHashMap<String, String>();
+        private IllegalArgumentException failure;
+
+        private ChunkParser(ByteBuffer chunk) {
+            this.chunk = chunk;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                new PropertiesParser(chunk).parse(result);
+            } catch (IllegalArgumentException e) {
+                failure = e;
+            } catch (IOException e) {
+                // cannot happen when parsing from a buffer
+                throw new IllegalStateException(e);
+            }
+        }
+
+    }
+
+}
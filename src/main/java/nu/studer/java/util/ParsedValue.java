@@ -0,0 +1,134 @@
+package nu.studer.java.util;
+
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Result of converting the value of a property into a typed value, along with the string it has been converted from.
+ * <p/>
+ * Numbers and booleans are held in a primitive field, such that reading them does not unbox. A parsed value is only
+ * valid as long as the property still holds the string that it has been converted from. This is checked by identity
+ * first, which never requires comparing or parsing the string again for properties that hold their strings, and by
+ * content otherwise, since properties in compact or off-heap storage create a new string each time a value
+ * is read.
+ */
+final class ParsedValue {
+
+    static final int INT = 0;
+    static final int LONG = 1;
+    static final int BOOLEAN = 2;
+    static final int DURATION = 3;
+
+    private final String source;
+    private final int type;
+    private final long primitiveValue;
+    private final Object objectValue;
+
+    private ParsedValue(String source, int type, long primitiveValue, Object objectValue) {
+        this.source = source;
+        this.type = type;
+        this.primitiveValue = primitiveValue;
+        this.objectValue = objectValue;
+    }
+
+    /**
+     * Converts the given string into a value of the given type.
+     *
+     * @param source the string to convert
+     * @param type   the type to convert into, one of {@link #INT}, {@link #LONG}, {@link #BOOLEAN}, or {@link #DURATION}
+     * @return the converted value
+     * @throws IllegalArgumentException if the string cannot be converted into the given type
+     */
+    static ParsedValue parse(String source, int type) {
+        String text = source.trim();
+        switch (type) {
+            case INT:
+                return new ParsedValue(source, type, Integer.parseInt(text), null);
+            case LONG:
+                return new ParsedValue(source, type, Long.parseLong(text), null);
+            case BOOLEAN:
+                return new ParsedValue(source, type, parseBoolean(text) ? 1 : 0, null);
+            case DURATION:
+                return new ParsedValue(source, type, 0, parseDuration(text));
+            default:
+                throw new IllegalArgumentException("Unknown type: " + type);
+        }
+    }
+
+    private static boolean parseBoolean(String text) {
+        if ("true".equalsIgnoreCase(text)) {
+            return true;
+        } else if ("false".equalsIgnoreCase(text)) {
+            return false;
+        } else {
+            throw new IllegalArgumentException("Invalid boolean: " + text);
+        }
+    }
+
+    private static Duration parseDuration(String text) {
+        try {
+            return parseDurationOrFail(text);
+        } catch (DateTimeParseException | ArithmeticException e) {
+            throw new IllegalArgumentException("Invalid duration: " + text, e);
+        }
+    }
+
+    private static Duration parseDurationOrFail(String text) {
+        if (text.startsWith("P") || text.startsWith("p") || text.startsWith("-P") || text.startsWith("-p")) {
+            return Duration.parse(text);
+        }
+
+        int unitStart = (text.startsWith("-") || text.startsWith("+")) ? 1 : 0;
+        while (unitStart < text.length() && Character.isDigit(text.charAt(unitStart))) {
+            unitStart++;
+        }
+        long amount = Long.parseLong(text.substring(0, unitStart));
+        String unit = text.substring(unitStart).trim();
+        if ("ns".equals(unit)) {
+            return Duration.ofNanos(amount);
+        } else if ("us".equals(unit)) {
+            return Duration.ofNanos(Math.multiplyExact(amount, 1000L));
+        } else if ("ms".equals(unit)) {
+            return Duration.ofMillis(amount);
+        } else if ("s".equals(unit)) {
+            return Duration.ofSeconds(amount);
+        } else if ("m".equals(unit)) {
+            return Duration.ofMinutes(amount);
+        } else if ("h".equals(unit)) {
+            return Duration.ofHours(amount);
+        } else if ("d".equals(unit)) {
+            return Duration.ofDays(amount);
+        } else {
+            throw new IllegalArgumentException("Invalid duration: " + text);
+        }
+    }
+
+    /**
+     * Returns <tt>true</tt> if this value has been converted from the given string, or an equal string, into the
+     * given type.
+     *
+     * @param source the string the property currently holds
+     * @param type   the requested type
+     * @return whether this value can be used
+     */
+    boolean isValidFor(String source, int type) {
+        return this.type == type && (this.source == source || this.source.equals(source));
+    }
+
+    int intValue() {
+        return (int) primitiveValue;
+    }
+
+    long longValue() {
+        return primitiveValue;
+    }
+
+    boolean booleanValue() {
+        return primitiveValue != 0;
+    }
+
+    Duration durationValue() {
+        return (Duration) objectValue;
+    }
+
+}
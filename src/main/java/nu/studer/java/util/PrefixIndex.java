@@ -0,0 +1,89 @@
+package nu.studer.java.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Index of the keys of modifiable properties, sorted by their natural ordering, such that all keys that start with
+ * a given prefix are found in time logarithmic in the number of keys plus linear in the number of matching keys, and
+ * are returned in the order of the properties after sorting the matching keys.
+ * <p/>
+ * Each key is mapped to a sequence number that reflects the position of the key in the insertion order of the
+ * properties, such that the matching keys can be returned in insertion order without walking the properties. Once
+ * created, the index is maintained as single keys are added and removed.
+ * <p/>
+ * Instances are not thread-safe.
+ */
+final class PrefixIndex {
+
+    private final TreeMap<String, Long> keys = new TreeMap<String, Long>();
+    private long nextSequence;
+
+    /**
+     * Creates an index of the keys of the given properties, in their iteration order.
+     *
+     * @param properties the properties to index
+     */
+    PrefixIndex(Map<String, String> properties) {
+        for (String key : properties.keySet()) {
+            added(key);
+        }
+    }
+
+    /**
+     * Adds the given key at the end of the insertion order, unless the key is indexed already.
+     *
+     * @param key the key that has been added to the properties
+     */
+    void added(String key) {
+        // the null key can never start with a prefix
+        if (key != null && !keys.containsKey(key)) {
+            keys.put(key, nextSequence++);
+        }
+    }
+
+    /**
+     * Removes the given key from the index.
+     *
+     * @param key the key that has been removed from the properties
+     */
+    void removed(String key) {
+        if (key != null) {
+            keys.remove(key);
+        }
+    }
+
+    /**
+     * Returns the keys that start with the given prefix, in insertion order, or sorted by the given comparator.
+     *
+     * @param prefix     the prefix of the keys
+     * @param comparator the comparator by which the properties are ordered, or <tt>null</tt> for insertion ordering
+     * @return the matching keys
+     */
+    List<String> keysWithPrefix(String prefix, Comparator<? super String> comparator) {
+        List<Map.Entry<String, Long>> matches = new ArrayList<Map.Entry<String, Long>>();
+        for (Map.Entry<String, Long> entry : keys.tailMap(prefix, true).entrySet()) {
+            if (!entry.getKey().startsWith(prefix)) {
+                break;
+            }
+            matches.add(entry);
+        }
+
+        if (comparator == null) {
+            Collections.sort(matches, (first, second) -> Long.compare(first.getValue(), second.getValue()));
+        }
+        List<String> result = new ArrayList<String>(matches.size());
+        for (Map.Entry<String, Long> match : matches) {
+            result.add(match.getKey());
+        }
+        if (comparator != null) {
+            Collections.sort(result, comparator);
+        }
+        return result;
+    }
+
+}
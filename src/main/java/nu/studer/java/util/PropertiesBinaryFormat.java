@@ -0,0 +1,365 @@
+package nu.studer.java.util;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compact binary format of properties.
+ * <p/>
+ * An encoded instance starts with the magic bytes <tt>OPB</tt>, followed by a version byte and the length of the
+ * body as a four-byte big-endian integer, such that an instance can be read from a stream without reading beyond
+ * its end. The body holds unsigned integers as variable-length quantities of seven bits per byte, least significant
+ * group first: a set of flags, the id of the comparator if the flags mark a custom ordering, the number of entries,
+ * and the entries as pairs of strings. If the flags mark default properties, the encoded default properties follow
+ * the entries, including their own header. Only well-known comparators have an id. Other comparators can only be
+ * written through Java serialization, which writes them right after the encoded instance.
+ * <p/>
+ * Each string is written as a tag. Tag <tt>0</tt> is <tt>null</tt>, tag <tt>1</tt> is a string that has not been
+ * written before and is inlined, and any other tag <tt>n</tt> refers to the <tt>(n-2)</tt>th inlined string, such that
+ * repeated values are written only once. Keys are unique and thus never written as references, and they are never
+ * <tt>null</tt>. An inlined string is written as its length, shifted left by one bit and marked in the lowest bit if
+ * all characters fit into a single byte, followed by either one byte per character or one variable-length quantity
+ * per character.
+ */
+final class PropertiesBinaryFormat {
+
+    static final int SUPPRESS_DATE = 1;
+    static final int COMPARATOR = 1 << 1;
+    static final int CONCURRENT = 1 << 2;
+    static final int COPY_ON_WRITE = 1 << 3;
+    static final int FROZEN = 1 << 4;
+    static final int SYSTEM_PROPERTIES_INTERPOLATION = 1 << 5;
+    static final int ENVIRONMENT_INTERPOLATION = 1 << 6;
+    static final int DEFAULTS = 1 << 7;
+    static final int COMPACT_STORAGE = 1 << 8;
+    static final int COMPACT_STORAGE_CACHE = 1 << 9;
+    static final int OFF_HEAP_STORAGE = 1 << 10;
+
+    static final int NATURAL_ORDER = 0;
+    static final int CASE_INSENSITIVE_ORDER = 1;
+    static final int SERIALIZED_ORDER = 2;
+
+    private static final byte[] MAGIC = {'O', 'P', 'B'};
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = MAGIC.length + 1 + 4;
+
+    private PropertiesBinaryFormat() {
+    }
+
+    /**
+     * Reads the header and the body of an encoded instance from the given stream, without reading beyond the end of
+     * the instance.
+     *
+     * @param stream the stream to read from
+     * @return the header and the body of the encoded instance
+     * @throws IOException if the stream does not contain an encoded instance
+     */
+    static byte[] readEncoded(InputStream stream) throws IOException {
+        byte[] header = new byte[HEADER_LENGTH];
+        DataInputStream dataStream = new DataInputStream(stream);
+        dataStream.readFully(header);
+        int length = checkHeader(header, 0);
+
+        byte[] data = Arrays.copyOf(header, HEADER_LENGTH + length);
+        dataStream.readFully(data, HEADER_LENGTH, length);
+        return data;
+    }
+
+    private static int checkHeader(byte[] data, int offset) throws IOException {
+        if (data[offset] != MAGIC[0] || data[offset + 1] != MAGIC[1] || data[offset + 2] != MAGIC[2]) {
+            throw new StreamCorruptedException("Not a binary properties format");
+        }
+        if (data[offset + 3] != VERSION) {
+            throw new StreamCorruptedException("Unsupported binary properties format version: " + data[offset + 3]);
+        }
+        int length = ((data[offset + 4] & 0xFF) << 24) | ((data[offset + 5] & 0xFF) << 16) |
+                ((data[offset + 6] & 0xFF) << 8) | (data[offset + 7] & 0xFF);
+        if (length < 0) {
+            throw new StreamCorruptedException("Invalid length: " + length);
+        }
+        return length;
+    }
+
+    /**
+     * Encodes a single instance into a growing buffer.
+     */
+    static final class Writer {
+
+        private final Map<String, Integer> strings = new HashMap<String, Integer>();
+        private int stringCount;
+        private byte[] buffer;
+        private int size;
+
+        /**
+         * Creates a writer that starts an encoded instance, leaving room for the length of its body, which is filled
+         * in by {@link #toByteArray()}.
+         *
+         * @param expectedEntries the expected number of entries, in order to size the buffer
+         */
+        Writer(int expectedEntries) {
+            buffer = new byte[Math.max(64, HEADER_LENGTH + 16 * expectedEntries)];
+            System.arraycopy(MAGIC, 0, buffer, 0, MAGIC.length);
+            buffer[MAGIC.length] = VERSION;
+            size = HEADER_LENGTH;
+        }
+
+        void writeVarint(int value) {
+            ensureCapacity(5);
+            while ((value & ~0x7F) != 0) {
+                buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[size++] = (byte) value;
+        }
+
+        void writeVarlong(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[size++] = (byte) value;
+        }
+
+        /**
+         * Writes the given key, which must not be <tt>null</tt>. Keys are unique within an instance and are thus never
+         * looked up as repeated strings, but they still take a position in the table of inlined strings.
+         */
+        void writeKey(String key) {
+            stringCount++;
+            writeVarint(1);
+            writeChars(key);
+        }
+
+        /**
+         * Writes the given value, or a reference to the same value if it has been written before.
+         */
+        void writeValue(String value) {
+            if (value == null) {
+                writeVarint(0);
+                return;
+            }
+
+            Integer reference = strings.get(value);
+            if (reference != null) {
+                writeVarint(reference + 2);
+                return;
+            }
+            strings.put(value, stringCount++);
+            writeVarint(1);
+            writeChars(value);
+        }
+
+        private void writeChars(String value) {
+            int length = value.length();
+            boolean singleByte = true;
+            for (int i = 0; i < length && singleByte; i++) {
+                singleByte = value.charAt(i) < 0x100;
+            }
+            // the length is shifted as a long, since strings of 2^30 characters or more would overflow an int
+            writeVarlong(((long) length << 1) | (singleByte ? 1 : 0));
+            if (singleByte) {
+                ensureCapacity(length);
+                for (int i = 0; i < length; i++) {
+                    buffer[size++] = (byte) value.charAt(i);
+                }
+            } else {
+                for (int i = 0; i < length; i++) {
+                    writeVarint(value.charAt(i));
+                }
+            }
+        }
+
+        /**
+         * Appends an encoded instance, e.g. the encoded default properties.
+         */
+        void writeEncoded(byte[] encoded) {
+            ensureCapacity(encoded.length);
+            System.arraycopy(encoded, 0, buffer, size, encoded.length);
+            size += encoded.length;
+        }
+
+        /**
+         * Completes the encoded instance and returns it.
+         */
+        byte[] toByteArray() {
+            int length = size - HEADER_LENGTH;
+            buffer[MAGIC.length + 1] = (byte) (length >>> 24);
+            buffer[MAGIC.length + 2] = (byte) (length >>> 16);
+            buffer[MAGIC.length + 3] = (byte) (length >>> 8);
+            buffer[MAGIC.length + 4] = (byte) length;
+            return Arrays.copyOf(buffer, size);
+        }
+
+        private void ensureCapacity(int additional) {
+            if (size + additional > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(2 * buffer.length, size + additional));
+            }
+        }
+
+    }
+
+    /**
+     * Decodes a single instance from a buffer.
+     */
+    static final class Reader {
+
+        private final byte[] buffer;
+        private final int end;
+        private String[] strings = new String[16];
+        private int stringCount;
+        private int position;
+
+        /**
+         * Creates a reader of the encoded instance that starts at the given offset of the given buffer.
+         *
+         * @throws IOException if the buffer does not contain an encoded instance at the given offset
+         */
+        Reader(byte[] buffer, int offset) throws IOException {
+            if (buffer.length - offset < HEADER_LENGTH) {
+                throw new EOFException();
+            }
+            int length = checkHeader(buffer, offset);
+            if (buffer.length - offset - HEADER_LENGTH < length) {
+                throw new EOFException();
+            }
+            this.buffer = buffer;
+            this.position = offset + HEADER_LENGTH;
+            this.end = position + length;
+        }
+
+        /**
+         * Returns a reader of the encoded instance that is nested at the current position, and skips it.
+         */
+        Reader nested() throws IOException {
+            Reader nested = new Reader(buffer, position);
+            if (nested.end > end) {
+                throw new StreamCorruptedException("Nested instance exceeds its enclosing instance");
+            }
+            position = nested.end;
+            return nested;
+        }
+
+        int readVarint() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                if (position == end) {
+                    throw new EOFException();
+                }
+                byte b = buffer[position++];
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new StreamCorruptedException("Invalid variable-length quantity");
+        }
+
+        long readVarlong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (position == end) {
+                    throw new EOFException();
+                }
+                byte b = buffer[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new StreamCorruptedException("Invalid variable-length quantity");
+        }
+
+        String readString() throws IOException {
+            int tag = readVarint();
+            if (tag == 0) {
+                return null;
+            } else if (tag != 1) {
+                int reference = tag - 2;
+                if (reference < 0 || reference >= stringCount) {
+                    throw new StreamCorruptedException("Invalid string reference: " + reference);
+                }
+                return strings[reference];
+            }
+
+            long header = readVarlong();
+            if ((header >>> 1) > Integer.MAX_VALUE) {
+                throw new StreamCorruptedException("Invalid string length: " + (header >>> 1));
+            }
+            int length = (int) (header >>> 1);
+            String value;
+            if ((header & 1) != 0) {
+                if (end - position < length) {
+                    throw new EOFException();
+                }
+                value = new String(buffer, position, length, StandardCharsets.ISO_8859_1);
+                position += length;
+            } else {
+                if (end - position < length) {
+                    // each character takes at least one byte
+                    throw new EOFException();
+                }
+                char[] chars = new char[length];
+                for (int i = 0; i < length; i++) {
+                    chars[i] = (char) readVarint();
+                }
+                value = new String(chars);
+            }
+
+            if (stringCount == strings.length) {
+                strings = Arrays.copyOf(strings, 2 * stringCount);
+            }
+            strings[stringCount++] = value;
+            return value;
+        }
+
+        /**
+         * Reads the number of entries, which is validated against the remaining bytes since it is used to size the
+         * map the entries are read into.
+         *
+         * @throws IOException if the number is negative, or if more entries than fit into the remaining bytes follow
+         */
+        int readEntryCount() throws IOException {
+            int count = readVarint();
+            if (count < 0) {
+                throw new StreamCorruptedException("Invalid number of entries: " + (count & 0xFFFFFFFFL));
+            }
+            if (count > (end - position) / 2) {
+                // each entry takes at least one byte for its key and one byte for its value
+                throw new EOFException();
+            }
+            return count;
+        }
+
+        /**
+         * Reads the given number of entries into the given map.
+         *
+         * @throws IOException if an entry has a <tt>null</tt> key, or if the entries are truncated or corrupt
+         */
+        void readEntries(int count, Map<String, String> target) throws IOException {
+            for (int i = 0; i < count; i++) {
+                String key = readString();
+                if (key == null) {
+                    throw new StreamCorruptedException("Null key");
+                }
+                String value = readString();
+                target.put(key, value);
+            }
+        }
+
+        void checkEnd() throws IOException {
+            if (position != end) {
+                throw new StreamCorruptedException("Unexpected data after the entries");
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,19 @@
+package nu.studer.java.util;
+
+/**
+ * Listener that is notified of the changes of {@link OrderedProperties}.
+ *
+ * @see OrderedProperties#addChangeListener(PropertiesChangeListener)
+ */
+@FunctionalInterface
+public interface PropertiesChangeListener {
+
+    /**
+     * Invoked after properties have changed. All changes of a single modification, like setting a property, loading
+     * properties, reloading properties, or a batch of modifications, are passed at once.
+     *
+     * @param changes the changes, never empty
+     */
+    void propertiesChanged(PropertiesChangeSet changes);
+
+}
@@ -0,0 +1,252 @@
+package nu.studer.java.util;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Change listeners registered with an {@link OrderedProperties} instance, along with the batches of changes that are
+ * currently being recorded.
+ * <p/>
+ * Changes are reported right away, unless a batch has been started on the current thread, in which case the changes
+ * are recorded per key and reported at once when the outermost batch ends. Properties that are changed several times
+ * within a batch are reported once, with their value before the batch and their value after the batch, and properties
+ * that end up with their previous value are not reported at all.
+ */
+final class PropertiesChangeListeners {
+
+    private static final Registration[] NO_REGISTRATIONS = new Registration[0];
+
+    private final ThreadLocal<Batch> batches = new ThreadLocal<Batch>();
+    private volatile Registration[] registrations = NO_REGISTRATIONS;
+
+    synchronized void add(PropertiesChangeListener listener, Executor executor) {
+        Registration[] registrations = Arrays.copyOf(this.registrations, this.registrations.length + 1);
+        registrations[registrations.length - 1] = new Registration(listener, executor);
+        this.registrations = registrations;
+    }
+
+    synchronized void remove(PropertiesChangeListener listener) {
+        Registration[] registrations = this.registrations;
+        for (int i = 0; i < registrations.length; i++) {
+            if (registrations[i].listener.equals(listener)) {
+                Registration[] remaining = new Registration[registrations.length - 1];
+                System.arraycopy(registrations, 0, remaining, 0, i);
+                System.arraycopy(registrations, i + 1, remaining, i, remaining.length - i);
+                this.registrations = remaining;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reports the change of a single property, or records it if a batch has been started on the current thread.
+     *
+     * @param key      the key of the property
+     * @param oldValue the value before the change, or <tt>null</tt> if the property was not present
+     * @param newValue the value after the change, or <tt>null</tt> if the property is not present anymore
+     */
+    void changed(String key, String oldValue, String newValue) {
+        if (registrations.length == 0) {
+            return;
+        }
+
+        Batch batch = batches.get();
+        if (batch != null) {
+            batch.record(key, oldValue, newValue);
+        } else if (oldValue == null) {
+            if (newValue != null) {
+                notifyListeners(PropertiesChangeSet.of(new PropertyChange(PropertyChange.Type.ADDED, key, null, newValue)));
+            }
+        } else if (newValue == null) {
+            notifyListeners(PropertiesChangeSet.of(new PropertyChange(PropertyChange.Type.REMOVED, key, oldValue, null)));
+        } else if (!oldValue.equals(newValue)) {
+            notifyListeners(PropertiesChangeSet.of(new PropertyChange(PropertyChange.Type.CHANGED, key, oldValue, newValue)));
+        }
+    }
+
+    /**
+     * Starts a batch on the current thread, or joins the batch that has been started already.
+     *
+     * @return the batch, or <tt>null</tt> if no listeners are registered
+     */
+    Batch beginBatch() {
+        if (registrations.length == 0) {
+            return null;
+        }
+
+        Batch batch = batches.get();
+        if (batch == null) {
+            batch = new Batch();
+            batches.set(batch);
+        }
+        batch.depth++;
+        return batch;
+    }
+
+    /**
+     * Ends the given batch. If it is the outermost batch, the recorded changes are reported if requested.
+     *
+     * @param batch  the batch to end
+     * @param report whether to report the recorded changes, i.e. whether they have actually been applied
+     */
+    void endBatch(Batch batch, boolean report) {
+        if (--batch.depth > 0) {
+            return;
+        }
+
+        batches.remove();
+        if (report) {
+            PropertiesChangeSet changes = batch.changes();
+            if (!changes.isEmpty()) {
+                notifyListeners(changes);
+            }
+        }
+    }
+
+    private void notifyListeners(final PropertiesChangeSet changes) {
+        RuntimeException failure = null;
+        for (final Registration registration : registrations) {
+            try {
+                if (registration.executor != null) {
+                    registration.executor.execute(() -> registration.listener.propertiesChanged(changes));
+                } else {
+                    registration.listener.propertiesChanged(changes);
+                }
+            } catch (RuntimeException e) {
+                // notify the remaining listeners before passing on the failure
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static final class Registration {
+
+        private final PropertiesChangeListener listener;
+        private final Executor executor;
+
+        private Registration(PropertiesChangeListener listener, Executor executor) {
+            this.listener = listener;
+            this.executor = executor;
+        }
+
+    }
+
+    /**
+     * Changes recorded on a single thread, per key in the order in which the keys have first been changed.
+     */
+    static final class Batch {
+
+        // value before the batch and latest value of each changed property, null if the property is not present
+        private final Map<String, String[]> values = new LinkedHashMap<String, String[]>();
+        private int depth;
+
+        private void record(String key, String oldValue, String newValue) {
+            String[] recorded = values.get(key);
+            if (recorded == null) {
+                values.put(key, new String[]{oldValue, newValue});
+            } else {
+                recorded[1] = newValue;
+            }
+        }
+
+        /**
+         * Returns a view of the given map that records all changes that are made through it.
+         *
+         * @param target the map to modify
+         * @return the recording view
+         */
+        Map<String, String> recording(Map<String, String> target) {
+            return new RecordingMap(target, this);
+        }
+
+        private PropertiesChangeSet changes() {
+            List<PropertyChange> changes = new ArrayList<PropertyChange>(values.size());
+            for (Map.Entry<String, String[]> entry : values.entrySet()) {
+                String oldValue = entry.getValue()[0];
+                String newValue = entry.getValue()[1];
+                if (oldValue == null) {
+                    if (newValue != null) {
+                        changes.add(new PropertyChange(PropertyChange.Type.ADDED, entry.getKey(), null, newValue));
+                    }
+                } else if (newValue == null) {
+                    changes.add(new PropertyChange(PropertyChange.Type.REMOVED, entry.getKey(), oldValue, null));
+                } else if (!oldValue.equals(newValue)) {
+                    changes.add(new PropertyChange(PropertyChange.Type.CHANGED, entry.getKey(), oldValue, newValue));
+                }
+            }
+            return PropertiesChangeSet.of(changes);
+        }
+
+    }
+
+    /**
+     * Map that applies all modifications to a target map and records them in a batch.
+     */
+    private static final class RecordingMap extends AbstractMap<String, String> {
+
+        private final Map<String, String> target;
+        private final Batch batch;
+
+        private RecordingMap(Map<String, String> target, Batch batch) {
+            this.target = target;
+            this.batch = batch;
+        }
+
+        @Override
+        public String put(String key, String value) {
+            String previousValue = target.put(key, value);
+            batch.record(key, previousValue, value);
+            return previousValue;
+        }
+
+        @Override
+        public void putAll(Map<? extends String, ? extends String> map) {
+            for (Map.Entry<? extends String, ? extends String> entry : map.entrySet()) {
+                put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        @Override
+        public String remove(Object key) {
+            String previousValue = target.remove(key);
+            batch.record((String) key, previousValue, null);
+            return previousValue;
+        }
+
+        @Override
+        public String get(Object key) {
+            return target.get(key);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return target.containsKey(key);
+        }
+
+        @Override
+        public int size() {
+            return target.size();
+        }
+
+        @Override
+        public Set<Entry<String, String>> entrySet() {
+            return Collections.unmodifiableMap(target).entrySet();
+        }
+
+    }
+
+}
@@ -0,0 +1,173 @@
+package nu.studer.java.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Immutable set of changes of properties, in the order in which they have been applied. When reloading properties,
+ * the properties that have been added or changed come first, in the order of the new properties, followed by the
+ * properties that have been removed, in the order of the previous properties.
+ */
+public final class PropertiesChangeSet implements Iterable<PropertyChange> {
+
+    private static final PropertiesChangeSet EMPTY = new PropertiesChangeSet(Collections.<PropertyChange>emptyList());
+
+    private final List<PropertyChange> changes;
+
+    private PropertiesChangeSet(List<PropertyChange> changes) {
+        this.changes = changes;
+    }
+
+    /**
+     * Returns the set that contains no changes.
+     *
+     * @return the empty set of changes
+     */
+    static PropertiesChangeSet empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Returns the set that contains the given change.
+     *
+     * @param change the change
+     * @return the set of changes
+     */
+    static PropertiesChangeSet of(PropertyChange change) {
+        return new PropertiesChangeSet(Collections.singletonList(change));
+    }
+
+    /**
+     * Returns the set that contains the given changes, which must not be modified afterwards.
+     *
+     * @param changes the changes
+     * @return the set of changes
+     */
+    static PropertiesChangeSet of(List<PropertyChange> changes) {
+        return changes.isEmpty() ? EMPTY : new PropertiesChangeSet(Collections.unmodifiableList(changes));
+    }
+
+    /**
+     * Returns the changes that turn the given current properties into the given new properties. Keys are looked up
+     * in both maps through their own lookup semantics, e.g. through their comparator.
+     *
+     * @param current the current properties
+     * @param updated the new properties
+     * @return the changes
+     */
+    static PropertiesChangeSet between(Map<String, String> current, Map<String, String> updated) {
+        List<PropertyChange> changes = new ArrayList<PropertyChange>();
+        for (Map.Entry<String, String> entry : updated.entrySet()) {
+            String key = entry.getKey();
+            String value = entry.getValue();
+            String currentValue = current.get(key);
+            if (currentValue == null && !current.containsKey(key)) {
+                changes.add(new PropertyChange(PropertyChange.Type.ADDED, key, null, value));
+            } else if (!Objects.equals(currentValue, value)) {
+                changes.add(new PropertyChange(PropertyChange.Type.CHANGED, key, currentValue, value));
+            }
+        }
+        for (Map.Entry<String, String> entry : current.entrySet()) {
+            if (!updated.containsKey(entry.getKey())) {
+                changes.add(new PropertyChange(PropertyChange.Type.REMOVED, entry.getKey(), entry.getValue(), null));
+            }
+        }
+        return of(changes);
+    }
+
+    /**
+     * Applies the changes to the given properties.
+     *
+     * @param target the properties to apply the changes to
+     */
+    void applyTo(OrderedProperties target) {
+        for (PropertyChange change : changes) {
+            if (change.getType() == PropertyChange.Type.REMOVED) {
+                target.removeProperty(change.getKey());
+            } else {
+                target.setProperty(change.getKey(), change.getNewValue());
+            }
+        }
+    }
+
+    /**
+     * Returns <tt>true</tt> if there are no changes.
+     *
+     * @return whether there are no changes
+     */
+    public boolean isEmpty() {
+        return changes.isEmpty();
+    }
+
+    /**
+     * Returns the number of changed properties.
+     *
+     * @return the number of changes
+     */
+    public int size() {
+        return changes.size();
+    }
+
+    /**
+     * Returns all changes, in the order described by this class.
+     *
+     * @return the read-only list of changes
+     */
+    public List<PropertyChange> getChanges() {
+        return changes;
+    }
+
+    /**
+     * Returns the keys of the properties that have been added.
+     *
+     * @return the keys of the added properties
+     */
+    public Set<String> getAddedKeys() {
+        return keys(PropertyChange.Type.ADDED);
+    }
+
+    /**
+     * Returns the keys of the properties whose value has changed.
+     *
+     * @return the keys of the changed properties
+     */
+    public Set<String> getChangedKeys() {
+        return keys(PropertyChange.Type.CHANGED);
+    }
+
+    /**
+     * Returns the keys of the properties that have been removed.
+     *
+     * @return the keys of the removed properties
+     */
+    public Set<String> getRemovedKeys() {
+        return keys(PropertyChange.Type.REMOVED);
+    }
+
+    private Set<String> keys(PropertyChange.Type type) {
+        Set<String> keys = new LinkedHashSet<String>();
+        for (PropertyChange change : changes) {
+            if (change.getType() == type) {
+                keys.add(change.getKey());
+            }
+        }
+        return keys;
+    }
+
+    @Override
+    public Iterator<PropertyChange> iterator() {
+        return changes.iterator();
+    }
+
+    @Override
+    public String toString() {
+        return changes.toString();
+    }
+
+}
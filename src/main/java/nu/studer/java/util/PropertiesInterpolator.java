@@ -0,0 +1,208 @@
+package nu.studer.java.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Resolves <tt>${key}</tt> placeholders in the values of properties and memoizes the resolved values.
+ * <p/>
+ * While resolving a value, each referenced key is recorded in a dependency graph that maps the referenced key to the
+ * keys whose values reference it. When a property changes, only the memoized values of the property itself and of
+ * the properties that depend on it, directly or transitively, are discarded.
+ * <p/>
+ * Values are resolved with an explicit stack rather than through recursion, such that long chains of references
+ * cannot overflow the call stack. Each value is resolved at most once until it is discarded, such that resolving all
+ * properties takes time linear in the total length of their values. Circular references are detected and reported.
+ * Placeholders that reference unknown keys, and placeholders that are not closed, are kept as they are.
+ * <p/>
+ * Instances are thread-safe. A resolution that overlaps with a modification does not memoize its results.
+ */
+final class PropertiesInterpolator {
+
+    private static final String PLACEHOLDER_PREFIX = "${";
+    private static final char PLACEHOLDER_SUFFIX = '}';
+
+    private final Function<String, String> source;
+    private final ConcurrentHashMap<String, String> resolvedValues = new ConcurrentHashMap<String, String>();
+    private final ConcurrentHashMap<String, Set<String>> dependentKeys = new ConcurrentHashMap<String, Set<String>>();
+    private volatile long generation;
+
+    /**
+     * Creates an interpolator that looks up the raw values of properties through the given function.
+     *
+     * @param source the function that returns the raw value of the property with a given key, or <tt>null</tt>
+     */
+    PropertiesInterpolator(Function<String, String> source) {
+        this.source = source;
+    }
+
+    /**
+     * Returns the value of the property with the given key with all placeholders resolved.
+     *
+     * @param key the key of the property
+     * @return the resolved value, or <tt>null</tt> if there is no property with the given key
+     * @throws IllegalStateException if the value references itself, directly or transitively
+     */
+    String resolve(String key) {
+        String resolved = resolvedValues.get(key);
+        if (resolved != null) {
+            return resolved;
+        }
+
+        String raw = source.apply(key);
+        if (raw == null || !raw.contains(PLACEHOLDER_PREFIX)) {
+            return raw;
+        }
+
+        long generation = this.generation;
+        List<String> memoized = new ArrayList<String>();
+        Set<String> inProgress = new LinkedHashSet<String>();
+        Deque<Frame> stack = new ArrayDeque<Frame>();
+        stack.push(new Frame(key, raw));
+        inProgress.add(key);
+
+        while (!stack.isEmpty()) {
+            Frame frame = stack.peek();
+            Frame next = advance(frame, inProgress);
+            if (next != null) {
+                stack.push(next);
+                inProgress.add(next.key);
+            } else {
+                stack.pop();
+                inProgress.remove(frame.key);
+                resolved = frame.result.toString();
+                resolvedValues.put(frame.key, resolved);
+                memoized.add(frame.key);
+            }
+        }
+
+        // a modification raced with this resolution, so the memoized values might be based on stale values
+        if (this.generation != generation) {
+            for (String memoizedKey : memoized) {
+                resolvedValues.remove(memoizedKey);
+            }
+        }
+        return resolved;
+    }
+
+    /**
+     * Resolves the placeholders of the given frame until the frame is complete or until a referenced value needs to
+     * be resolved first, in which case a frame for the referenced value is returned.
+     */
+    private Frame advance(Frame frame, Set<String> inProgress) {
+        String raw = frame.raw;
+        while (frame.position < raw.length()) {
+            int start = raw.indexOf(PLACEHOLDER_PREFIX, frame.position);
+            int end = (start >= 0) ? raw.indexOf(PLACEHOLDER_SUFFIX, start + PLACEHOLDER_PREFIX.length()) : -1;
+            if (end < 0) {
+                frame.result.append(raw, frame.position, raw.length());
+                frame.position = raw.length();
+                break;
+            }
+
+            String reference = raw.substring(start + PLACEHOLDER_PREFIX.length(), end);
+            addDependentKey(reference, frame.key);
+
+            String resolved = resolvedValues.get(reference);
+            if (resolved == null) {
+                String referencedRaw = source.apply(reference);
+                if (referencedRaw == null) {
+                    // unknown keys are kept as they are
+                    frame.result.append(raw, frame.position, end + 1);
+                    frame.position = end + 1;
+                    continue;
+                } else if (inProgress.contains(reference)) {
+                    throw new IllegalStateException("Circular placeholder reference: " + cycle(inProgress, reference));
+                } else if (referencedRaw.contains(PLACEHOLDER_PREFIX)) {
+                    // resolve the referenced value first and come back to this placeholder afterwards
+                    frame.result.append(raw, frame.position, start);
+                    frame.position = start;
+                    return new Frame(reference, referencedRaw);
+                } else {
+                    resolved = referencedRaw;
+                }
+            }
+
+            frame.result.append(raw, frame.position, start).append(resolved);
+            frame.position = end + 1;
+        }
+        return null;
+    }
+
+    private void addDependentKey(String reference, String dependentKey) {
+        Set<String> keys = dependentKeys.get(reference);
+        if (keys == null) {
+            Set<String> newKeys = ConcurrentHashMap.newKeySet();
+            keys = dependentKeys.putIfAbsent(reference, newKeys);
+            if (keys == null) {
+                keys = newKeys;
+            }
+        }
+        keys.add(dependentKey);
+    }
+
+    private static String cycle(Set<String> inProgress, String reference) {
+        StringBuilder cycle = new StringBuilder();
+        boolean inCycle = false;
+        for (String key : inProgress) {
+            inCycle |= key.equals(reference);
+            if (inCycle) {
+                cycle.append(key).append(" -> ");
+            }
+        }
+        return cycle.append(reference).toString();
+    }
+
+    /**
+     * Discards the memoized values of the property with the given key and of all properties that depend on it.
+     *
+     * @param key the key of the property that has changed
+     */
+    void invalidate(String key) {
+        generation++;
+        Deque<String> keys = new ArrayDeque<String>();
+        keys.add(key);
+        while (!keys.isEmpty()) {
+            String current = keys.poll();
+            resolvedValues.remove(current);
+            Set<String> dependents = dependentKeys.remove(current);
+            if (dependents != null) {
+                keys.addAll(dependents);
+            }
+        }
+    }
+
+    /**
+     * Discards all memoized values.
+     */
+    void invalidateAll() {
+        generation++;
+        resolvedValues.clear();
+        dependentKeys.clear();
+    }
+
+    /**
+     * State of resolving the placeholders of a single value.
+     */
+    private static final class Frame {
+
+        private final String key;
+        private final String raw;
+        private final StringBuilder result;
+        private int position;
+
+        private Frame(String key, String raw) {
+            this.key = key;
+            this.raw = raw;
+            this.result = new StringBuilder(raw.length());
+        }
+
+    }
+
+}
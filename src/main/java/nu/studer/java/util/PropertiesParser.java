@@ -0,0 +1,363 @@
+package nu.studer.java.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+
+/**
+ * Single-pass parser for the line-oriented properties format as specified by {@link java.util.Properties#load(Reader)}.
+ * <p/>
+ * The parser reads the input in chunks into a reusable buffer, splits it into logical lines while honoring comment
+ * lines, blank lines, and backslash line continuations, and converts the escape sequences of keys and values. Each
+ * parsed property is put straight into the target map. The escape, continuation, and comment rules are identical to
+ * the ones applied by the JDK.
+ * <p/>
+ * Instances are not thread-safe and are meant to be used for parsing a single input.
+ */
+final class PropertiesParser {
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final long MAPPED_REGION_SIZE = 256L * 1024 * 1024;
+
+    private final InputStream stream;
+    private final Reader reader;
+    private final FileChannel channel;
+
+    private ByteBuffer source;
+    private long channelPosition;
+
+    private final byte[] byteBuffer;
+    private final char[] charBuffer;
+    private int bufferOffset;
+    private int bufferLimit;
+
+    private char[] lineBuffer = new char[1024];
+    private char[] convertBuffer = new char[1024];
+
+    /**
+     * Creates a parser that reads from the given stream, interpreting each byte as an ISO 8859-1 character.
+     *
+     * @param stream the stream to read from
+     */
+    PropertiesParser(InputStream stream) {
+        if (stream == null) {
+            throw new NullPointerException("stream must not be null");
+        }
+        this.stream = stream;
+        this.reader = null;
+        this.channel = null;
+        this.byteBuffer = new byte[BUFFER_SIZE];
+        this.charBuffer = null;
+    }
+
+    /**
+     * Creates a parser that reads from the given reader.
+     *
+     * @param reader the reader to read from
+     */
+    PropertiesParser(Reader reader) {
+        if (reader == null) {
+            throw new NullPointerException("reader must not be null");
+        }
+        this.stream = null;
+        this.reader = reader;
+        this.channel = null;
+        this.byteBuffer = null;
+        this.charBuffer = new char[BUFFER_SIZE];
+    }
+
+    /**
+     * Creates a parser that reads the remaining bytes of the given buffer, interpreting each byte as an ISO 8859-1
+     * character.
+     *
+     * @param buffer the buffer to read from
+     */
+    PropertiesParser(ByteBuffer buffer) {
+        if (buffer == null) {
+            throw new NullPointerException("buffer must not be null");
+        }
+        this.stream = null;
+        this.reader = null;
+        this.channel = null;
+        this.source = buffer;
+        this.byteBuffer = new byte[BUFFER_SIZE];
+        this.charBuffer = null;
+    }
+
+    /**
+     * Creates a parser that reads the content of the given file channel, interpreting each byte as an ISO 8859-1
+     * character. The file is mapped into memory region by region, and the bytes are transferred from the mapped
+     * regions without going through a stream or a charset decoder.
+     *
+     * @param channel the file channel to read from, starting at its beginning
+     */
+    PropertiesParser(FileChannel channel) {
+        if (channel == null) {
+            throw new NullPointerException("channel must not be null");
+        }
+        this.stream = null;
+        this.reader = null;
+        this.channel = channel;
+        this.byteBuffer = new byte[BUFFER_SIZE];
+        this.charBuffer = null;
+    }
+
+    /**
+     * Parses all properties from the input and puts them into the given map, in the order they appear in the input.
+     *
+     * @param target the map to put the parsed properties into
+     * @throws IOException              if reading from the input fails
+     * @throws IllegalArgumentException if the input contains a malformed <tt>&#92;uxxxx</tt> encoding
+     */
+    void parse(Map<String, String> target) throws IOException {
+        int limit;
+        while ((limit = readLine()) >= 0) {
+            char[] line = lineBuffer;
+            int keyLength = 0;
+            int valueStart = limit;
+            boolean hasSeparator = false;
+            boolean precedingBackslash = false;
+
+            // find the end of the key, which is the first unescaped separator or whitespace character
+            while (keyLength < limit) {
+                char c = line[keyLength];
+                if ((c == '=' || c == ':') && !precedingBackslash) {
+                    valueStart = keyLength + 1;
+                    hasSeparator = true;
+                    break;
+                } else if ((c == ' ' || c == '\t' || c == '\f') && !precedingBackslash) {
+                    valueStart = keyLength + 1;
+                    break;
+                }
+                precedingBackslash = (c == '\\') && !precedingBackslash;
+                keyLength++;
+            }
+
+            // skip the whitespace between key and value, including at most one separator character
+            while (valueStart < limit) {
+                char c = line[valueStart];
+                if (c != ' ' && c != '\t' && c != '\f') {
+                    if (!hasSeparator && (c == '=' || c == ':')) {
+                        hasSeparator = true;
+                    } else {
+                        break;
+                    }
+                }
+                valueStart++;
+            }
+
+            String key = convert(line, 0, keyLength);
+            String value = convert(line, valueStart, limit - valueStart);
+            target.put(key, value);
+        }
+    }
+
+    /**
+     * Reads the next logical line into the line buffer, skipping comment lines and blank lines, stripping leading
+     * whitespace, and joining continuation lines.
+     *
+     * @return the number of characters of the logical line, or <tt>-1</tt> if the end of the input has been reached
+     */
+    private int readLine() throws IOException {
+        int length = 0;
+        boolean skipWhiteSpace = true;
+        boolean isCommentLine = false;
+        boolean appendedLineBegin = false;
+        boolean precedingBackslash = false;
+        boolean skipLineFeed = false;
+
+        while (true) {
+            if (bufferOffset >= bufferLimit) {
+                if (!fill()) {
+                    if (length == 0 || isCommentLine) {
+                        return -1;
+                    }
+                    return precedingBackslash ? length - 1 : length;
+                }
+            }
+
+            char c = (byteBuffer != null) ? (char) (0xff & byteBuffer[bufferOffset++]) : charBuffer[bufferOffset++];
+
+            if (skipLineFeed) {
+                skipLineFeed = false;
+                if (c == '\n') {
+                    continue;
+                }
+            }
+
+            if (skipWhiteSpace) {
+                if (c == ' ' || c == '\t' || c == '\f') {
+                    continue;
+                }
+                if (!appendedLineBegin && (c == '\r' || c == '\n')) {
+                    continue;
+                }
+                skipWhiteSpace = false;
+                appendedLineBegin = false;
+            }
+
+            if (length == 0 && (c == '#' || c == '!')) {
+                // a comment line, also if it follows a continuation line that contributed no characters
+                isCommentLine = true;
+                continue;
+            }
+
+            if (c != '\n' && c != '\r') {
+                if (isCommentLine) {
+                    // the content of comment lines is never used, only continue scanning for the end of the line
+                    continue;
+                }
+                if (length == lineBuffer.length) {
+                    lineBuffer = grow(lineBuffer, length);
+                }
+                lineBuffer[length++] = c;
+                precedingBackslash = (c == '\\') && !precedingBackslash;
+            } else {
+                // reached the end of a natural line
+                if (isCommentLine || length == 0) {
+                    isCommentLine = false;
+                    skipWhiteSpace = true;
+                    length = 0;
+                    continue;
+                }
+                if (bufferOffset >= bufferLimit && !fill()) {
+                    return precedingBackslash ? length - 1 : length;
+                }
+                if (precedingBackslash) {
+                    // the line continues on the next natural line, drop the backslash
+                    length--;
+                    skipWhiteSpace = true;
+                    appendedLineBegin = true;
+                    precedingBackslash = false;
+                    if (c == '\r') {
+                        skipLineFeed = true;
+                    }
+                } else {
+                    return length;
+                }
+            }
+        }
+    }
+
+    /**
+     * Refills the input buffer.
+     *
+     * @return <tt>true</tt> if at least one more character is available, <tt>false</tt> if the end of the input has been reached
+     */
+    private boolean fill() throws IOException {
+        bufferOffset = 0;
+        if (stream != null) {
+            bufferLimit = stream.read(byteBuffer);
+        } else if (reader != null) {
+            bufferLimit = reader.read(charBuffer);
+        } else if ((source != null && source.hasRemaining()) || (channel != null && mapNextRegion())) {
+            bufferLimit = Math.min(source.remaining(), byteBuffer.length);
+            source.get(byteBuffer, 0, bufferLimit);
+        } else {
+            bufferLimit = 0;
+        }
+
+        if (bufferLimit <= 0) {
+            bufferLimit = 0;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Maps the next region of the file channel into memory.
+     *
+     * @return <tt>true</tt> if a non-empty region has been mapped, <tt>false</tt> if the end of the file has been reached
+     */
+    private boolean mapNextRegion() throws IOException {
+        long remaining = channel.size() - channelPosition;
+        if (remaining <= 0) {
+            return false;
+        }
+
+        long regionSize = Math.min(remaining, MAPPED_REGION_SIZE);
+        source = channel.map(FileChannel.MapMode.READ_ONLY, channelPosition, regionSize);
+        channelPosition += regionSize;
+        return true;
+    }
+
+    /**
+     * Converts the escape sequences contained in the given range of characters. If there are no escape
+     * sequences, the characters are turned into a string without any intermediate copying.
+     */
+    private String convert(char[] in, int offset, int length) {
+        int end = offset + length;
+        int firstBackslash = offset;
+        while (firstBackslash < end && in[firstBackslash] != '\\') {
+            firstBackslash++;
+        }
+        if (firstBackslash == end) {
+            return new String(in, offset, length);
+        }
+
+        if (convertBuffer.length < length) {
+            convertBuffer = new char[Math.max(length, convertBuffer.length * 2)];
+        }
+        char[] out = convertBuffer;
+        int outLength = firstBackslash - offset;
+        System.arraycopy(in, offset, out, 0, outLength);
+
+        int position = firstBackslash;
+        while (position < end) {
+            char c = in[position++];
+            if (c == '\\') {
+                c = in[position++];
+                if (c == 'u') {
+                    if (position > end - 4) {
+                        throw new IllegalArgumentException("Malformed \\uxxxx encoding.");
+                    }
+                    int value = 0;
+                    for (int i = 0; i < 4; i++) {
+                        value = (value << 4) + hexDigit(in[position++]);
+                    }
+                    out[outLength++] = (char) value;
+                } else {
+                    if (c == 't') {
+                        c = '\t';
+                    } else if (c == 'r') {
+                        c = '\r';
+                    } else if (c == 'n') {
+                        c = '\n';
+                    } else if (c == 'f') {
+                        c = '\f';
+                    }
+                    out[outLength++] = c;
+                }
+            } else {
+                out[outLength++] = c;
+            }
+        }
+        return new String(out, 0, outLength);
+    }
+
+    private static int hexDigit(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        } else if (c >= 'a' && c <= 'f') {
+            return 10 + c - 'a';
+        } else if (c >= 'A' && c <= 'F') {
+            return 10 + c - 'A';
+        } else {
+            throw new IllegalArgumentException("Malformed \\uxxxx encoding.");
+        }
+    }
+
+    private static char[] grow(char[] buffer, int length) {
+        int newLength = length * 2;
+        if (newLength < 0) {
+            newLength = Integer.MAX_VALUE;
+        }
+        char[] result = new char[newLength];
+        System.arraycopy(buffer, 0, result, 0, length);
+        return result;
+    }
+
+}
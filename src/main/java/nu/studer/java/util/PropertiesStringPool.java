@@ -0,0 +1,257 @@
+package nu.studer.java.util;
+
+import java.lang.ref.WeakReference;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool of strings that lets equal keys and values loaded into {@link OrderedProperties} instances share a single
+ * {@link String} instance. A pool is typically shared by all instances of an application, configured through
+ * {@link OrderedProperties.OrderedPropertiesBuilder#withStringPool(PropertiesStringPool)}, and can be used by
+ * multiple threads concurrently.
+ * <p/>
+ * Two kinds of pools are provided. A {@link #weak() weak} pool holds any number of strings, and releases them once
+ * they are not referenced anymore from outside the pool. A {@link #bounded(int) bounded} pool holds a fixed number of
+ * strings in a direct-mapped table, in which a string replaces the string that occupies its slot, such that it never
+ * grows and never blocks, at the expense of missing some duplicates.
+ * <p/>
+ * The pool counts the lookups and the duplicates that have been found, along with an estimate of the memory that
+ * has been saved by not retaining the duplicates.
+ */
+public abstract class PropertiesStringPool {
+
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder bytesSaved = new LongAdder();
+
+    PropertiesStringPool() {
+    }
+
+    /**
+     * Creates a pool that holds any number of strings and releases them once they are not referenced anymore from
+     * outside the pool.
+     *
+     * @return the new pool
+     */
+    public static PropertiesStringPool weak() {
+        return new WeakStringPool();
+    }
+
+    /**
+     * Creates a pool that holds at most the given number of strings, rounded up to the next power of two.
+     *
+     * @param capacity the maximum number of strings to hold
+     * @return the new pool
+     */
+    public static PropertiesStringPool bounded(int capacity) {
+        if (capacity <= 0 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("capacity must be between 1 and 2^30: " + capacity);
+        }
+        return new BoundedStringPool(capacity);
+    }
+
+    /**
+     * Returns the pooled string that is equal to the given string, or adds the given string to the pool and returns
+     * it if the pool does not hold an equal string.
+     *
+     * @param value the string to look up, may be <tt>null</tt>
+     * @return the pooled string, or <tt>null</tt> if the given string is <tt>null</tt>
+     */
+    public final String intern(String value) {
+        if (value == null) {
+            return null;
+        }
+
+        String pooled = lookup(value);
+        lookups.increment();
+        if (pooled != value) {
+            hits.increment();
+            bytesSaved.add(estimatedSize(value));
+        }
+        return pooled;
+    }
+
+    abstract String lookup(String value);
+
+    /**
+     * Returns a view of the given map that replaces all keys and values put into it with pooled strings.
+     *
+     * @param target the map to put the pooled strings into
+     * @return the pooling view
+     */
+    Map<String, String> pooling(Map<String, String> target) {
+        return new PoolingMap(target, this);
+    }
+
+    /**
+     * Returns the number of strings that have been looked up.
+     *
+     * @return the number of lookups
+     */
+    public long getLookupCount() {
+        return lookups.sum();
+    }
+
+    /**
+     * Returns the number of lookups that have found an equal string in the pool.
+     *
+     * @return the number of hits
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the ratio of lookups that have found an equal string in the pool.
+     *
+     * @return the hit rate between 0 and 1, or 0 if no strings have been looked up
+     */
+    public double getHitRate() {
+        long lookups = getLookupCount();
+        return (lookups > 0) ? (double) getHitCount() / lookups : 0;
+    }
+
+    /**
+     * Returns an estimate of the memory that has been saved by replacing strings with equal strings from the pool,
+     * based on the size of strings on a 64-bit JVM with compressed references and two bytes per character. The
+     * estimate counts every replaced string, regardless of whether it would have been retained.
+     *
+     * @return the estimated number of bytes saved
+     */
+    public long getEstimatedBytesSaved() {
+        return bytesSaved.sum();
+    }
+
+    private static long estimatedSize(String value) {
+        // object header, hash and reference to the array, plus array header and characters aligned to 8 bytes
+        return 24 + ((16 + 2L * value.length() + 7) & ~7L);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[lookups=%d, hits=%d, hitRate=%.3f, estimatedBytesSaved=%d]",
+                getClass().getSimpleName(), getLookupCount(), getHitCount(), getHitRate(), getEstimatedBytesSaved());
+    }
+
+    /**
+     * Map that puts the pooled keys and values into a target map.
+     */
+    private static final class PoolingMap extends AbstractMap<String, String> {
+
+        private final Map<String, String> target;
+        private final PropertiesStringPool pool;
+
+        private PoolingMap(Map<String, String> target, PropertiesStringPool pool) {
+            this.target = target;
+            this.pool = pool;
+        }
+
+        @Override
+        public String put(String key, String value) {
+            return target.put(pool.intern(key), pool.intern(value));
+        }
+
+        @Override
+        public void putAll(Map<? extends String, ? extends String> map) {
+            for (Map.Entry<? extends String, ? extends String> entry : map.entrySet()) {
+                put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        @Override
+        public String get(Object key) {
+            return target.get(key);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return target.containsKey(key);
+        }
+
+        @Override
+        public int size() {
+            return target.size();
+        }
+
+        @Override
+        public Set<Entry<String, String>> entrySet() {
+            return Collections.unmodifiableMap(target).entrySet();
+        }
+
+    }
+
+    /**
+     * Pool that keeps its strings weakly in segments, each of which is locked separately, such that threads that
+     * load properties concurrently rarely contend.
+     */
+    private static final class WeakStringPool extends PropertiesStringPool {
+
+        private static final int SEGMENTS = 16;
+
+        private final Segment[] segments;
+
+        private WeakStringPool() {
+            segments = new Segment[SEGMENTS];
+            for (int i = 0; i < SEGMENTS; i++) {
+                segments[i] = new Segment();
+            }
+        }
+
+        @Override
+        String lookup(String value) {
+            int hash = value.hashCode();
+            Segment segment = segments[(hash ^ (hash >>> 16)) & (SEGMENTS - 1)];
+            synchronized (segment) {
+                WeakReference<String> reference = segment.get(value);
+                String pooled = (reference != null) ? reference.get() : null;
+                if (pooled != null) {
+                    return pooled;
+                }
+                segment.put(value, new WeakReference<String>(value));
+                return value;
+            }
+        }
+
+        /**
+         * Segment of the pool, a non-generic type such that the segments can be held in an array.
+         */
+        private static final class Segment extends WeakHashMap<String, WeakReference<String>> {
+        }
+
+    }
+
+    /**
+     * Pool that keeps its strings in a direct-mapped table. The table is read and written without synchronization,
+     * which is safe since strings are immutable: a thread that reads a stale slot merely misses a duplicate.
+     */
+    private static final class BoundedStringPool extends PropertiesStringPool {
+
+        private final String[] table;
+
+        private BoundedStringPool(int capacity) {
+            int size = 1;
+            while (size < capacity) {
+                size <<= 1;
+            }
+            table = new String[size];
+        }
+
+        @Override
+        String lookup(String value) {
+            int hash = value.hashCode();
+            int index = (hash ^ (hash >>> 16)) & (table.length - 1);
+            String pooled = table[index];
+            if (value.equals(pooled)) {
+                return pooled;
+            }
+            table[index] = value;
+            return value;
+        }
+
+    }
+
+}
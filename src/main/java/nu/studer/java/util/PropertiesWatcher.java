@@ -0,0 +1,340 @@
+package nu.studer.java.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystem;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Watches properties files and reloads them into their {@link OrderedProperties} instances when they change.
+ * <p/>
+ * The directories that contain the files are watched through a {@link WatchService}, such that no file is polled and
+ * files that are replaced by renaming another file onto them, as done by many editors, are detected the same as files
+ * that are written in place. Bursts of events for the same file are debounced: a file is reloaded once no more events
+ * have been received for it during the configured debounce period. Files are reloaded through
+ * {@link OrderedProperties#reload(Path)} on a single background thread, such that only the changed properties are
+ * applied and files with unchanged content are not parsed.
+ * <p/>
+ * In order for other threads to see each reloaded file as a whole, the properties should be created with
+ * copy-on-write enabled, in which case all changes of a reload are published atomically as a single new version.
+ * <p/>
+ * The files are loaded once when the watcher is built. Closing the watcher stops watching the files.
+ */
+public final class PropertiesWatcher implements Closeable {
+
+    private final WatchService watchService;
+    private final Map<Path, Map<Path, WatchedFile>> watchedFiles;
+    private final long debounceNanos;
+    private final BiConsumer<? super Path, ? super PropertiesChangeSet> listener;
+    private final BiConsumer<? super Path, ? super Exception> errorHandler;
+    private final Thread thread;
+    private volatile boolean closed;
+
+    private PropertiesWatcher(WatchService watchService, Map<Path, Map<Path, WatchedFile>> watchedFiles, Duration debounce,
+                              BiConsumer<? super Path, ? super PropertiesChangeSet> listener,
+                              BiConsumer<? super Path, ? super Exception> errorHandler, ThreadFactory threadFactory) {
+        this.watchService = watchService;
+        this.watchedFiles = watchedFiles;
+        this.debounceNanos = debounce.toNanos();
+        this.listener = listener;
+        this.errorHandler = errorHandler;
+        this.thread = threadFactory.newThread(this::run);
+    }
+
+    /**
+     * Returns <tt>true</tt> if the watcher has not been closed yet. A watcher whose background thread has terminated
+     * because the error handler has thrown an exception is closed.
+     *
+     * @return whether the files are still watched
+     */
+    public boolean isWatching() {
+        return !closed;
+    }
+
+    /**
+     * Stops watching the files. A reload that is in progress is completed. Calling this method on a closed watcher has
+     * no effect.
+     *
+     * @throws IOException if closing the underlying watch service fails
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        watchService.close();
+    }
+
+    private void run() {
+        try {
+            while (!closed) {
+                long nextDue = nextDue();
+                WatchKey key = (nextDue == Long.MAX_VALUE) ?
+                        watchService.take() :
+                        watchService.poll(Math.max(nextDue - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+                while (key != null) {
+                    handleEvents(key);
+                    key = watchService.poll();
+                }
+                reloadDueFiles();
+            }
+        } catch (ClosedWatchServiceException e) {
+            // the watcher has been closed
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // no more files are reloaded once the thread terminates, also if the error handler has thrown an exception
+            closed = true;
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                // the watcher is closed regardless
+            }
+        }
+    }
+
+    private void handleEvents(WatchKey key) {
+        Map<Path, WatchedFile> files = watchedFiles.get((Path) key.watchable());
+        long due = System.nanoTime() + debounceNanos;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (files == null) {
+                continue;
+            }
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // events have been lost, so any file of the directory might have changed
+                for (WatchedFile file : files.values()) {
+                    file.due = due;
+                }
+            } else {
+                WatchedFile file = files.get((Path) event.context());
+                if (file != null) {
+                    file.due = due;
+                }
+            }
+        }
+        key.reset();
+    }
+
+    private long nextDue() {
+        long nextDue = Long.MAX_VALUE;
+        for (Map<Path, WatchedFile> files : watchedFiles.values()) {
+            for (WatchedFile file : files.values()) {
+                nextDue = Math.min(nextDue, file.due);
+            }
+        }
+        return nextDue;
+    }
+
+    private void reloadDueFiles() {
+        long now = System.nanoTime();
+        for (Map<Path, WatchedFile> files : watchedFiles.values()) {
+            for (WatchedFile file : files.values()) {
+                if (file.due != Long.MAX_VALUE && file.due - now <= 0) {
+                    file.due = Long.MAX_VALUE;
+                    reload(file);
+                }
+            }
+        }
+    }
+
+    private void reload(WatchedFile file) {
+        try {
+            PropertiesChangeSet changes = file.properties.reload(file.path);
+            if (!changes.isEmpty() && listener != null) {
+                listener.accept(file.path, changes);
+            }
+        } catch (NoSuchFileException e) {
+            // the file has been deleted or is being replaced, it is reloaded once it has been created again
+        } catch (Exception e) {
+            errorHandler.accept(file.path, e);
+        }
+    }
+
+    /**
+     * Watched file along with the properties it is reloaded into and the time at which it is due for reloading.
+     */
+    private static final class WatchedFile {
+
+        private final Path path;
+        private final OrderedProperties properties;
+        private long due = Long.MAX_VALUE;
+
+        private WatchedFile(Path path, OrderedProperties properties) {
+            this.path = path;
+            this.properties = properties;
+        }
+
+    }
+
+    /**
+     * Builder for {@link PropertiesWatcher} instances.
+     */
+    public static final class PropertiesWatcherBuilder {
+
+        private final Map<Path, OrderedProperties> files = new LinkedHashMap<Path, OrderedProperties>();
+        private Duration debounce = Duration.ofMillis(100);
+        private ThreadFactory threadFactory;
+        private BiConsumer<? super Path, ? super PropertiesChangeSet> listener;
+        private BiConsumer<? super Path, ? super Exception> errorHandler;
+
+        /**
+         * Watch the given file and reload it into the given properties whenever it changes. Each file must be reloaded
+         * into different properties, since reloading a file removes all properties that are not present in the file.
+         *
+         * @param file       the file to watch
+         * @param properties the properties to reload the file into
+         * @return the builder
+         */
+        public PropertiesWatcherBuilder watch(Path file, OrderedProperties properties) {
+            if (file == null || properties == null) {
+                throw new NullPointerException("file and properties must not be null");
+            }
+            Path path = file.toAbsolutePath().normalize();
+            if (files.containsKey(path)) {
+                throw new IllegalArgumentException("file is already watched: " + path);
+            }
+            // compare by identity, since distinct instances with equal properties can be watched separately
+            for (OrderedProperties watched : files.values()) {
+                if (watched == properties) {
+                    throw new IllegalArgumentException("properties are already watched for another file");
+                }
+            }
+            files.put(path, properties);
+            return this;
+        }
+
+        /**
+         * Reload a file once no more changes have been detected for it during the given period. The default is
+         * 100 milliseconds.
+         *
+         * @param debounce the period to wait for more changes
+         * @return the builder
+         */
+        public PropertiesWatcherBuilder withDebounce(Duration debounce) {
+            if (debounce == null || debounce.isNegative()) {
+                throw new IllegalArgumentException("debounce must not be negative");
+            }
+            this.debounce = debounce;
+            return this;
+        }
+
+        /**
+         * Create the background thread that reloads the files through the given factory, e.g. a factory of virtual
+         * threads. By default, a daemon thread is created.
+         *
+         * @param threadFactory the factory of the background thread
+         * @return the builder
+         */
+        public PropertiesWatcherBuilder withThreadFactory(ThreadFactory threadFactory) {
+            this.threadFactory = threadFactory;
+            return this;
+        }
+
+        /**
+         * Notify the given listener of the changes applied by each reload, on the background thread. Reloads that do
+         * not change any properties are not notified.
+         *
+         * @param listener the listener of the changes
+         * @return the builder
+         */
+        public PropertiesWatcherBuilder withListener(BiConsumer<? super Path, ? super PropertiesChangeSet> listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        /**
+         * Pass failures to reload a file to the given handler, on the background thread. The file keeps being
+         * watched. By default, failures are passed to the uncaught exception handler of the background thread. If the
+         * handler throws an exception, the background thread terminates and the watcher is closed.
+         *
+         * @param errorHandler the handler of failures
+         * @return the builder
+         */
+        public PropertiesWatcherBuilder withErrorHandler(BiConsumer<? super Path, ? super Exception> errorHandler) {
+            this.errorHandler = errorHandler;
+            return this;
+        }
+
+        /**
+         * Loads all files into their properties and starts watching them.
+         *
+         * @return the new watcher
+         * @throws IOException              if watching the directories of the files or loading the files fails
+         * @throws IllegalArgumentException if the files are not all on the same file system
+         */
+        public PropertiesWatcher build() throws IOException {
+            if (files.isEmpty()) {
+                throw new IllegalArgumentException("no files to watch");
+            }
+
+            FileSystem fileSystem = files.keySet().iterator().next().getFileSystem();
+            Map<Path, Map<Path, WatchedFile>> watchedFiles = new HashMap<Path, Map<Path, WatchedFile>>();
+            List<WatchedFile> allFiles = new ArrayList<WatchedFile>();
+            for (Map.Entry<Path, OrderedProperties> entry : files.entrySet()) {
+                Path file = entry.getKey();
+                if (file.getFileSystem() != fileSystem) {
+                    throw new IllegalArgumentException("files must be on the same file system: " + file);
+                }
+
+                WatchedFile watchedFile = new WatchedFile(file, entry.getValue());
+                Map<Path, WatchedFile> directoryFiles = watchedFiles.get(file.getParent());
+                if (directoryFiles == null) {
+                    directoryFiles = new HashMap<Path, WatchedFile>();
+                    watchedFiles.put(file.getParent(), directoryFiles);
+                }
+                directoryFiles.put(file.getFileName(), watchedFile);
+                allFiles.add(watchedFile);
+            }
+
+            WatchService watchService = fileSystem.newWatchService();
+            try {
+                for (Path directory : watchedFiles.keySet()) {
+                    directory.register(watchService,
+                            StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_MODIFY,
+                            StandardWatchEventKinds.ENTRY_DELETE);
+                }
+
+                // load the files only once they are watched, such that no change gets lost
+                for (WatchedFile file : allFiles) {
+                    file.properties.reload(file.path);
+                }
+            } catch (IOException e) {
+                watchService.close();
+                throw e;
+            } catch (RuntimeException e) {
+                watchService.close();
+                throw e;
+            }
+
+            ThreadFactory threadFactory = (this.threadFactory != null) ? this.threadFactory : runnable -> {
+                Thread thread = new Thread(runnable, "properties-watcher");
+                thread.setDaemon(true);
+                return thread;
+            };
+            BiConsumer<? super Path, ? super Exception> errorHandler = (this.errorHandler != null) ? this.errorHandler : (file, e) -> {
+                Thread thread = Thread.currentThread();
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+            };
+
+            PropertiesWatcher watcher = new PropertiesWatcher(watchService, watchedFiles, debounce, listener, errorHandler, threadFactory);
+            watcher.thread.start();
+            return watcher;
+        }
+
+    }
+
+}
@@ -0,0 +1,248 @@
+package nu.studer.java.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * Single-pass writer for the line-oriented properties format as specified by {@link java.util.Properties#store(Writer, String)}.
+ * <p/>
+ * The writer iterates the entries of the source map once, escapes each key and value into a reusable buffer, and
+ * writes the buffer in large blocks. The output is identical to the one produced by the JDK: when writing to a stream,
+ * all characters outside of the printable ASCII range are written as <tt>&#92;uxxxx</tt> escape sequences and the
+ * output is encoded in ISO 8859-1, whereas when writing to a writer, these characters are written as they are.
+ * <p/>
+ * Instances are not thread-safe and are meant to be used for writing a single output.
+ */
+final class PropertiesWriter {
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+    private final Writer writer;
+    private final OutputStream stream;
+    private final boolean escapeUnicode;
+
+    private char[] buffer = new char[BUFFER_SIZE];
+    private final byte[] byteBuffer;
+    private int position;
+
+    /**
+     * Creates a properties writer that writes to the given writer.
+     *
+     * @param writer the writer to write to
+     */
+    PropertiesWriter(Writer writer) {
+        if (writer == null) {
+            throw new NullPointerException("writer must not be null");
+        }
+        this.writer = writer;
+        this.stream = null;
+        this.escapeUnicode = false;
+        this.byteBuffer = null;
+    }
+
+    /**
+     * Creates a properties writer that writes to the given stream, using ISO 8859-1 character encoding and escaping
+     * all characters outside of the printable ASCII range.
+     *
+     * @param stream the stream to write to
+     */
+    PropertiesWriter(OutputStream stream) {
+        if (stream == null) {
+            throw new NullPointerException("stream must not be null");
+        }
+        this.writer = null;
+        this.stream = stream;
+        this.escapeUnicode = true;
+        this.byteBuffer = new byte[BUFFER_SIZE];
+    }
+
+    /**
+     * Writes the given comments, a comment with the current date unless suppressed, and the given properties in the
+     * iteration order of the given map. The output is flushed but not closed after the properties have been written.
+     *
+     * @param properties   the properties to write
+     * @param comments     the comments to write, or <tt>null</tt> for no comments
+     * @param suppressDate whether to omit the comment with the current date
+     * @throws IOException if writing to the output fails
+     */
+    void write(Map<String, String> properties, String comments, boolean suppressDate) throws IOException {
+        if (comments != null) {
+            writeComments(comments);
+        }
+        if (!suppressDate) {
+            appendLine("#" + new Date().toString());
+        }
+
+        for (Map.Entry<String, String> entry : properties.entrySet()) {
+            String key = entry.getKey();
+            String value = entry.getValue();
+            if (value == null) {
+                value = "";
+            }
+
+            // worst case, every character expands into a six character unicode escape sequence
+            ensureCapacity(6 * (key.length() + value.length()) + 1 + LINE_SEPARATOR.length());
+            appendEscaped(key, true);
+            buffer[position++] = '=';
+            appendEscaped(value, false);
+            append(LINE_SEPARATOR);
+        }
+
+        flushBuffer();
+        if (writer != null) {
+            writer.flush();
+        } else {
+            stream.flush();
+        }
+    }
+
+    /**
+     * Writes the comment lines in the same way as the JDK does: each line is prefixed with a <tt>#</tt> unless it
+     * already starts with a comment character, line breaks are normalized to the platform line separator, and
+     * characters outside of the ISO 8859-1 range are written as <tt>&#92;uxxxx</tt> escape sequences.
+     */
+    private void writeComments(String comments) throws IOException {
+        // worst case, every character expands into a six character unicode escape sequence or a line break
+        int length = comments.length();
+        ensureCapacity(1 + length * Math.max(6, LINE_SEPARATOR.length() + 1) + LINE_SEPARATOR.length());
+        char[] out = buffer;
+        int outPosition = position;
+
+        out[outPosition++] = '#';
+        for (int current = 0; current < length; current++) {
+            char c = comments.charAt(current);
+            if (c > '\u00ff') {
+                out[outPosition++] = '\\';
+                out[outPosition++] = 'u';
+                out[outPosition++] = HEX_DIGITS[(c >> 12) & 0xF];
+                out[outPosition++] = HEX_DIGITS[(c >> 8) & 0xF];
+                out[outPosition++] = HEX_DIGITS[(c >> 4) & 0xF];
+                out[outPosition++] = HEX_DIGITS[c & 0xF];
+            } else if (c == '\n' || c == '\r') {
+                LINE_SEPARATOR.getChars(0, LINE_SEPARATOR.length(), out, outPosition);
+                outPosition += LINE_SEPARATOR.length();
+                if (c == '\r' && current != length - 1 && comments.charAt(current + 1) == '\n') {
+                    current++;
+                }
+                if (current == length - 1 || (comments.charAt(current + 1) != '#' && comments.charAt(current + 1) != '!')) {
+                    out[outPosition++] = '#';
+                }
+            } else {
+                out[outPosition++] = c;
+            }
+        }
+        position = outPosition;
+        append(LINE_SEPARATOR);
+    }
+
+    private void appendLine(String text) throws IOException {
+        ensureCapacity(text.length() + LINE_SEPARATOR.length());
+        append(text);
+        append(LINE_SEPARATOR);
+    }
+
+    private void appendEscaped(String text, boolean escapeSpace) {
+        char[] out = buffer;
+        int outPosition = position;
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c > 61 && c < 127) {
+                if (c == '\\') {
+                    out[outPosition++] = '\\';
+                }
+                out[outPosition++] = c;
+                continue;
+            }
+            switch (c) {
+                case ' ':
+                    if (i == 0 || escapeSpace) {
+                        out[outPosition++] = '\\';
+                    }
+                    out[outPosition++] = ' ';
+                    break;
+                case '\t':
+                    out[outPosition++] = '\\';
+                    out[outPosition++] = 't';
+                    break;
+                case '\n':
+                    out[outPosition++] = '\\';
+                    out[outPosition++] = 'n';
+                    break;
+                case '\r':
+                    out[outPosition++] = '\\';
+                    out[outPosition++] = 'r';
+                    break;
+                case '\f':
+                    out[outPosition++] = '\\';
+                    out[outPosition++] = 'f';
+                    break;
+                case '=':
+                case ':':
+                case '#':
+                case '!':
+                    out[outPosition++] = '\\';
+                    out[outPosition++] = c;
+                    break;
+                default:
+                    if ((c < 0x0020 || c > 0x007e) && escapeUnicode) {
+                        out[outPosition++] = '\\';
+                        out[outPosition++] = 'u';
+                        out[outPosition++] = HEX_DIGITS[(c >> 12) & 0xF];
+                        out[outPosition++] = HEX_DIGITS[(c >> 8) & 0xF];
+                        out[outPosition++] = HEX_DIGITS[(c >> 4) & 0xF];
+                        out[outPosition++] = HEX_DIGITS[c & 0xF];
+                    } else {
+                        out[outPosition++] = c;
+                    }
+            }
+        }
+        position = outPosition;
+    }
+
+    private void append(String text) {
+        int length = text.length();
+        text.getChars(0, length, buffer, position);
+        position += length;
+    }
+
+    /**
+     * Makes sure the buffer can take the given number of additional characters, flushing and growing it as needed.
+     */
+    private void ensureCapacity(int length) throws IOException {
+        if (position + length > buffer.length) {
+            flushBuffer();
+            if (length > buffer.length) {
+                buffer = new char[Math.max(length, 2 * buffer.length)];
+            }
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (position == 0) {
+            return;
+        }
+
+        if (writer != null) {
+            writer.write(buffer, 0, position);
+        } else {
+            // all characters are within the ISO 8859-1 range at this point, so they map directly to bytes
+            int offset = 0;
+            while (offset < position) {
+                int count = Math.min(position - offset, byteBuffer.length);
+                for (int i = 0; i < count; i++) {
+                    byteBuffer[i] = (byte) buffer[offset + i];
+                }
+                stream.write(byteBuffer, 0, count);
+                offset += count;
+            }
+        }
+        position = 0;
+    }
+
+}
@@ -0,0 +1,107 @@
+package nu.studer.java.util;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.InvalidPropertiesFormatException;
+import java.util.Map;
+
+/**
+ * Streaming parser for the XML properties format as specified by {@link java.util.Properties#loadFromXML(InputStream)}.
+ * <p/>
+ * The document is read through a {@link XMLStreamReader} and each entry is put straight into the target map as soon
+ * as it has been read, without building a tree of the document first. The structure of the document is validated
+ * against the rules of the properties DTD: a <tt>properties</tt> root element that contains an optional <tt>comment</tt>
+ * element followed by any number of <tt>entry</tt> elements with a <tt>key</tt> attribute and text content. A
+ * <tt>DOCTYPE</tt> declaration is accepted but never resolved, so no external resources are accessed while parsing.
+ */
+final class PropertiesXmlParser {
+
+    private static final String PROPERTIES_ELEMENT = "properties";
+    private static final String COMMENT_ELEMENT = "comment";
+    private static final String ENTRY_ELEMENT = "entry";
+    private static final String KEY_ATTRIBUTE = "key";
+
+    private final InputStream stream;
+
+    PropertiesXmlParser(InputStream stream) {
+        if (stream == null) {
+            throw new NullPointerException("stream must not be null");
+        }
+        this.stream = stream;
+    }
+
+    /**
+     * Parses all entries from the XML document and puts them into the given map, in the order they appear in the
+     * document. The stream is closed after the document has been parsed.
+     *
+     * @param target the map to put the parsed properties into
+     * @throws IOException                      if reading from the stream fails
+     * @throws InvalidPropertiesFormatException if the stream does not contain a valid XML properties document
+     */
+    @SuppressWarnings("DuplicateThrows")
+    void parse(Map<String, String> target) throws IOException, InvalidPropertiesFormatException {
+        try {
+            XMLStreamReader reader = createInputFactory().createXMLStreamReader(stream);
+            try {
+                parseDocument(reader, target);
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new InvalidPropertiesFormatException(e);
+        } finally {
+            stream.close();
+        }
+    }
+
+    private static void parseDocument(XMLStreamReader reader, Map<String, String> target) throws XMLStreamException, InvalidPropertiesFormatException {
+        // skip the prolog, including the DOCTYPE declaration, up to the root element
+        while (reader.next() != XMLStreamConstants.START_ELEMENT) {
+            if (reader.getEventType() == XMLStreamConstants.END_DOCUMENT) {
+                throw new InvalidPropertiesFormatException("Missing root element: " + PROPERTIES_ELEMENT);
+            }
+        }
+        expectElement(reader, PROPERTIES_ELEMENT);
+
+        boolean commentAllowed = true;
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            String name = reader.getLocalName();
+            if (commentAllowed && COMMENT_ELEMENT.equals(name)) {
+                reader.getElementText();
+            } else if (ENTRY_ELEMENT.equals(name)) {
+                String key = reader.getAttributeValue(null, KEY_ATTRIBUTE);
+                if (key == null) {
+                    throw new InvalidPropertiesFormatException("Missing attribute '" + KEY_ATTRIBUTE + "' of element: " + ENTRY_ELEMENT);
+                }
+                target.put(key, reader.getElementText());
+            } else {
+                throw new InvalidPropertiesFormatException("Unexpected element: " + name);
+            }
+            commentAllowed = false;
+        }
+
+        // consume the rest of the document to make sure it is well-formed
+        while (reader.hasNext()) {
+            reader.next();
+        }
+    }
+
+    private static void expectElement(XMLStreamReader reader, String name) throws InvalidPropertiesFormatException {
+        if (!name.equals(reader.getLocalName())) {
+            throw new InvalidPropertiesFormatException("Unexpected element: " + reader.getLocalName() + ", expected: " + name);
+        }
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        return factory;
+    }
+
+}
@@ -0,0 +1,145 @@
+package nu.studer.java.util;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.Map;
+
+/**
+ * Streaming writer for the XML properties format as specified by {@link java.util.Properties#storeToXML(OutputStream, String, String)}.
+ * <p/>
+ * Each entry is written to the stream as soon as it has been read from the source map, without building a tree of
+ * the document first. Characters that have a special meaning in XML are escaped, as are line breaks and tabs in
+ * attribute values and carriage returns in text, so that they survive reading the document back in. Characters that
+ * cannot be represented in the requested encoding are written as numeric character references.
+ */
+final class PropertiesXmlWriter {
+
+    private static final String PROPERTIES_DTD_DECLARATION = "<!DOCTYPE properties SYSTEM \"http://java.sun.com/dtd/properties.dtd\">";
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+    private final Writer writer;
+    private final CharsetEncoder encoder;
+    private final String encoding;
+
+    /**
+     * Creates a writer that writes to the given stream, using the given encoding.
+     *
+     * @param stream   the stream to write to
+     * @param encoding the name of the encoding to use
+     * @throws UnsupportedEncodingException if the encoding is not supported
+     */
+    PropertiesXmlWriter(OutputStream stream, String encoding) throws UnsupportedEncodingException {
+        if (stream == null) {
+            throw new NullPointerException("stream must not be null");
+        }
+        if (encoding == null) {
+            throw new NullPointerException("encoding must not be null");
+        }
+
+        Charset charset;
+        try {
+            charset = Charset.forName(encoding);
+        } catch (IllegalCharsetNameException e) {
+            throw new UnsupportedEncodingException(encoding);
+        } catch (UnsupportedCharsetException e) {
+            throw new UnsupportedEncodingException(encoding);
+        }
+
+        this.writer = new BufferedWriter(new OutputStreamWriter(stream, charset));
+        this.encoder = charset.newEncoder();
+        this.encoding = encoding;
+    }
+
+    /**
+     * Writes the given properties as an XML document, in the iteration order of the given map. The stream is flushed
+     * but not closed after the document has been written.
+     *
+     * @param properties the properties to write
+     * @param comment    the comment to write, or <tt>null</tt> for no comment
+     * @throws IOException if writing to the stream fails
+     */
+    void write(Map<String, String> properties, String comment) throws IOException {
+        writer.write("<?xml version=\"1.0\" encoding=\"");
+        writer.write(encoding);
+        writer.write("\" standalone=\"no\"?>");
+        writer.write(LINE_SEPARATOR);
+        writer.write(PROPERTIES_DTD_DECLARATION);
+        writer.write(LINE_SEPARATOR);
+        writer.write("<properties>");
+        writer.write(LINE_SEPARATOR);
+
+        if (comment != null) {
+            writer.write("<comment>");
+            writeEscaped(comment, false);
+            writer.write("</comment>");
+            writer.write(LINE_SEPARATOR);
+        }
+
+        for (Map.Entry<String, String> entry : properties.entrySet()) {
+            String value = entry.getValue();
+            writer.write("<entry key=\"");
+            writeEscaped(entry.getKey(), true);
+            if (value == null || value.isEmpty()) {
+                writer.write("\"/>");
+            } else {
+                writer.write("\">");
+                writeEscaped(value, false);
+                writer.write("</entry>");
+            }
+            writer.write(LINE_SEPARATOR);
+        }
+
+        writer.write("</properties>");
+        writer.write(LINE_SEPARATOR);
+        writer.flush();
+    }
+
+    private void writeEscaped(String text, boolean attribute) throws IOException {
+        int length = text.length();
+        int unescapedStart = 0;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            String replacement;
+            int charCount = 1;
+            if (c == '&') {
+                replacement = "&amp;";
+            } else if (c == '<') {
+                replacement = "&lt;";
+            } else if (c == '>') {
+                replacement = "&gt;";
+            } else if (c == '"' && attribute) {
+                replacement = "&quot;";
+            } else if (c == '\r' || (attribute && (c == '\n' || c == '\t')) || (c < 0x20 && c != '\n' && c != '\t')) {
+                replacement = "&#" + (int) c + ";";
+            } else if (c < 0x80) {
+                continue;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                if (encoder.canEncode(text.subSequence(i, i + 2))) {
+                    i++;
+                    continue;
+                }
+                replacement = "&#" + text.codePointAt(i) + ";";
+                charCount = 2;
+            } else if (encoder.canEncode(c)) {
+                continue;
+            } else {
+                replacement = "&#" + (int) c + ";";
+            }
+
+            writer.write(text, unescapedStart, i - unescapedStart);
+            writer.write(replacement);
+            i += charCount - 1;
+            unescapedStart = i + 1;
+        }
+        writer.write(text, unescapedStart, length - unescapedStart);
+    }
+
+}
@@ -0,0 +1,124 @@
+package nu.studer.java.util;
+
+import java.util.Objects;
+
+/**
+ * Change of a single property, consisting of its key, the kind of change, and its value before and after the change.
+ */
+public final class PropertyChange {
+
+    /**
+     * Kind of change of a property.
+     */
+    public enum Type {
+
+        /**
+         * The property was not present before the change.
+         */
+        ADDED,
+
+        /**
+         * The property was present before and after the change, with a different value.
+         */
+        CHANGED,
+
+        /**
+         * The property is not present after the change.
+         */
+        REMOVED
+
+    }
+
+    private final Type type;
+    private final String key;
+    private final String oldValue;
+    private final String newValue;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param type     the kind of change
+     * @param key      the key of the property
+     * @param oldValue the value before the change, or <tt>null</tt> if the property has been added
+     * @param newValue the value after the change, or <tt>null</tt> if the property has been removed
+     */
+    public PropertyChange(Type type, String key, String oldValue, String newValue) {
+        if (type == null) {
+            throw new NullPointerException("type must not be null");
+        }
+        this.type = type;
+        this.key = key;
+        this.oldValue = oldValue;
+        this.newValue = newValue;
+    }
+
+    /**
+     * Returns the kind of change.
+     *
+     * @return the kind of change
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Returns the key of the property.
+     *
+     * @return the key
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Returns the value of the property before the change.
+     *
+     * @return the old value, or <tt>null</tt> if the property has been added
+     */
+    public String getOldValue() {
+        return oldValue;
+    }
+
+    /**
+     * Returns the value of the property after the change.
+     *
+     * @return the new value, or <tt>null</tt> if the property has been removed
+     */
+    public String getNewValue() {
+        return newValue;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof PropertyChange)) {
+            return false;
+        }
+
+        PropertyChange that = (PropertyChange) other;
+        return type == that.type &&
+                Objects.equals(key, that.key) &&
+                Objects.equals(oldValue, that.oldValue) &&
+                Objects.equals(newValue, that.newValue);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(type, key, oldValue, newValue);
+    }
+
+    @Override
+    public String toString() {
+        switch (type) {
+            case ADDED:
+                return "+" + key + "=" + newValue;
+            case REMOVED:
+                return "-" + key + "=" + oldValue;
+            default:
+                return "~" + key + "=" + oldValue + "->" + newValue;
+        }
+    }
+
+}
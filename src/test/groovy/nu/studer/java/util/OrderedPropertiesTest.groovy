@@ -2,7 +2,23 @@ package nu.studer.java.util
 
 import spock.lang.Specification
 
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.time.Duration
+import java.util.concurrent.Callable
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.function.BiConsumer
+import java.util.function.Consumer
+
 import static nu.studer.java.util.OrderedProperties.OrderedPropertiesBuilder
+import static nu.studer.java.util.PropertiesWatcher.PropertiesWatcherBuilder
 
 class OrderedPropertiesTest extends Specification {
 
@@ -87,6 +103,57 @@ class OrderedPropertiesTest extends Specification {
     assert entrySet.collect { def entry -> entry.value } == ["222", "333", "111"]
   }
 
+  def "live views of keys and entries reflect changes in order"() {
+    setup:
+    def keys = props.keys()
+    def entries = props.entries()
+
+    when:
+    props.setProperty("b", "222")
+    props.setProperty("c", "333")
+    props.setProperty("a", "111")
+    props.removeProperty("c")
+
+    then:
+    keys as List == ["b", "a"]
+    entries.collect { def entry -> entry.key } == ["b", "a"]
+    entries.collect { def entry -> entry.value } == ["222", "111"]
+  }
+
+  def "live views of keys and entries are read-only"() {
+    setup:
+    props.setProperty("a", "111")
+
+    when:
+    modification.call(props)
+
+    then:
+    thrown(UnsupportedOperationException)
+    props.getProperty("a") == "111"
+
+    where:
+    modification << [
+        { it.keys().remove("a") },
+        { it.keys().clear() },
+        { it.entries().iterator().next().setValue("222") },
+        { it.entries().clear() },
+    ]
+  }
+
+  def "forEach visits the properties in order"() {
+    setup:
+    props.setProperty("b", "222")
+    props.setProperty("c", "333")
+    props.setProperty("a", "111")
+    def visited = []
+
+    when:
+    props.forEach({ key, value -> visited << "$key=$value".toString() } as BiConsumer)
+
+    then:
+    visited == ["b=222", "c=333", "a=111"]
+  }
+
   def "properties remain ordered when loading from stream"() {
     setup:
     def stream = asStream """\
@@ -129,6 +196,100 @@ d=
     props.getProperty("e") == null
   }
 
+  def "properties remain ordered when loading from path"() {
+    setup:
+    def path = asPath """\
+b=222
+c=333
+a=111
+d=
+"""
+    when:
+    props.load(path)
+
+    then:
+    props.propertyNames().toList() == ["b", "c", "a", "d"]
+    props.stringPropertyNames() == ["b", "c", "a", "d"] as Set
+    props.getProperty("b") == "222"
+    props.getProperty("c") == "333"
+    props.getProperty("a") == "111"
+    props.getProperty("d") == ""
+    props.getProperty("e") == null
+  }
+
+  def "loading from path yields the same properties as loading from stream"() {
+    setup:
+    def text = (1..5000).collect { "key$it=value $it \\\n  continued \u00e9" }.join("\n")
+    def streamProps = new OrderedProperties()
+    streamProps.load(asStream(text))
+
+    when:
+    props.load(asPath(text))
+
+    then:
+    props.size() == 5000
+    props == streamProps
+  }
+
+  def "loading from empty path yields no properties"() {
+    when:
+    props.load(asPath(""))
+
+    then:
+    props.isEmpty()
+  }
+
+  def "loading from path in parallel yields the same properties as loading sequentially"() {
+    setup:
+    def random = new Random(1)
+    def text = new StringBuilder()
+    200000.times {
+      text << "key${random.nextInt(50000)}=value $it"
+      if (random.nextInt(5) == 0) {
+        text << " \\\r\n  continued"
+      }
+      text << (random.nextBoolean() ? "\n" : "\r\n")
+      if (random.nextInt(20) == 0) {
+        text << "# comment \\\n"
+      }
+    }
+    def path = asPath(text.toString())
+    def pool = new ForkJoinPool(4)
+
+    def sequentialProps = new OrderedProperties()
+    sequentialProps.load(path)
+
+    when:
+    props = new OrderedPropertiesBuilder().withParallelLoad(pool).build()
+    props.load(path)
+
+    then:
+    props == sequentialProps
+    props.stringPropertyNames() as List == sequentialProps.stringPropertyNames() as List
+
+    cleanup:
+    pool.shutdown()
+  }
+
+  def "loading from path in parallel keeps the entries parsed before a malformed entry"() {
+    setup:
+    def text = (1..100000).collect { "key$it=value $it" }.join("\n") + "\nbad=\\u00\n" + (1..100000).collect { "other$it=value $it" }.join("\n")
+    def path = asPath(text)
+    def pool = new ForkJoinPool(4)
+    props = new OrderedPropertiesBuilder().withParallelLoad(pool).build()
+
+    when:
+    props.load(path)
+
+    then:
+    thrown(IllegalArgumentException)
+    props.size() == 100000
+    !props.containsProperty("other1")
+
+    cleanup:
+    pool.shutdown()
+  }
+
   def "properties remain ordered when loading from stream as xml"() {
     setup:
     def stream = asStream """\
@@ -244,6 +405,69 @@ d=
 """
   }
 
+  def "properties with special characters survive writing to and loading from stream as xml"() {
+    setup:
+    props.setProperty("k<&>\"'\n\t\r", "v<&>\"' \u00e9\u4e2d\t\r\n]]>")
+    props.setProperty("", "empty key")
+    props.setProperty("empty value", "")
+    def stream = new ByteArrayOutputStream()
+
+    when:
+    props.storeToXML(stream, "some <comment>", encoding)
+    def result = new OrderedProperties()
+    result.loadFromXML(new ByteArrayInputStream(stream.toByteArray()))
+
+    then:
+    result == props
+
+    where:
+    encoding << ["UTF-8", "ISO-8859-1", "US-ASCII", "UTF-16"]
+  }
+
+  def "loading from stream as xml rejects documents that do not match the properties dtd"() {
+    when:
+    props.loadFromXML(asStream(xml))
+
+    then:
+    thrown(InvalidPropertiesFormatException)
+
+    where:
+    xml << [
+        "",
+        "<other/>",
+        "<properties><foo/></properties>",
+        "<properties><entry>111</entry></properties>",
+        "<properties><entry key='a'><foo/></entry></properties>",
+        "<properties><entry key='a'>111</entry><comment>foo</comment></properties>",
+        "<properties>111</properties>",
+        "<properties><entry key='a'>111</entry>",
+    ]
+  }
+
+  def "loading from stream as xml does not resolve external entities"() {
+    setup:
+    def stream = asStream """\
+<?xml version="1.0" encoding="UTF-8" standalone="no"?>
+<!DOCTYPE properties SYSTEM "file:///does/not/exist.dtd">
+<properties>
+  <entry key="a">111</entry>
+</properties>
+"""
+    when:
+    props.loadFromXML(stream)
+
+    then:
+    props.getProperty("a") == "111"
+  }
+
+  def "storing to stream as xml with unsupported encoding fails"() {
+    when:
+    props.storeToXML(new ByteArrayOutputStream(), null, "FOO")
+
+    then:
+    thrown(UnsupportedEncodingException)
+  }
+
   def "properties remain ordered when serializing"() {
     setup:
     props.setProperty("b", "222")
@@ -285,6 +509,113 @@ d=
     result.getProperty("d") == null
   }
 
+  def "properties serialized by earlier versions can still be read"() {
+    setup:
+    def serialized = "rO0ABXNyACVudS5zdHVkZXIuamF2YS51dGlsLk9yZGVyZWRQcm9wZXJ0aWVzAAAAAAAAAAEDAAB4cHNyABdqYXZhLnV0aWwuTGlua2VkSGFzaE1hcDTATlwQbMD7AgABWgALYWNjZXNzT3JkZXJ4cgARamF2YS51dGlsLkhhc2hNYXAFB9rBwxZg0QMAAkYACmxvYWRGYWN0b3JJAAl0aHJlc2hvbGR4cD9AAAAAAAAMdwgAAAAQAAAAAnQAAWJ0AAExdAABYXQAATJ4AHcBAHg="
+
+    when:
+    OrderedProperties result = new ObjectInputStream(new ByteArrayInputStream(serialized.decodeBase64())).readObject() as OrderedProperties
+
+    then:
+    result.propertyNames().toList() == ["b", "a"]
+    result.getProperty("b") == "1"
+    result.getProperty("a") == "2"
+    result.getProperty("c", "default") == "default"
+  }
+
+  def "properties keep their entries and behavior when writing and reading the binary format"() {
+    setup:
+    def base = new OrderedProperties()
+    base.setProperty("inherited", "base")
+    props = builder.withDefaults(base).withSuppressDateInComment(true).build()
+    props.setProperty("b", "true")
+    props.setProperty("c", "\u20ac \u00e4")
+    props.setProperty("a", "true")
+    def source = frozen ? props.freeze() : props
+
+    when:
+    def outStream = new ByteArrayOutputStream()
+    source.writeBinary(outStream)
+    outStream.write(42)
+    def inStream = new ByteArrayInputStream(outStream.toByteArray())
+    def result = OrderedProperties.readBinary(inStream)
+
+    then:
+    result == source
+    result.entries()*.toString() == source.entries()*.toString()
+    result.getProperty("inherited") == "base"
+    result.isFrozen() == frozen
+    inStream.read() == 42
+
+    when:
+    def writer = new StringWriter()
+    result.store(writer, null)
+
+    then:
+    !writer.toString().startsWith("#")
+
+    where:
+    builder                                                                    | frozen
+    new OrderedPropertiesBuilder()                                             | false
+    new OrderedPropertiesBuilder()                                             | true
+    new OrderedPropertiesBuilder().withOrdering(String.CASE_INSENSITIVE_ORDER) | false
+    new OrderedPropertiesBuilder().withConcurrency(true)                       | false
+    new OrderedPropertiesBuilder().withCopyOnWrite(true)                       | false
+  }
+
+  def "binary format writes repeated values only once"() {
+    setup:
+    (1..1000).each { props.setProperty("key" + it, "some repeated value") }
+
+    when:
+    def outStream = new ByteArrayOutputStream()
+    props.writeBinary(outStream)
+
+    then:
+    outStream.size() < 1000 * "some repeated value".length()
+  }
+
+  def "binary format does not support custom comparators other than through serialization"() {
+    setup:
+    props = new OrderedPropertiesBuilder().withOrdering(Collections.reverseOrder()).build()
+    props.setProperty("a", "1")
+    props.setProperty("b", "2")
+
+    when:
+    def outStream = new ByteArrayOutputStream()
+    new ObjectOutputStream(outStream).writeObject(props)
+    OrderedProperties result = new ObjectInputStream(new ByteArrayInputStream(outStream.toByteArray())).readObject() as OrderedProperties
+    result.setProperty("c", "3")
+
+    then:
+    result.propertyNames().toList() == ["c", "b", "a"]
+
+    when:
+    props.writeBinary(new ByteArrayOutputStream())
+
+    then:
+    thrown(NotSerializableException)
+  }
+
+  def "reading the binary format fails for other data"() {
+    when:
+    OrderedProperties.readBinary(new ByteArrayInputStream(data as byte[]))
+
+    then:
+    thrown(exception)
+
+    where:
+    data                                                            | exception
+    "OPB".bytes                                                     | EOFException
+    "no binary properties".bytes                                    | StreamCorruptedException
+    [79, 80, 66, 9, 0, 0, 0, 0]                                     | StreamCorruptedException
+    [79, 80, 66, 1, 0, 0, 0, 2, 0, 1]                               | EOFException
+    [79, 80, 66, 1, 0, 0, 0, 4, 0, 1, 0, 0]                         | StreamCorruptedException
+    [79, 80, 66, 1, 0, 0, 0, 6, 0, -1, -1, -1, -1, 15]              | StreamCorruptedException
+    [79, 80, 66, 1, 0, 0, 0, 6, 0, -128, -128, -128, -128, 1]       | EOFException
+    [79, 80, 66, 1, 0, 0, 0, 7, -128, 8, -128, -128, -128, -128, 1] | EOFException
+  }
+
   def "properties remain ordered in toString()"() {
     setup:
     props.setProperty("bbb", "222")
@@ -364,6 +695,23 @@ a=111
 """
   }
 
+  def "date can be suppressed when writing non-ASCII characters to stream"() {
+    setup:
+    props = new OrderedPropertiesBuilder().withSuppressDateInComment(true).build()
+    props.setProperty("k\u00e9y", "\u00e4 \u20ac")
+    def stream = new ByteArrayOutputStream()
+    def writer = new StringWriter()
+
+    when:
+    props.store(stream, null)
+    props.store(writer, null)
+
+    then:
+    // written as Unicode escapes like by Properties#store(OutputStream, String), rather than as ISO 8859-1 bytes
+    stream.toString("ISO-8859-1") == "k\\u00E9y=\\u00E4 \\u20AC\n"
+    writer.toString() == "k\u00e9y=\u00e4 \u20ac\n"
+  }
+
   def "date can be suppressed for empty set of properties when writing to stream with comment"() {
     setup:
     props = new OrderedPropertiesBuilder().withSuppressDateInComment(true).build()
@@ -419,6 +767,28 @@ a=111
 """
   }
 
+  def "date can be suppressed when writing to writer with multi-line comment that contains comment characters"() {
+    setup:
+    props = new OrderedPropertiesBuilder().withSuppressDateInComment(true).build()
+    props.setProperty("b", "222")
+    props.setProperty("c", "333")
+    props.setProperty("a", "111")
+    def writer = new StringWriter()
+
+    when:
+    props.store(writer, "first line\n!second line\n#third line")
+
+    then:
+    writer.toString() == """\
+#first line
+!second line
+#third line
+b=222
+c=333
+a=111
+"""
+  }
+
   def "OrderedProperties can be converted to java.util.Properties"() {
     setup:
     props.setProperty("b", "222")
@@ -435,6 +805,86 @@ a=111
     jdkProperties.getProperty("a") == "111"
   }
 
+  def "java.util.Properties view is backed by the instance"() {
+    setup:
+    def defaults = new OrderedProperties()
+    defaults.setProperty("d", "444")
+    props = new OrderedPropertiesBuilder().withDefaults(defaults).build()
+    props.setProperty("b", "222")
+    props.setProperty("c", "333")
+    Properties view = props.asJdkProperties()
+
+    when:
+    props.setProperty("a", "111")
+
+    then:
+    view.size() == 3
+    view.get("a") == "111"
+    view.get("d") == null
+    view.getProperty("d") == "444"
+    view.keySet().asList() == ["b", "c", "a"]
+    view.stringPropertyNames().asList() == ["b", "c", "a", "d"]
+    view == [b: "222", c: "333", a: "111"]
+
+    when:
+    view.setProperty("x", "1")
+
+    then:
+    thrown(UnsupportedOperationException)
+  }
+
+  def "java.util.Properties view lists the properties in order"() {
+    setup:
+    props.setProperty("b", "222")
+    props.setProperty("a", "x" * 50)
+    def writer = new StringWriter()
+
+    when:
+    props.list(new PrintWriter(writer, true))
+
+    then:
+    writer.toString().readLines() == ["-- listing properties --", "b=222", "a=" + "x" * 37 + "..."]
+  }
+
+  def "write-through java.util.Properties view modifies the instance in batches"() {
+    setup:
+    def notified = []
+    props.addChangeListener({ changes -> notified << changes.toString() } as PropertiesChangeListener)
+    Properties view = props.asJdkProperties(true)
+
+    when:
+    view.setProperty("a", "1")
+    view.putAll([b: "2", c: "3"])
+    view.load(asReader("d=4\ne=5"))
+    view.remove("a")
+
+    then:
+    props.entries()*.toString() == ["b=2", "c=3", "d=4", "e=5"]
+    notified == ["[+a=1]", "[+b=2, +c=3]", "[+d=4, +e=5]", "[-a=1]"]
+
+    when:
+    view.clear()
+
+    then:
+    props.isEmpty()
+    notified.last() == "[-b=2, -c=3, -d=4, -e=5]"
+  }
+
+  def "java.util.Properties can be converted to OrderedProperties"() {
+    setup:
+    def jdkProperties = new Properties()
+    jdkProperties.setProperty("a", "111")
+    jdkProperties.put("b", 222)
+
+    when:
+    props.setProperty("z", "1")
+    props.setProperty("y", "2")
+
+    then:
+    OrderedProperties.fromJdkProperties(jdkProperties).entries()*.toString() == ["a=111"]
+    OrderedProperties.fromJdkProperties(props.asJdkProperties()).entries()*.toString() == ["z=1", "y=2"]
+  }
+
   def "instances are equal when same properties in same order"() {
     setup:
     props = new OrderedPropertiesBuilder().withOrdering(String.CASE_INSENSITIVE_ORDER).build()
@@ -467,35 +917,1427 @@ a=111
     assert props.hashCode() != otherProps.hashCode()
   }
 
-  def "copy constructor when default ordering is applied"() {
+  def "instances are not equal when different number of properties"() {
     setup:
-    props.setProperty("bbb", "222")
-    props.setProperty("ccc", "333")
-    props.setProperty("aaa", "111")
+    props.setProperty("a", "111")
+    props.setProperty("b", "222")
 
-    when:
-    OrderedProperties copy = OrderedProperties.copyOf(props)
-    copy.removeProperty("ccc")
+    def otherProps = new OrderedProperties()
+    otherProps.setProperty("a", "111")
 
-    then:
-    copy.stringPropertyNames() == ["bbb", "aaa"] as Set
-    props.stringPropertyNames() == ["bbb", "ccc", "aaa"] as Set
+    assert props != otherProps
+    assert otherProps != props
   }
 
-  def "copy constructor when custom ordering is applied"() {
+  def "hash code is the same as the hash code of the array of entries"() {
     setup:
-    def props = new OrderedPropertiesBuilder().withOrdering(String.CASE_INSENSITIVE_ORDER).build()
-    props.setProperty("bbb", "222")
-    props.setProperty("ccc", "333")
-    props.setProperty("aaa", "111")
-
-    when:
-    OrderedProperties copy = OrderedProperties.copyOf(props)
-    copy.removeProperty("ccc")
+    props.setProperty("a", "111")
+    props.setProperty("b", "")
+    props.setProperty("c", "333")
 
-    then:
-    copy.stringPropertyNames() == ["aaa", "bbb"] as Set
-    props.stringPropertyNames() == ["aaa", "bbb", "ccc"] as Set
+    assert props.hashCode() == Arrays.hashCode(props.entrySet().toArray())
+    assert new OrderedProperties().hashCode() == Arrays.hashCode(new Object[0])
+  }
+
+  def "hash code and equality reflect modifications of the properties"() {
+    setup:
+    props.setProperty("a", "111")
+    props.setProperty("b", "222")
+
+    def otherProps = OrderedProperties.copyOf(props)
+    def hashCode = props.hashCode()
+    assert props == otherProps
+    assert otherProps.hashCode() == hashCode
+
+    when:
+    props.setProperty("b", "333")
+
+    then:
+    props != otherProps
+    props.hashCode() != hashCode
+    props.hashCode() == Arrays.hashCode(props.entrySet().toArray())
+
+    when:
+    props.setProperty("b", "222")
+
+    then:
+    props == otherProps
+    props.hashCode() == hashCode
+
+    when:
+    props.removeProperty("b")
+    props.load(new StringReader("b=222"))
+
+    then:
+    props == otherProps
+    props.hashCode() == hashCode
+
+    when:
+    props.load(new StringReader("c=333"))
+
+    then:
+    props != otherProps
+    props.hashCode() == Arrays.hashCode(props.entrySet().toArray())
+  }
+
+  def "copy constructor when default ordering is applied"() {
+    setup:
+    props.setProperty("bbb", "222")
+    props.setProperty("ccc", "333")
+    props.setProperty("aaa", "111")
+
+    when:
+    OrderedProperties copy = OrderedProperties.copyOf(props)
+    copy.removeProperty("ccc")
+
+    then:
+    copy.stringPropertyNames() == ["bbb", "aaa"] as Set
+    props.stringPropertyNames() == ["bbb", "ccc", "aaa"] as Set
+  }
+
+  def "copy constructor when custom ordering is applied"() {
+    setup:
+    def props = new OrderedPropertiesBuilder().withOrdering(String.CASE_INSENSITIVE_ORDER).build()
+    props.setProperty("bbb", "222")
+    props.setProperty("ccc", "333")
+    props.setProperty("aaa", "111")
+
+    when:
+    OrderedProperties copy = OrderedProperties.copyOf(props)
+    copy.removeProperty("ccc")
+
+    then:
+    copy.stringPropertyNames() == ["aaa", "bbb"] as Set
+    props.stringPropertyNames() == ["aaa", "bbb", "ccc"] as Set
+  }
+
+  def "putting all properties keeps the position of existing properties"() {
+    setup:
+    def props = builder.build()
+    props.setProperty("b", "1")
+    def notified = []
+    props.addChangeListener({ changes -> notified << changes.toString() } as PropertiesChangeListener)
+
+    when:
+    props.putAll([c: "3", a: "2", b: "9"])
+
+    then:
+    props.entries()*.toString() == expected
+    notified == ["[+c=3, +a=2, ~b=1->9]"]
+
+    when:
+    def other = new OrderedProperties()
+    other.putAll(props)
+    props.putAll(props)
+
+    then:
+    other.entries()*.toString() == expected
+    props.entries()*.toString() == expected
+    notified.size() == 1
+
+    where:
+    builder                                                                                         | expected
+    new OrderedPropertiesBuilder()                                                                  | ["b=9", "c=3", "a=2"]
+    new OrderedPropertiesBuilder().withExpectedSize(1000)                                           | ["b=9", "c=3", "a=2"]
+    new OrderedPropertiesBuilder().withOrdering(String.CASE_INSENSITIVE_ORDER)                      | ["a=2", "b=9", "c=3"]
+    new OrderedPropertiesBuilder().withConcurrency(true).withExpectedSize(1000)                     | ["b=9", "c=3", "a=2"]
+    new OrderedPropertiesBuilder().withCopyOnWrite(true)                                            | ["b=9", "c=3", "a=2"]
+  }
+
+  def "copy has the same properties and behavior"() {
+    setup:
+    def props = builder.build()
+    props.setProperty("bbb", "222")
+    props.setProperty("CCC", "333")
+    props.setProperty("aaa", "111")
+
+    when:
+    def copy = OrderedProperties.copyOf(props)
+    def frozenCopy = OrderedProperties.copyOf(props.freeze())
+
+    then:
+    copy == props
+    copy.entries()*.toString() == props.entries()*.toString()
+    frozenCopy.entries()*.toString() == props.entries()*.toString()
+    copy.getProperty("ccc") == props.getProperty("ccc")
+
+    where:
+    builder << [new OrderedPropertiesBuilder(),
+                new OrderedPropertiesBuilder().withOrdering(String.CASE_INSENSITIVE_ORDER),
+                new OrderedPropertiesBuilder().withConcurrency(true),
+                new OrderedPropertiesBuilder().withCopyOnWrite(true).withOrdering(String.CASE_INSENSITIVE_ORDER)]
+  }
+
+  def "expected size must not be negative"() {
+    when:
+    new OrderedPropertiesBuilder().withExpectedSize(-1)
+
+    then:
+    thrown(IllegalArgumentException)
+  }
+
+  def "frozen copy has the same properties in the same order"() {
+    setup:
+    2000.times {
+      props.setProperty("key" + ((it * 7919) % 2000), "value$it")
+    }
+    props.setProperty("nullValue", null)
+
+    when:
+    def frozen = props.freeze()
+
+    then:
+    frozen.isFrozen()
+    !props.isFrozen()
+    frozen == props
+    frozen.hashCode() == props.hashCode()
+    frozen.stringPropertyNames().asList() == props.stringPropertyNames().asList()
+    props.stringPropertyNames().every { frozen.getProperty(it) == props.getProperty(it) && frozen.containsProperty(it) }
+    frozen.getProperty("nullValue") == null
+    frozen.containsProperty("nullValue")
+    frozen.getProperty("unknown") == null
+    !frozen.containsProperty("unknown")
+    frozen.getProperty("unknown", "default") == "default"
+    frozen.size() == props.size()
+  }
+
+  def "frozen copy looks up keys through the custom ordering"() {
+    setup:
+    props = new OrderedPropertiesBuilder().withOrdering(String.CASE_INSENSITIVE_ORDER).build()
+    props.setProperty("bbb", "222")
+    props.setProperty("ccc", "333")
+    props.setProperty("aaa", "111")
+
+    when:
+    def frozen = props.freeze()
+
+    then:
+    frozen.stringPropertyNames().asList() == ["aaa", "bbb", "ccc"]
+    frozen.getProperty("BBB") == "222"
+    frozen.containsProperty("Ccc")
+    !frozen.containsProperty("ddd")
+
+    when:
+    def copy = OrderedProperties.copyOf(frozen)
+    copy.setProperty("AAB", "112")
+
+    then:
+    !copy.isFrozen()
+    copy.stringPropertyNames().asList() == ["aaa", "AAB", "bbb", "ccc"]
+  }
+
+  def "frozen copy of empty properties"() {
+    when:
+    def frozen = props.freeze()
+
+    then:
+    frozen.isEmpty()
+    frozen.getProperty("aaa") == null
+    frozen == props
+    frozen.freeze().is(frozen)
+  }
+
+  def "frozen copy cannot be modified"() {
+    setup:
+    props.setProperty("aaa", "111")
+    def frozen = props.freeze()
+
+    when:
+    modification.call(frozen)
+
+    then:
+    thrown(UnsupportedOperationException)
+    frozen.getProperty("aaa") == "111"
+    frozen.size() == 1
+
+    where:
+    modification << [
+        { it.setProperty("bbb", "222") },
+        { it.setProperty("aaa", "222") },
+        { it.removeProperty("aaa") },
+        { it.removeProperty("bbb") },
+        { it.load(new StringReader("bbb=222")) },
+        { it.entries().clear() },
+    ]
+  }
+
+  def "frozen copy keeps the behavior of the source"() {
+    setup:
+    props = new OrderedPropertiesBuilder().withSuppressDateInComment(true).build()
+    props.setProperty("aaa", "111")
+    def frozen = props.freeze()
+
+    when:
+    def writer = new StringWriter()
+    frozen.store(writer, null)
+
+    then:
+    writer.toString() == "aaa=111" + System.getProperty("line.separator")
+  }
+
+  def "frozen copy survives serialization"() {
+    setup:
+    props.setProperty("bbb", "222")
+    props.setProperty("aaa", "111")
+    def frozen = props.freeze()
+
+    when:
+    def outStream = new ByteArrayOutputStream()
+    new ObjectOutputStream(outStream).writeObject(frozen)
+    OrderedProperties result = new ObjectInputStream(new ByteArrayInputStream(outStream.toByteArray())).readObject() as OrderedProperties
+
+    then:
+    result.isFrozen()
+    result == frozen
+    result.getProperty("aaa") == "111"
+  }
+
+  def "concurrent properties remain ordered by insertion"() {
+    setup:
+    props = new OrderedPropertiesBuilder().withConcurrency(true).build()
+
+    when:
+    props.setProperty("b", "222")
+    props.setProperty("c", "333")
+    props.setProperty("a", "111")
+    props.setProperty("b", "444")
+    props.removeProperty("c")
+    props.setProperty("c", "555")
+
+    then:
+    props.stringPropertyNames().asList() == ["b", "a", "c"]
+    props.getProperty("b") == "444"
+    props.getProperty("c") == "555"
+    props.getProperty("d") == null
+    props.containsProperty("a")
+    !props.containsProperty("d")
+    props.size() == 3
+    props.toString() == "{b=444, a=111, c=555}"
+  }
+
+  def "concurrent properties remain ordered using custom comparator"() {
+    setup:
+    props = new OrderedPropertiesBuilder().withConcurrency(true).withOrdering(String.CASE_INSENSITIVE_ORDER).build()
+
+    when:
+    props.setProperty("c", "333")
+    props.setProperty("B", "222")
+    props.setProperty("a", "111")
+
+    then:
+    props.stringPropertyNames().asList() == ["a", "B", "c"]
+    props.getProperty("b") == "222"
+  }
+
+  def "concurrent properties do not accept null values"() {
+    setup:
+    props = new OrderedPropertiesBuilder().withConcurrency(true).withOrdering(comparator).build()
+
+    when:
+    props.setProperty("a", null)
+
+    then:
+    thrown(NullPointerException)
+    !props.containsProperty("a")
+
+    where:
+    comparator << [null, String.CASE_INSENSITIVE_ORDER]
+  }
+
+  def "concurrent properties are equal to non-concurrent properties with the same properties in the same order"() {
+    setup:
+    props = new OrderedPropertiesBuilder().withConcurrency(true).build()
+    def otherProps = new OrderedProperties()
+    [props, otherProps].each {
+      it.setProperty("b", "222")
+      it.setProperty("a", "111")
+    }
+
+    def outStream = new ByteArrayOutputStream()
+    new ObjectOutputStream(outStream).writeObject(props)
+    OrderedProperties result = new ObjectInputStream(new ByteArrayInputStream(outStream.toByteArray())).readObject() as OrderedProperties
+
+    def copy = OrderedProperties.copyOf(props)
+
+    assert props == otherProps
+    assert props.hashCode() == otherProps.hashCode()
+    assert result == props
+    assert copy == props
+    assert props.freeze() == props
+
+    when:
+    copy.setProperty("c", null)
+
+    then:
+    thrown(NullPointerException)
+  }
+
+  def "concurrent properties can be modified and read by multiple threads"() {
+    setup:
+    props = new OrderedPropertiesBuilder().withConcurrency(true).withOrdering(comparator).build()
+    def pool = new ForkJoinPool(8)
+
+    when:
+    (0..<8).collect { thread ->
+      pool.submit({
+        10000.times {
+          props.setProperty("key$thread.$it", "value$it")
+          assert props.getProperty("key$thread.$it") == "value$it"
+          if (it % 2 == 0) {
+            props.removeProperty("key$thread.$it")
+          }
+          if (it % 1000 == 0) {
+            props.store(new StringWriter(), null)
+            props.entries().size()
+            props.hashCode()
+          }
+        }
+      } as Callable)
+    }.each { it.get() }
+
+    then:
+    props.size() == 8 * 5000
+    props.keys().every { props.getProperty(it) != null }
+    props == OrderedProperties.copyOf(props)
+
+    cleanup:
+    pool.shutdown()
+
+    where:
+    comparator << [null, String.CASE_INSENSITIVE_ORDER]
+  }
+
+  def "copy-on-write properties remain ordered"() {
+    setup:
+    props = new OrderedPropertiesBuilder().withCopyOnWrite(true).withOrdering(comparator).build()
+
+    when:
+    props.setProperty("b", "222")
+    props.setProperty("c", "333")
+    props.setProperty("a", "111")
+    props.removeProperty("c")
+    props.removeProperty("d")
+
+    then:
+    props.stringPropertyNames().asList() == expectedOrder
+    props.getProperty("a") == "111"
+    !props.containsProperty("c")
+    props.size() == 2
+
+    where:
+    comparator                    | expectedOrder
+    null                          | ["b", "a"]
+    String.CASE_INSENSITIVE_ORDER | ["a", "b"]
+  }
+
+  def "copy-on-write snapshot does not change when the properties are modified"() {
+    setup:
+    props = new OrderedPropertiesBuilder().withCopyOnWrite(true).build()
+    props.setProperty("a", "111")
+
+    when:
+    def snapshot = props.snapshot()
+    props.setProperty("a", "222")
+    props.setProperty("b", "333")
+
+    then:
+    snapshot.isFrozen()
+    snapshot.getProperty("a") == "111"
+    !snapshot.containsProperty("b")
+    props.snapshot().getProperty("a") == "222"
+    props.snapshot() == props
+  }
+
+  def "copy-on-write properties publish a batch of modifications at once"() {
+    setup:
+    props = new OrderedPropertiesBuilder().withCopyOnWrite(true).build()
+    props.setProperty("a", "111")
+    def snapshotsSeenInBatch = []
+
+    when:
+    props.update({ OrderedProperties batch ->
+      batch.setProperty("b", "222")
+      batch.removeProperty("a")
+      batch.load(new StringReader("c=333"))
+      snapshotsSeenInBatch << props.snapshot()
+    } as Consumer)
+
+    then:
+    snapshotsSeenInBatch*.stringPropertyNames()*.asList() == [["a"]]
+    props.stringPropertyNames().asList() == ["b", "c"]
+  }
+
+  def "batches of copy-on-write properties with defaults do not register as dependents of the defaults"() {
+    setup:
+    def base = new OrderedProperties()
+    base.setProperty("inherited", "1")
+    props = new OrderedPropertiesBuilder().withCopyOnWrite(true).withDefaults(base).build()
+
+    when:
+    10.times { i -> props.update { batch -> assert batch.getProperty("inherited") == "1"; batch.setProperty("a", "$i") } }
+    base.setProperty("inherited", "2")
+
+    then:
+    base.dependents.size() == 1
+    props.getProperty("a") == "9"
+    props.getProperty("inherited") == "2"
+  }
+
+  def "copy-on-write properties publish nothing when a batch of modifications fails"() {
+    setup:
+    props = new OrderedPropertiesBuilder().withCopyOnWrite(true).build()
+    props.setProperty("a", "111")
+
+    when:
+    props.update({ OrderedProperties batch ->
+      batch.setProperty("b", "222")
+      throw new IllegalStateException()
+    } as Consumer)
+
+    then:
+    thrown(IllegalStateException)
+    props.stringPropertyNames().asList() == ["a"]
+  }
+
+  def "copy-on-write properties publish nothing when loading fails"() {
+    setup:
+    props = new OrderedPropertiesBuilder().withCopyOnWrite(true).build()
+    props.setProperty("a", "111")
+
+    when:
+    props.load(asReader("b=222\nc=\\u00"))
+
+    then:
+    thrown(IllegalArgumentException)
+    props.stringPropertyNames().asList() == ["a"]
+  }
+
+  def "batch of modifications is applied directly to properties without copy-on-write"() {
+    when:
+    props.update({ OrderedProperties batch ->
+      assert batch.is(props)
+      batch.setProperty("a", "111")
+    } as Consumer)
+
+    then:
+    props.getProperty("a") == "111"
+  }
+
+  def "copy-on-write readers always see complete batches"() {
+    setup:
+    props = new OrderedPropertiesBuilder().withCopyOnWrite(true).build()
+    def keys = (0..<100).collect { "key$it".toString() }
+    props.update({ OrderedProperties batch -> keys.each { batch.setProperty(it, "0") } } as Consumer)
+    def pool = new ForkJoinPool(4)
+    def running = new AtomicBoolean(true)
+
+    when:
+    def readers = (0..<3).collect {
+      pool.submit({
+        def inconsistentReads = 0
+        while (running.get()) {
+          def snapshot = props.snapshot()
+          if (snapshot.entries()*.value.unique().size() != 1) {
+            inconsistentReads++
+          }
+        }
+        inconsistentReads
+      } as Callable)
+    }
+    1000.times { version ->
+      props.update({ OrderedProperties batch -> keys.each { batch.setProperty(it, "$version".toString()) } } as Consumer)
+    }
+    running.set(false)
+
+    then:
+    readers*.get() == [0, 0, 0]
+    props.getProperty("key0") == "999"
+
+    cleanup:
+    pool.shutdown()
+  }
+
+  def "properties fall through to the chain of default properties"() {
+    setup:
+    def base = new OrderedProperties()
+    base.setProperty("a", "base-a")
+    base.setProperty("z", "base-z")
+    def middle = new OrderedPropertiesBuilder().withDefaults(base).build()
+    middle.setProperty("b", "middle-b")
+    middle.setProperty("a", "middle-a")
+    props = new OrderedPropertiesBuilder().withDefaults(middle).build()
+    props.setProperty("c", "top-c")
+    props.setProperty("d", null)
+
+    expect:
+    props.getProperty("a") == "middle-a"
+    props.getProperty("b") == "middle-b"
+    props.getProperty("c") == "top-c"
+    props.getProperty("z") == "base-z"
+    props.getProperty("x") == null
+    props.getProperty("x", "default") == "default"
+    props.getProperty("z", "default") == "base-z"
+    !props.containsProperty("a")
+    props.size() == 2
+  }
+
+  def "property names of this instance come before the ones of the default properties"() {
+    setup:
+    def base = new OrderedProperties()
+    base.setProperty("z", "base-z")
+    base.setProperty("a", "base-a")
+    def middle = new OrderedPropertiesBuilder().withDefaults(base).build()
+    middle.setProperty("b", "middle-b")
+    middle.setProperty("a", "middle-a")
+    props = new OrderedPropertiesBuilder().withDefaults(middle).build()
+    props.setProperty("c", "top-c")
+    props.setProperty("z", "top-z")
+
+    expect:
+    props.stringPropertyNames().asList() == ["c", "z", "b", "a"]
+    props.propertyNames().toList() == ["c", "z", "b", "a"]
+    middle.stringPropertyNames().asList() == ["b", "a", "z"]
+    props.keys().asList() == ["c", "z"]
+  }
+
+  def "modifying the default properties is reflected in the properties that fall through to them"() {
+    setup:
+    def base = new OrderedProperties()
+    base.setProperty("a", "base-a")
+    def middle = new OrderedPropertiesBuilder().withDefaults(base).build()
+    props = new OrderedPropertiesBuilder().withDefaults(middle).build()
+    assert props.getProperty("a") == "base-a"
+
+    when:
+    base.setProperty("a", "changed-a")
+    base.load(asReader("b=base-b"))
+
+    then:
+    props.getProperty("a") == "changed-a"
+    props.getProperty("b") == "base-b"
+    props.stringPropertyNames().asList() == ["a", "b"]
+
+    when:
+    middle.setProperty("a", "middle-a")
+    base.removeProperty("b")
+
+    then:
+    props.getProperty("a") == "middle-a"
+    props.getProperty("b") == null
+    props.stringPropertyNames().asList() == ["a"]
+  }
+
+  def "properties with the same default properties share the flattened default properties"() {
+    setup:
+    def base = new OrderedProperties()
+    base.setProperty("a", "base-a")
+    def first = new OrderedPropertiesBuilder().withDefaults(base).build()
+    def second = new OrderedPropertiesBuilder().withDefaults(base).build()
+
+    expect:
+    first.getProperty("a") == "base-a"
+    second.getProperty("a") == "base-a"
+    first.inheritedProperties().is(second.inheritedProperties())
+
+    when:
+    def before = first.inheritedProperties()
+    base.setProperty("a", "changed-a")
+
+    then:
+    first.getProperty("a") == "changed-a"
+    second.getProperty("a") == "changed-a"
+    !first.inheritedProperties().is(before)
+    first.inheritedProperties().is(second.inheritedProperties())
+  }
+
+  def "default properties survive copying, freezing, serializing, and converting"() {
+    setup:
+    def base = new OrderedProperties()
+    base.setProperty("a", "base-a")
+    props = new OrderedPropertiesBuilder().withDefaults(base).build()
+    props.setProperty("b", "b")
+
+    when:
+    def outStream = new ByteArrayOutputStream()
+    new ObjectOutputStream(outStream).writeObject(props)
+    OrderedProperties result = new ObjectInputStream(new ByteArrayInputStream(outStream.toByteArray())).readObject() as OrderedProperties
+
+    then:
+    OrderedProperties.copyOf(props).getProperty("a") == "base-a"
+    props.freeze().getProperty("a") == "base-a"
+    result.getProperty("a") == "base-a"
+    result.stringPropertyNames().asList() == ["b", "a"]
+    props.toJdkProperties().getProperty("a") == "base-a"
+    props.toJdkProperties().size() == 1
+  }
+
+  def "typed values are converted from the value of the property"() {
+    setup:
+    props.load(asReader("""\
+int = 42
+negativeInt=-7
+long=9000000000
+boolean=TRUE
+otherBoolean=false
+duration=PT1M30S
+shortDuration=250ms
+days=2d
+"""))
+
+    expect:
+    props.getInt("int", 0) == 42
+    props.getInt("negativeInt", 0) == -7
+    props.getInt("missing", 5) == 5
+    props.getLong("long", 0L) == 9000000000L
+    props.getLong("int", 0L) == 42L
+    props.getLong("missing", 5L) == 5L
+    props.getBoolean("boolean", false)
+    !props.getBoolean("otherBoolean", true)
+    props.getBoolean("missing", true)
+    props.getDuration("duration", null) == Duration.ofSeconds(90)
+    props.getDuration("shortDuration", null) == Duration.ofMillis(250)
+    props.getDuration("days", null) == Duration.ofDays(2)
+    props.getDuration("missing", Duration.ofSeconds(1)) == Duration.ofSeconds(1)
+  }
+
+  def "typed values reflect modifications of the properties"() {
+    setup:
+    def base = new OrderedProperties()
+    base.setProperty("inherited", "1")
+    props = new OrderedPropertiesBuilder().withDefaults(base).build()
+    props.setProperty("a", "1")
+    assert props.getInt("a", 0) == 1
+    assert props.getInt("a", 0) == 1
+    assert props.getInt("inherited", 0) == 1
+
+    when:
+    props.setProperty("a", "2")
+    base.setProperty("inherited", "3")
+
+    then:
+    props.getInt("a", 0) == 2
+    props.getLong("a", 0L) == 2L
+    props.getInt("inherited", 0) == 3
+
+    when:
+    props.load(asReader("a=4"))
+
+    then:
+    props.getInt("a", 0) == 4
+
+    when:
+    props.removeProperty("a")
+
+    then:
+    props.getInt("a", 0) == 0
+  }
+
+  def "typed values fail for values that cannot be converted"() {
+    setup:
+    props.setProperty("a", value)
+
+    when:
+    accessor.call(props)
+
+    then:
+    thrown(exception)
+
+    where:
+    value               | accessor                               | exception
+    "abc"               | { it.getInt("a", 0) }                  | NumberFormatException
+    "9000000000"        | { it.getInt("a", 0) }                  | NumberFormatException
+    "1.5"               | { it.getLong("a", 0L) }                | NumberFormatException
+    "yes"               | { it.getBoolean("a", false) }          | IllegalArgumentException
+    "30"                | { it.getDuration("a", Duration.ZERO) } | IllegalArgumentException
+    "30 weeks"          | { it.getDuration("a", Duration.ZERO) } | IllegalArgumentException
+    "PXYZ"              | { it.getDuration("a", Duration.ZERO) } | IllegalArgumentException
+    "9999999999999999d" | { it.getDuration("a", Duration.ZERO) } | IllegalArgumentException
+  }
+
+  def "placeholders are resolved against the properties"() {
+    setup:
+    def base = new OrderedProperties()
+    base.setProperty("host", "localhost")
+    props = new OrderedPropertiesBuilder().withDefaults(base).build()
+    props.load(asReader('''\
+port=8080
+url=http://${host}:${port}/${path}
+path=${root}/app
+root=api
+unknown=${missing} and ${unclosed
+'''))
+
+    expect:
+    props.getInterpolatedProperty("url") == "http://localhost:8080/api/app"
+    props.getInterpolatedProperty("path") == "api/app"
+    props.getInterpolatedProperty("port") == "8080"
+    props.getInterpolatedProperty("unknown") == '${missing} and ${unclosed'
+    props.getInterpolatedProperty("missing") == null
+    props.getInterpolatedProperty("missing", "default") == "default"
+    props.getProperty("url") == 'http://${host}:${port}/${path}'
+    props.interpolated().stringPropertyNames().asList() == ["port", "url", "path", "root", "unknown", "host"]
+    props.interpolated().getProperty("url") == "http://localhost:8080/api/app"
+  }
+
+  def "resolved placeholders reflect modifications of the properties"() {
+    setup:
+    def base = new OrderedProperties()
+    base.setProperty("host", "localhost")
+    props = new OrderedPropertiesBuilder().withDefaults(base).build()
+    props.setProperty("url", 'http://${host}/${path}')
+    props.setProperty("path", '${root}/app')
+    props.setProperty("root", "api")
+    props.setProperty("other", '${host}')
+    assert props.getInterpolatedProperty("url") == "http://localhost/api/app"
+    assert props.getInterpolatedProperty("other") == "localhost"
+
+    when:
+    props.setProperty("root", "v2")
+
+    then:
+    props.getInterpolatedProperty("url") == "http://localhost/v2/app"
+    props.getInterpolatedProperty("path") == "v2/app"
+
+    when:
+    base.setProperty("host", "example.com")
+
+    then:
+    props.getInterpolatedProperty("url") == "http://example.com/v2/app"
+    props.getInterpolatedProperty("other") == "example.com"
+
+    when:
+    props.removeProperty("path")
+    props.load(asReader("host=override"))
+
+    then:
+    props.getInterpolatedProperty("url") == 'http://override/${path}'
+    props.getInterpolatedProperty("other") == "override"
+  }
+
+  def "circular placeholder references are detected"() {
+    setup:
+    props.setProperty("a", 'x${b}')
+    props.setProperty("b", '${c}')
+    props.setProperty("c", '${a}')
+    props.setProperty("self", '${self}')
+
+    when:
+    props.getInterpolatedProperty("a")
+
+    then:
+    def e = thrown(IllegalStateException)
+    e.message == "Circular placeholder reference: a -> b -> c -> a"
+
+    when:
+    props.getInterpolatedProperty("self")
+
+    then:
+    thrown(IllegalStateException)
+
+    when:
+    props.setProperty("c", "c")
+
+    then:
+    props.getInterpolatedProperty("a") == "xc"
+  }
+
+  def "placeholders are resolved against system properties only if enabled"() {
+    setup:
+    System.setProperty("ordered.properties.test", "system")
+    props.setProperty("a", '${ordered.properties.test}')
+    def withSystemProperties = new OrderedPropertiesBuilder().withSystemPropertiesInterpolation(true).build()
+    withSystemProperties.setProperty("a", '${ordered.properties.test}')
+    def outStream = new ByteArrayOutputStream()
+    new ObjectOutputStream(outStream).writeObject(withSystemProperties)
+    OrderedProperties deserialized = new ObjectInputStream(new ByteArrayInputStream(outStream.toByteArray())).readObject() as OrderedProperties
+
+    expect:
+    props.getInterpolatedProperty("a") == '${ordered.properties.test}'
+    withSystemProperties.getInterpolatedProperty("a") == "system"
+    OrderedProperties.copyOf(withSystemProperties).getInterpolatedProperty("a") == "system"
+    deserialized.getInterpolatedProperty("a") == "system"
+
+    cleanup:
+    System.clearProperty("ordered.properties.test")
+  }
+
+  def "long chains of placeholders are resolved"() {
+    setup:
+    props.setProperty("key0", "value")
+    for (int i = 1; i < 50000; i++) {
+      props.setProperty("key" + i, '${key' + (i - 1) + '}')
+    }
+
+    expect:
+    props.getInterpolatedProperty("key49999") == "value"
+    props.interpolated().getProperty("key12345") == "value"
+  }
+
+  def "subset contains the properties with the given prefix in the order of the properties"() {
+    setup:
+    props = builder.build()
+    props.setProperty("db.pool.max", "10")
+    props.setProperty("server.port", "8080")
+    props.setProperty("DB.url", "jdbc")
+    props.setProperty("db.user", "sa")
+    props.setProperty("db.pool.min", "1")
+    props.setProperty("dbx", "other")
+
+    expect:
+    props.subset("db.").entries()*.toString() == expected
+    props.freeze().subset("db.").entries()*.toString() == expected
+    props.subset("db.pool.").size() == 2
+    props.subset("missing.").isEmpty()
+    props.subset("").size() == 6
+
+    where:
+    builder                                                                    | expected
+    new OrderedPropertiesBuilder()                                             | ["db.pool.max=10", "db.user=sa", "db.pool.min=1"]
+    new OrderedPropertiesBuilder().withOrdering(String.CASE_INSENSITIVE_ORDER) | ["db.pool.max=10", "db.pool.min=1", "db.user=sa"]
+    new OrderedPropertiesBuilder().withConcurrency(true)                       | ["db.pool.max=10", "db.user=sa", "db.pool.min=1"]
+    new OrderedPropertiesBuilder().withCopyOnWrite(true)                       | ["db.pool.max=10", "db.user=sa", "db.pool.min=1"]
+  }
+
+  def "subset reflects modifications of the properties"() {
+    setup:
+    props.setProperty("db.a", "1")
+    props.setProperty("db.b", "2")
+    props.setProperty("other", "3")
+    assert props.subset("db.").keys().asList() == ["db.a", "db.b"]
+
+    when:
+    props.removeProperty("db.a")
+    props.setProperty("db.c", "4")
+    props.setProperty("db.a", "5")
+    props.setProperty("db.b", "6")
+
+    then:
+    props.subset("db.").entries()*.toString() == ["db.b=6", "db.c=4", "db.a=5"]
+
+    when:
+    props.load(asReader("db.d=7"))
+
+    then:
+    props.subset("db.").keys().asList() == ["db.b", "db.c", "db.a", "db.d"]
+  }
+
+  def "subset reflects keys of different spelling with case-insensitive ordering"() {
+    setup:
+    def sorted = new OrderedPropertiesBuilder().withOrdering(String.CASE_INSENSITIVE_ORDER).build()
+    sorted.setProperty("Abc", "1")
+    assert sorted.subset("A").entries()*.toString() == ["Abc=1"]
+
+    when:
+    sorted.setProperty("ABC", "2")
+
+    then:
+    sorted.entries()*.toString() == ["Abc=2"]
+    sorted.subset("A").entries()*.toString() == ["Abc=2"]
+
+    when:
+    sorted.removeProperty("ABC")
+
+    then:
+    sorted.isEmpty()
+    sorted.subset("A").isEmpty()
+  }
+
+  def "subset includes the default properties with the given prefix"() {
+    setup:
+    def base = new OrderedProperties()
+    base.setProperty("db.url", "jdbc")
+    base.setProperty("db.user", "base")
+    base.setProperty("server.port", "8080")
+    props = new OrderedPropertiesBuilder().withDefaults(base).build()
+    props.setProperty("db.user", "sa")
+
+    when:
+    def subset = props.subset("db.")
+
+    then:
+    subset.stringPropertyNames().asList() == ["db.user", "db.url"]
+    subset.getProperty("db.user") == "sa"
+    subset.getProperty("db.url") == "jdbc"
+    subset.getProperty("server.port") == null
+  }
+
+  def "entries of copy-on-write properties reflect later versions"() {
+    setup:
+    props = new OrderedPropertiesBuilder().withCopyOnWrite(true).build()
+    props.setProperty("a", "1")
+    def entries = props.entries()
+    assert entries*.toString() == ["a=1"]
+
+    when:
+    props.setProperty("b", "2")
+
+    then:
+    entries*.toString() == ["a=1", "b=2"]
+    props.keys().asList() == ["a", "b"]
+  }
+
+  def "loaded keys and values share the strings of the pool"() {
+    setup:
+    def builder = new OrderedPropertiesBuilder().withStringPool(pool)
+    def first = builder.build()
+    def second = builder.build()
+    def third = builder.build()
+
+    when:
+    first.load(asReader("enabled=true\nother=true\n"))
+    second.load(asPath("enabled=true\n"))
+    third.reload(asReader("enabled=true\n"))
+
+    then:
+    first.keys()[0].is(second.keys()[0])
+    first.keys()[0].is(third.keys()[0])
+    first.getProperty("enabled").is(first.getProperty("other"))
+    first.getProperty("enabled").is(second.getProperty("enabled"))
+    pool.getLookupCount() == 8
+    pool.getHitCount() == 5
+    pool.getHitRate() == 5 / 8
+    pool.getEstimatedBytesSaved() > 0
+
+    where:
+    pool << [PropertiesStringPool.weak(), PropertiesStringPool.bounded(1024)]
+  }
+
+  def "strings set individually are not pooled"() {
+    setup:
+    def pool = PropertiesStringPool.weak()
+    def props = new OrderedPropertiesBuilder().withStringPool(pool).build()
+
+    when:
+    props.setProperty("a", "b")
+
+    then:
+    pool.getLookupCount() == 0
+    OrderedProperties.copyOf(props).getProperty("a") == "b"
+  }
+
+  def "bounded string pool must have a positive capacity"() {
+    when:
+    PropertiesStringPool.bounded(0)
+
+    then:
+    thrown(IllegalArgumentException)
+  }
+
+  def "reloading applies only the changed properties"() {
+    setup:
+    def file = asPath("a=1\nb=2\nc=3\n")
+    assert props.reload(file).getAddedKeys().asList() == ["a", "b", "c"]
+
+    when:
+    file.toFile().text = "d=4\nb=22\na=1\n"
+    def changes = props.reload(file)
+
+    then:
+    changes.getChanges()*.toString() == ["+d=4", "~b=2->22", "-c=3"]
+    changes.getAddedKeys().asList() == ["d"]
+    changes.getChangedKeys().asList() == ["b"]
+    changes.getRemovedKeys().asList() == ["c"]
+    props.entries()*.toString() == ["d=4", "b=22", "a=1"]
+
+    when:
+    changes = props.reload(asReader("a=1\nb=22\n"))
+
+    then:
+    changes.getChanges() == [new PropertyChange(PropertyChange.Type.REMOVED, "d", "4", null)]
+    props.entries()*.toString() == ["a=1", "b=22"]
+  }
+
+  def "reloading keeps the properties in the order of the file"() {
+    setup:
+    props = builder.build()
+    props.reload(asReader("a=1\nb=2\nc=3\n"))
+
+    when:
+    def changes = props.reload(asReader("c=3\na=1\nb=2\n"))
+
+    then:
+    changes.isEmpty()
+    props.entries()*.toString() == ["c=3", "a=1", "b=2"]
+
+    when:
+    changes = props.reload(asReader("c=3\nnew=4\nb=22\na=1\n"))
+    def writer = new StringWriter()
+    props.store(writer, null)
+
+    then:
+    changes.getChanges()*.toString() == ["+new=4", "~b=2->22"]
+    props.entries()*.toString() == ["c=3", "new=4", "b=22", "a=1"]
+    writer.toString() endsWith """
+c=3
+new=4
+b=22
+a=1
+"""
+
+    where:
+    builder << [new OrderedPropertiesBuilder(),
+                new OrderedPropertiesBuilder().withCopyOnWrite(true),
+                new OrderedPropertiesBuilder().withCompactStorage(true),
+                new OrderedPropertiesBuilder().withOffHeapStorage(true)]
+  }
+
+  def "reloading unchanged content does not change the properties"() {
+    setup:
+    def file = asPath("a=1\nb=2\n")
+    props.reload(file)
+
+    expect:
+    props.reload(file).isEmpty()
+    props.reload(asReader("a=1\nb=2\n")).isEmpty()
+    props.reload(asReader("a=1\nb=2\n")).isEmpty()
+
+    when:
+    props.setProperty("b", "modified")
+    def changes = props.reload(file)
+
+    then:
+    changes.getChanges()*.toString() == ["~b=modified->2"]
+    props.getProperty("b") == "2"
+  }
+
+  def "reloading publishes a single version of copy-on-write properties"() {
+    setup:
+    props = new OrderedPropertiesBuilder().withCopyOnWrite(true).withOrdering(String.CASE_INSENSITIVE_ORDER).build()
+    props.reload(asReader("Key=1\nother=2\n"))
+    def snapshot = props.snapshot()
+
+    when:
+    def changes = props.reload(asReader("KEY=1\nother=3\nnew=4\n"))
+
+    then:
+    changes.getChanges()*.toString() == ["+new=4", "~other=2->3"]
+    props.entries()*.toString() == ["Key=1", "new=4", "other=3"]
+    snapshot.entries()*.toString() == ["Key=1", "other=2"]
+  }
+
+  def "reloading frozen properties fails"() {
+    when:
+    props.freeze().reload(asReader("a=1"))
+
+    then:
+    thrown(UnsupportedOperationException)
+  }
+
+  def "change listeners are notified of single changes and of batches of changes"() {
+    setup:
+    props = builder.build()
+    def notified = []
+    props.addChangeListener({ changes -> notified << changes.getChanges()*.toString() } as PropertiesChangeListener)
+
+    when:
+    props.setProperty("a", "1")
+    props.setProperty("a", "1")
+    props.setProperty("a", "2")
+    props.removeProperty("a")
+    props.removeProperty("unknown")
+    props.load(asReader("x=1\ny=2\nx=3\n"))
+    props.update({ target ->
+      target.setProperty("x", "9")
+      target.setProperty("x", "3")
+      target.setProperty("z", "1")
+      target.removeProperty("y")
+    } as Consumer)
+    props.reload(asReader("x=4\n"))
+
+    then:
+    notified == [["+a=1"], ["~a=1->2"], ["-a=2"], ["+x=3", "+y=2"], ["+z=1", "-y=2"], ["~x=3->4", "-z=1"]]
+
+    where:
+    builder << [new OrderedPropertiesBuilder(), new OrderedPropertiesBuilder().withConcurrency(true), new OrderedPropertiesBuilder().withCopyOnWrite(true)]
+  }
+
+  def "change listeners are not notified of failed copy-on-write batches"() {
+    setup:
+    props = new OrderedPropertiesBuilder().withCopyOnWrite(true).build()
+    def notified = []
+    props.addChangeListener({ changes -> notified << changes.toString() } as PropertiesChangeListener)
+
+    when:
+    props.update({ target ->
+      target.setProperty("a", "1")
+      throw new IllegalStateException()
+    } as Consumer)
+
+    then:
+    thrown(IllegalStateException)
+    notified.isEmpty()
+    props.isEmpty()
+  }
+
+  def "change listeners can be notified through an executor and be removed"() {
+    setup:
+    def executor = Executors.newSingleThreadExecutor()
+    def notified = new LinkedBlockingQueue<String>()
+    def listener = { changes -> notified.add(Thread.currentThread().getName() + ":" + changes) } as PropertiesChangeListener
+    props.addChangeListener(listener, { command -> executor.execute({ Thread.currentThread().setName("notifier"); command.run() }) } as Executor)
+
+    when:
+    props.setProperty("a", "1")
+
+    then:
+    notified.poll(10, TimeUnit.SECONDS) == "notifier:[+a=1]"
+
+    when:
+    props.removeChangeListener(listener)
+    props.setProperty("a", "2")
+
+    then:
+    notified.poll(100, TimeUnit.MILLISECONDS) == null
+
+    cleanup:
+    executor.shutdown()
+  }
+
+  def "watched files are reloaded when written in place or replaced through a rename"() {
+    setup:
+    props = new OrderedPropertiesBuilder().withCopyOnWrite(true).build()
+    def directory = Files.createTempDirectory("ordered")
+    def file = directory.resolve("watched.properties")
+    file.toFile().text = "a=1\n"
+    def changes = new LinkedBlockingQueue<PropertiesChangeSet>()
+    def watcher = new PropertiesWatcherBuilder()
+        .watch(file, props)
+        .withDebounce(Duration.ofMillis(50))
+        .withListener({ path, changeSet -> changes.add(changeSet) } as BiConsumer)
+        .build()
+
+    expect:
+    props.entries()*.toString() == ["a=1"]
+
+    when:
+    file.toFile().text = "a=2\n"
+
+    then:
+    changes.poll(30, TimeUnit.SECONDS)*.toString() == ["~a=1->2"]
+
+    when:
+    def temp = directory.resolve("watched.properties.tmp")
+    temp.toFile().text = "a=2\nb=3\n"
+    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+
+    then:
+    changes.poll(30, TimeUnit.SECONDS)*.toString() == ["+b=3"]
+    props.entries()*.toString() == ["a=2", "b=3"]
+
+    when:
+    watcher.close()
+    file.toFile().text = "c=4\n"
+
+    then:
+    !watcher.isWatching()
+    changes.poll(500, TimeUnit.MILLISECONDS) == null
+    props.entries()*.toString() == ["a=2", "b=3"]
+  }
+
+  def "watcher is closed when the error handler throws an exception"() {
+    setup:
+    def file = asPath("a=1")
+    def threads = new LinkedBlockingQueue<Thread>()
+    def watcher = new PropertiesWatcherBuilder()
+        .watch(file, props)
+        .withDebounce(Duration.ZERO)
+        .withThreadFactory({ runnable ->
+          def thread = new Thread(runnable)
+          thread.setUncaughtExceptionHandler({ t, e -> } as Thread.UncaughtExceptionHandler)
+          threads.add(thread)
+          thread
+        } as ThreadFactory)
+        .withListener({ path, changeSet -> throw new IllegalStateException("listener") } as BiConsumer)
+        .withErrorHandler({ path, e -> throw new IllegalStateException("handler") } as BiConsumer)
+        .build()
+
+    when:
+    file.toFile().text = "a=2\n"
+    threads.poll().join(30000)
+
+    then:
+    !watcher.isWatching()
+  }
+
+  def "watching the same file or properties twice fails"() {
+    setup:
+    def file = asPath("a=1")
+
+    when:
+    new PropertiesWatcherBuilder().watch(file, props).watch(file, new OrderedProperties())
+
+    then:
+    thrown(IllegalArgumentException)
+
+    when:
+    new PropertiesWatcherBuilder().watch(file, props).watch(asPath("b=2"), props)
+
+    then:
+    thrown(IllegalArgumentException)
+  }
+
+  def "different properties with equal content can be watched for different files"() {
+    setup:
+    def first = new OrderedProperties()
+    def second = new OrderedProperties()
+
+    when:
+    new PropertiesWatcherBuilder().watch(asPath("a=1"), first).watch(asPath("b=2"), second)
+
+    then:
+    noExceptionThrown()
+  }
+
+  def "compact storage keeps the properties in insertion order"() {
+    setup:
+    def compact = new OrderedPropertiesBuilder().withCompactStorage(true, cacheStrings).build()
+
+    when:
+    compact.load(asReader("b=2\na=1\nwide=\\u00e9\\u4e2d\nc=3\n"))
+    compact.setProperty("a", "one")
+    compact.setProperty("\u4e2d", "x")
+    compact.removeProperty("c")
+    def binary = new ByteArrayOutputStream()
+    compact.writeBinary(binary)
+
+    then:
+    compact.isCompact()
+    compact.entries()*.toString() == ["b=2", "a=one", "wide=\u00e9\u4e2d", "\u4e2d=x"]
+    compact.getProperty("wide") == "\u00e9\u4e2d"
+    compact.getProperty("c") == null
+    compact.subset("w").entries()*.toString() == ["wide=\u00e9\u4e2d"]
+    compact.freeze() == compact
+    OrderedProperties.copyOf(compact).isCompact()
+    OrderedProperties.readBinary(new ByteArrayInputStream(binary.toByteArray())).isCompact()
+
+    where:
+    cacheStrings << [false, true]
+  }
+
+  def "compact storage reclaims the space of replaced and removed properties"() {
+    setup:
+    def compact = new OrderedPropertiesBuilder().withCompactStorage(true).build()
+
+    when:
+    1000.times { compact.setProperty("key" + it, "value" + it) }
+    10.times { round -> 1000.times { compact.setProperty("key" + it, "value" + round + it) } }
+    (0..<1000).findAll { it % 3 != 0 }.each { compact.removeProperty("key" + it) }
+
+    then:
+    compact.size() == 334
+    compact.stringPropertyNames() == (0..<1000).findAll { it % 3 == 0 }.collect { "key" + it } as Set
+    compact.getProperty("key999") == "value9999"
+    compact.getProperty("key1") == null
+  }
+
+  def "typed values of compact storage are converted once"() {
+    setup:
+    def compact = new OrderedPropertiesBuilder().withCompactStorage(true).build()
+    compact.setProperty("port", "8080")
+    compact.setProperty("timeout", "30s")
+
+    when:
+    def port = compact.getInt("port", 0)
+    def parsed = compact.parsedValues.get("port")
+
+    then:
+    port == 8080
+    compact.getInt("port", 0) == 8080
+    compact.parsedValues.get("port").is(parsed)
+    compact.getDuration("timeout", null) == Duration.ofSeconds(30)
+
+    when:
+    compact.setProperty("port", "8081")
+
+    then:
+    compact.getInt("port", 0) == 8081
+    !compact.parsedValues.get("port").is(parsed)
+  }
+
+  def "compact storage rejects null keys and values"() {
+    setup:
+    def compact = new OrderedPropertiesBuilder().withCompactStorage(true).build()
+
+    when:
+    compact.setProperty("a", null)
+
+    then:
+    thrown(NullPointerException)
+  }
+
+  def "compact storage does not apply to properties with a custom ordering"() {
+    expect:
+    !new OrderedPropertiesBuilder().withCompactStorage(true).withOrdering(String.CASE_INSENSITIVE_ORDER).build().isCompact()
+    !new OrderedPropertiesBuilder().withCompactStorage(true).withConcurrency(true).build().isCompact()
+  }
+
+  def "off-heap storage iterates and stores the same as heap storage"() {
+    setup:
+    def heap = new OrderedPropertiesBuilder().withSuppressDateInComment(true).build()
+    def offHeap = new OrderedPropertiesBuilder().withSuppressDateInComment(true).withOffHeapStorage(true).build()
+
+    when:
+    [heap, offHeap].each {
+      it.load(asReader("b=2\na=1\nwide=\\u00e9\\u4e2d\nc=3\n"))
+      it.setProperty("a", "one")
+      it.setProperty("\u4e2d", "x")
+      it.removeProperty("c")
+    }
+    def heapStore = new StringWriter()
+    heap.store(heapStore, "comment")
+    def offHeapStore = new StringWriter()
+    offHeap.store(offHeapStore, "comment")
+    def binary = new ByteArrayOutputStream()
+    offHeap.writeBinary(binary)
+
+    then:
+    offHeap.isOffHeap()
+    !heap.isOffHeap()
+    offHeap.entries()*.toString() == heap.entries()*.toString()
+    offHeapStore.toString() == heapStore.toString()
+    offHeap == heap
+    offHeap.hashCode() == heap.hashCode()
+    offHeap.getProperty("wide") == "\u00e9\u4e2d"
+    offHeap.subset("w").entries()*.toString() == ["wide=\u00e9\u4e2d"]
+    OrderedProperties.copyOf(offHeap).isOffHeap()
+    OrderedProperties.readBinary(new ByteArrayInputStream(binary.toByteArray())).isOffHeap()
+  }
+
+  def "typed values of off-heap storage are converted once"() {
+    setup:
+    def offHeap = new OrderedPropertiesBuilder().withOffHeapStorage(true).build()
+    offHeap.setProperty("enabled", "true")
+
+    when:
+    def enabled = offHeap.getBoolean("enabled", false)
+    def parsed = offHeap.parsedValues.get("enabled")
+
+    then:
+    enabled
+    offHeap.getBoolean("enabled", false)
+    offHeap.parsedValues.get("enabled").is(parsed)
+
+    when:
+    offHeap.setProperty("enabled", "false")
+
+    then:
+    !offHeap.getBoolean("enabled", true)
+  }
+
+  def "off-heap storage reclaims the space of replaced and removed properties"() {
+    setup:
+    def offHeap = new OrderedPropertiesBuilder().withOffHeapStorage(true).build()
+
+    when:
+    1000.times { offHeap.setProperty("key" + it, "value" + it) }
+    10.times { round -> 1000.times { offHeap.setProperty("key" + it, "value" + round + it) } }
+    (0..<1000).findAll { it % 3 != 0 }.each { offHeap.removeProperty("key" + it) }
+
+    then:
+    offHeap.size() == 334
+    offHeap.stringPropertyNames() == (0..<1000).findAll { it % 3 == 0 }.collect { "key" + it } as Set
+    offHeap.getProperty("key999") == "value9999"
+    offHeap.getProperty("key1") == null
   }
 
   private static Reader asReader(String text) {
@@ -506,4 +2348,11 @@ a=111
     new ByteArrayInputStream(text.getBytes("ISO-8859-1"))
   }
 
+  private static Path asPath(String text) {
+    def file = File.createTempFile("ordered", ".properties")
+    file.deleteOnExit()
+    file.setBytes(text.getBytes("ISO-8859-1"))
+    file.toPath()
+  }
+
 }
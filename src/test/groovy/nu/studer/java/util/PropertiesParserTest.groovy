@@ -0,0 +1,137 @@
+package nu.studer.java.util
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class PropertiesParserTest extends Specification {
+
+  private static final String ALPHABET = "ab=: \t\f\\\\\\#!\n\r\r\nuU01fFxg\u00e9\u4e2d"
+
+  @Unroll
+  def "parsing '#escaped' yields the same properties as java.util.Properties"() {
+    expect:
+    assertConformance(input)
+
+    where:
+    input << [
+        "",
+        "a=1",
+        "a:1",
+        "a 1",
+        "a\t\f 1",
+        "a = = 1",
+        "a := 1",
+        "  a=1  ",
+        "a",
+        "a=",
+        "=1",
+        ":",
+        "a\\ b=1",
+        "a\\=b=1",
+        "a\\:b=1",
+        "a=\\t\\n\\r\\f\\x",
+        "a=\\u0041\\u00e9\\u4E2D",
+        "a=1\\\n  2",
+        "a=1\\\r\n  2",
+        "a=1\\\r  2",
+        "a=1\\\\\n b=2",
+        "a=1\\",
+        "a=1\\\\",
+        "# comment\na=1",
+        "! comment\na=1",
+        "  # comment\na=1",
+        "# comment \\\na=1",
+        "a=1\\\n# not a comment",
+        "\\\n# a comment",
+        "\n\n\r\n  \t\na=1\n\n",
+        "a=1\nb=2\na=3",
+        "a=\u00e9\u4e2d",
+    ]
+
+    escaped = input.replace("\n", "\\n").replace("\r", "\\r").replace("\t", "\\t").replace("\f", "\\f")
+  }
+
+  @Unroll
+  def "parsing fuzzed input of length #maxLength with seed #seed yields the same properties as java.util.Properties"() {
+    setup:
+    def random = new Random(seed)
+
+    expect:
+    5000.times {
+      assertConformance(randomInput(random, maxLength))
+    }
+
+    where:
+    seed | maxLength
+    1    | 10
+    2    | 40
+    3    | 200
+    4    | 20000
+  }
+
+  def "malformed unicode escapes are rejected like in java.util.Properties"() {
+    when:
+    new OrderedProperties().load(new StringReader(input))
+
+    then:
+    def e = thrown(IllegalArgumentException)
+    e.message == "Malformed \\uxxxx encoding."
+
+    where:
+    input << ["a=\\u00", "a=\\u00g1", "\\uxyz=1"]
+  }
+
+  private static String randomInput(Random random, int maxLength) {
+    def length = random.nextInt(maxLength)
+    def builder = new StringBuilder(length)
+    length.times {
+      if (random.nextInt(10) == 0) {
+        builder.append("\\u004a")
+      } else {
+        builder.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())))
+      }
+    }
+    builder.toString()
+  }
+
+  private static boolean assertConformance(String input) {
+    assertSameResult(input, { it.load(new StringReader(input)) })
+    assertSameResult(input, { it.load(new ByteArrayInputStream(input.getBytes("ISO-8859-1"))) })
+    true
+  }
+
+  private static void assertSameResult(String input, Closure load) {
+    def expectedKeys = []
+    def jdkProperties = new Properties() {
+      @Override
+      synchronized Object put(Object key, Object value) {
+        if (!containsKey(key)) {
+          expectedKeys << key
+        }
+        super.put(key, value)
+      }
+    }
+    def props = new OrderedProperties()
+
+    def jdkFailure = failureOf { load(jdkProperties) }
+    def failure = failureOf { load(props) }
+
+    assert failure == jdkFailure: "input: $input"
+    if (jdkFailure == null) {
+      assert props.stringPropertyNames() as List == expectedKeys: "input: $input"
+      expectedKeys.each { key ->
+        assert props.getProperty(key) == jdkProperties.getProperty(key): "input: $input"
+      }
+    }
+  }
+
+  private static String failureOf(Closure action) {
+    try {
+      action()
+      null
+    } catch (Exception e) {
+      "${e.class.name}: ${e.message}"
+    }
+  }
+
+}
@@ -0,0 +1,106 @@
+package nu.studer.java.util
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class PropertiesWriterTest extends Specification {
+
+  private static final String ALPHABET = "ab =:#!\\\t\n\r\f\u0001\u007f\u00e9\u4e2d x"
+
+  @Unroll
+  def "storing key '#key' and value '#value' yields the same output as java.util.Properties"() {
+    expect:
+    assertConformance([(key): value], null)
+
+    where:
+    key       | value
+    "a"       | "1"
+    "a b"     | " 1 2 "
+    "a=b:c"   | "=:"
+    "#a!b"    | "#1!2"
+    "a\\b"    | "1\\2"
+    "\t\n\r\f" | "\t\n\r\f"
+    "\u0001"  | "\u007f"
+    "\u00e9"  | "\u4e2d"
+    ""        | ""
+  }
+
+  @Unroll
+  def "storing comment '#comment' yields the same output as java.util.Properties"() {
+    expect:
+    assertConformance([a: "1"], comment)
+
+    where:
+    comment << ["", "foo", "foo\nbar", "foo\r\nbar", "foo\rbar", "foo\n#bar", "foo\n!bar", "foo\n", "\u00e9\u4e2d"]
+  }
+
+  def "storing fuzzed properties yields the same output as java.util.Properties"() {
+    setup:
+    def random = new Random(1)
+
+    expect:
+    5000.times {
+      assertConformance([(randomText(random)): randomText(random)], random.nextBoolean() ? randomText(random) : null)
+    }
+  }
+
+  def "storing many properties writes all of them in order"() {
+    setup:
+    def props = new OrderedProperties()
+    def random = new Random(1)
+    20000.times {
+      props.setProperty("key$it", randomText(random) * random.nextInt(100))
+    }
+    def stream = new ByteArrayOutputStream()
+    def writer = new StringWriter()
+
+    when:
+    props.store(stream, null)
+    props.store(writer, null)
+
+    then:
+    def fromStream = new OrderedProperties()
+    fromStream.load(new ByteArrayInputStream(stream.toByteArray()))
+    fromStream == props
+
+    def fromWriter = new OrderedProperties()
+    fromWriter.load(new StringReader(writer.toString()))
+    fromWriter == props
+  }
+
+  private static String randomText(Random random) {
+    def length = random.nextInt(12)
+    def builder = new StringBuilder(length)
+    length.times {
+      builder.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())))
+    }
+    builder.toString()
+  }
+
+  private static boolean assertConformance(Map<String, String> entries, String comment) {
+    def jdkProperties = new Properties()
+    def props = new OrderedProperties()
+    entries.each { key, value ->
+      jdkProperties.setProperty(key, value)
+      props.setProperty(key, value)
+    }
+
+    def jdkStream = new ByteArrayOutputStream()
+    def stream = new ByteArrayOutputStream()
+    jdkProperties.store(jdkStream, comment)
+    props.store(stream, comment)
+    assert withoutDate(stream.toString("ISO-8859-1")) == withoutDate(jdkStream.toString("ISO-8859-1"))
+
+    def jdkWriter = new StringWriter()
+    def writer = new StringWriter()
+    jdkProperties.store(jdkWriter, comment)
+    props.store(writer, comment)
+    assert withoutDate(writer.toString()) == withoutDate(jdkWriter.toString())
+    true
+  }
+
+  private static String withoutDate(String text) {
+    text.replaceAll(/#\w{3} \w{3} \d\d \d\d:\d\d:\d\d \S+ \d{4}/, "#DATE")
+  }
+
+}